@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.test.AndroidTestCase;
+import android.text.format.Time;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.DayBoundaries;
+
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Locale;
+import java.util.TimeZone;
+
+public class TestDateLabels extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestDateLabels.class.getSimpleName();
+
+    private static final int BENCHMARK_LABELS = 1000;
+
+    private DateLabels mLabels;
+    private long mToday;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mLabels = DateLabels.get(mContext);
+        mLabels.invalidate();
+        Time time = new Time();
+        time.setToNow();
+        mToday = time.setJulianDay(Time.getJulianDay(System.currentTimeMillis(), time.gmtoff));
+    }
+
+    private long getDay(int daysFromToday) {
+        Time time = new Time();
+        time.setToNow();
+        return time.setJulianDay(Time.getJulianDay(mToday, time.gmtoff) + daysFromToday);
+    }
+
+    public void testLabels() {
+        String today = mContext.getString(R.string.today);
+        String monthDay = new SimpleDateFormat("MMMM dd").format(mToday);
+        assertEquals(mContext.getString(R.string.format_full_friendly_date, today, monthDay),
+                mLabels.getFriendlyDayString(mToday, true));
+        assertEquals(today, mLabels.getFriendlyDayString(mToday, false));
+        assertEquals(monthDay, mLabels.getFormattedMonthDay(mToday));
+        assertEquals(mContext.getString(R.string.tomorrow), mLabels.getDayName(getDay(1)));
+
+        long inThreeDays = getDay(3);
+        assertEquals(new SimpleDateFormat("EEEE").format(inThreeDays),
+                mLabels.getFriendlyDayString(inThreeDays, false));
+        long inTenDays = getDay(10);
+        assertEquals(new SimpleDateFormat("EEE MMM dd").format(inTenDays),
+                mLabels.getFriendlyDayString(inTenDays, true));
+
+        // Any time of the same day gets the same, remembered, label
+        assertSame("Error: the label of a day wasn't remembered",
+                mLabels.getDayName(inThreeDays), mLabels.getDayName(inThreeDays + 60 * 60 * 1000));
+    }
+
+    public void testInvalidateOnLocaleChange() {
+        long inThreeDays = getDay(3);
+        Locale locale = Locale.getDefault();
+        try {
+            Locale.setDefault(Locale.US);
+            mLabels.invalidate();
+            assertEquals("Error: wrong day name in English", new SimpleDateFormat("EEEE",
+                    Locale.US).format(inThreeDays), mLabels.getDayName(inThreeDays));
+            Locale.setDefault(Locale.FRANCE);
+            mLabels.invalidate();
+            assertEquals("Error: the day name wasn't formatted again after a locale change",
+                    new SimpleDateFormat("EEEE", Locale.FRANCE).format(inThreeDays),
+                    mLabels.getDayName(inThreeDays));
+        } finally {
+            Locale.setDefault(locale);
+            mLabels.invalidate();
+        }
+    }
+
+    /*
+        Labels the days either side of both of Los Angeles' 2015 daylight saving transitions,
+        early, mid and late in each day.  Whichever offset today has, some of those dates fall
+        on another day with it than with their own, and mustn't leave a label behind for that
+        day.
+     */
+    public void testDaylightSavingTransitions() {
+        TimeZone defaultZone = TimeZone.getDefault();
+        TimeZone zone = TimeZone.getTimeZone("America/Los_Angeles");
+        try {
+            TimeZone.setDefault(zone);
+            DayBoundaries.invalidate();
+            mLabels.invalidate();
+            SimpleDateFormat dayName = new SimpleDateFormat("EEEE");
+            SimpleDateFormat monthDay = new SimpleDateFormat("MMMM dd");
+
+            Calendar calendar = Calendar.getInstance(zone);
+            int[][] firstDays = {{2015, Calendar.MARCH, 6}, {2015, Calendar.OCTOBER, 30}};
+            int[] minutesIntoDay = {0, 12 * 60, 23 * 60 + 30};
+            for (int[] firstDay : firstDays) {
+                for (int minutes : minutesIntoDay) {
+                    for (int i = 0; i < 5; i++) {
+                        calendar.clear();
+                        calendar.set(firstDay[0], firstDay[1], firstDay[2] + i, 0, minutes);
+                        long date = calendar.getTimeInMillis();
+                        assertEquals("Error: wrong day name for " + date,
+                                dayName.format(date), mLabels.getDayName(date));
+                        assertEquals("Error: wrong month and day for " + date,
+                                monthDay.format(date), mLabels.getFormattedMonthDay(date));
+                    }
+                }
+            }
+        } finally {
+            TimeZone.setDefault(defaultZone);
+            DayBoundaries.invalidate();
+            mLabels.invalidate();
+        }
+    }
+
+    /*
+        Not a pass/fail test: logs the time to label the dates of BENCHMARK_LABELS list rows
+        the way Utility used to, building the formatters and looking up the time for each, and
+        through DateLabels.
+     */
+    public void testBenchmark() {
+        long[] dates = new long[BENCHMARK_LABELS];
+        for (int i = 0; i < dates.length; i++) {
+            dates[i] = getDay(i % 14);
+        }
+
+        long start = System.nanoTime();
+        for (long date : dates) {
+            Time time = new Time();
+            time.setToNow();
+            int julianDay = Time.getJulianDay(date, time.gmtoff);
+            int currentJulianDay = Time.getJulianDay(System.currentTimeMillis(), time.gmtoff);
+            if (julianDay < currentJulianDay + 7) {
+                new SimpleDateFormat("EEEE").format(date);
+            } else {
+                new SimpleDateFormat("EEE MMM dd").format(date);
+            }
+        }
+        long perCallNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (long date : dates) {
+            mLabels.getFriendlyDayString(date, false);
+        }
+        long cachedNanos = System.nanoTime() - start;
+
+        Log.i(LOG_TAG, String.format(Locale.US,
+                "%d day labels: %.2fms formatting each, %.2fms through DateLabels",
+                BENCHMARK_LABELS, perCallNanos / 1e6, cachedNanos / 1e6));
+    }
+}
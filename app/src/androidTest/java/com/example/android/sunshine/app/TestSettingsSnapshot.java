@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.MatrixCursor;
+import android.os.Handler;
+import android.os.Looper;
+import android.preference.PreferenceManager;
+import android.support.v7.widget.RecyclerView;
+import android.test.AndroidTestCase;
+import android.util.Log;
+import android.view.ContextThemeWrapper;
+import android.view.View;
+import android.widget.AbsListView;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.utils.PollingCheck;
+
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/*
+    Checks that the settings snapshot follows changes to the preferences, and benchmarks
+    binding forecast list rows, which read the settings several times each.
+ */
+public class TestSettingsSnapshot extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestSettingsSnapshot.class.getSimpleName();
+
+    private static final int BENCHMARK_ROWS = 1000;
+
+    private SharedPreferences mPrefs;
+    private String mUnitsKey;
+    private String mSavedUnits;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPrefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        mUnitsKey = mContext.getString(R.string.pref_units_key);
+        mSavedUnits = mPrefs.getString(mUnitsKey, null);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mPrefs.edit().putString(mUnitsKey, mSavedUnits).commit();
+        super.tearDown();
+    }
+
+    private void setUnits(int unitsId) {
+        mPrefs.edit().putString(mUnitsKey, mContext.getString(unitsId)).commit();
+    }
+
+    public void testSnapshotFollowsPreferences() {
+        setUnits(R.string.pref_units_metric);
+        // Listeners are called on the main thread, after the commit on this one
+        new PollingCheck(5000) {
+            @Override
+            protected boolean check() {
+                return SettingsSnapshot.get(mContext).isMetric();
+            }
+        }.run();
+
+        SettingsSnapshot metric = SettingsSnapshot.get(mContext);
+        assertSame("Error: an unchanged setting replaced the snapshot",
+                metric, SettingsSnapshot.get(mContext));
+
+        setUnits(R.string.pref_units_imperial);
+        new PollingCheck(5000) {
+            @Override
+            protected boolean check() {
+                return !SettingsSnapshot.get(mContext).isMetric();
+            }
+        }.run();
+        assertTrue("Error: the old snapshot changed", metric.isMetric());
+        assertEquals("Error: the location was lost with the units change",
+                metric.getLocation(), SettingsSnapshot.get(mContext).getLocation());
+    }
+
+    /*
+        Not a pass/fail test: logs the time to bind BENCHMARK_ROWS forecast rows on the main
+        thread, and what reading the units the way Utility.isMetric used to costs against
+        reading them from the snapshot.
+     */
+    public void testBindBenchmark() throws Exception {
+        final Context context = new ContextThemeWrapper(mContext, R.style.AppTheme);
+        final MatrixCursor cursor = new MatrixCursor(new String[]{
+                WeatherContract.WeatherEntry._ID,
+                WeatherContract.WeatherEntry.COLUMN_DATE,
+                WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+                WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+                WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
+                WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+                WeatherContract.LocationEntry.COLUMN_COORD_LAT,
+                WeatherContract.LocationEntry.COLUMN_COORD_LONG}, BENCHMARK_ROWS);
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        for (int i = 0; i < BENCHMARK_ROWS; i++) {
+            cursor.addRow(new Object[]{i, today + i * 24L * 60 * 60 * 1000, "Clear",
+                    20.5 + i % 10, 10.5 - i % 10, "94043", 800 - (i % 4) * 100, 37.4, -122.1});
+        }
+
+        final long[] bindNanos = new long[2];
+        final CountDownLatch done = new CountDownLatch(1);
+        new Handler(Looper.getMainLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    ForecastAdapter adapter = new ForecastAdapter(context, null, new View(context),
+                            AbsListView.CHOICE_MODE_NONE);
+                    adapter.swapCursor(cursor);
+                    RecyclerView parent = new RecyclerView(context);
+                    ForecastAdapter.ForecastAdapterViewHolder todayHolder =
+                            adapter.onCreateViewHolder(parent, adapter.getItemViewType(0));
+                    ForecastAdapter.ForecastAdapterViewHolder dayHolder =
+                            adapter.onCreateViewHolder(parent, adapter.getItemViewType(1));
+                    // The first run warms up the formatters and resources
+                    for (int run = 0; run < bindNanos.length; run++) {
+                        long start = System.nanoTime();
+                        for (int i = 0; i < BENCHMARK_ROWS; i++) {
+                            adapter.onBindViewHolder(i == 0 ? todayHolder : dayHolder, i);
+                        }
+                        bindNanos[run] = System.nanoTime() - start;
+                    }
+                } finally {
+                    done.countDown();
+                }
+            }
+        });
+        assertTrue("Error: binding didn't finish", done.await(60, TimeUnit.SECONDS));
+
+        // Two temperatures per row
+        int reads = 2 * BENCHMARK_ROWS;
+        long start = System.nanoTime();
+        for (int i = 0; i < reads; i++) {
+            SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+            prefs.getString(mContext.getString(R.string.pref_units_key),
+                    mContext.getString(R.string.pref_units_metric))
+                    .equals(mContext.getString(R.string.pref_units_metric));
+        }
+        long preferenceNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int i = 0; i < reads; i++) {
+            SettingsSnapshot.get(mContext).isMetric();
+        }
+        long snapshotNanos = System.nanoTime() - start;
+
+        Log.i(LOG_TAG, String.format(Locale.US,
+                "Bound %d rows in %.1fms (%.1fus/row)", BENCHMARK_ROWS, bindNanos[1] / 1e6,
+                bindNanos[1] / 1e3 / BENCHMARK_ROWS));
+        Log.i(LOG_TAG, String.format(Locale.US,
+                "%d units reads: %.2fms from SharedPreferences, %.2fms from the snapshot",
+                reads, preferenceNanos / 1e6, snapshotNanos / 1e6));
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.util.Locale;
+import java.util.Random;
+
+public class TestUnitLabels extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestUnitLabels.class.getSimpleName();
+
+    private static final int BENCHMARK_ROWS = 1000;
+
+    private UnitLabels mLabels;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mLabels = UnitLabels.get(mContext);
+    }
+
+    private String formatTemperature(double temperature, boolean metric) {
+        if (!metric) {
+            temperature = (temperature * 1.8) + 32;
+        }
+        return String.format(mContext.getString(R.string.format_temperature), temperature);
+    }
+
+    private String formatWind(float windSpeed, float degrees, boolean metric) {
+        int windFormat;
+        if (metric) {
+            windFormat = R.string.format_wind_kmh;
+        } else {
+            windFormat = R.string.format_wind_mph;
+            windSpeed = .621371192237334f * windSpeed;
+        }
+
+        String direction = "Unknown";
+        if (degrees >= 337.5 || degrees < 22.5) {
+            direction = "N";
+        } else if (degrees >= 22.5 && degrees < 67.5) {
+            direction = "NE";
+        } else if (degrees >= 67.5 && degrees < 112.5) {
+            direction = "E";
+        } else if (degrees >= 112.5 && degrees < 157.5) {
+            direction = "SE";
+        } else if (degrees >= 157.5 && degrees < 202.5) {
+            direction = "S";
+        } else if (degrees >= 202.5 && degrees < 247.5) {
+            direction = "SW";
+        } else if (degrees >= 247.5 && degrees < 292.5) {
+            direction = "W";
+        } else if (degrees >= 292.5 && degrees < 337.5) {
+            direction = "NW";
+        }
+        return String.format(mContext.getString(windFormat), windSpeed, direction);
+    }
+
+    private void checkTemperature(double temperature) {
+        for (boolean metric : new boolean[]{true, false}) {
+            assertEquals("Error: wrong label for " + temperature + (metric ? "C" : "F"),
+                    formatTemperature(temperature, metric),
+                    mLabels.formatTemperature(temperature, metric));
+        }
+    }
+
+    public void testTemperatures() {
+        // Every tenth of a degree, the halves and the values either side of them, beyond both
+        // ends of the tables
+        for (int i = -1500; i <= 1500; i++) {
+            double tenths = i / 10.0;
+            double half = i + 0.5;
+            checkTemperature(tenths);
+            checkTemperature(half);
+            checkTemperature(Math.nextUp(half));
+            checkTemperature(Math.nextAfter(half, Double.NEGATIVE_INFINITY));
+        }
+        checkTemperature(-0.0);
+        checkTemperature(-0.4);
+        checkTemperature(-0.5);
+        checkTemperature(0.49999999999999994);
+        checkTemperature(-0.49999999999999994);
+        checkTemperature(Double.NaN);
+        checkTemperature(Double.POSITIVE_INFINITY);
+        checkTemperature(-1e300);
+        assertEquals("Error: -0.4 isn't -0", "-0",
+                mLabels.formatTemperature(-0.4, true).replaceAll("[^-0-9]", ""));
+    }
+
+    public void testWind() {
+        Random random = new Random(1);
+        for (int i = 0; i < 20000; i++) {
+            float speed = random.nextFloat() * 300;
+            float degrees = random.nextFloat() * 1000 - 300;
+            for (boolean metric : new boolean[]{true, false}) {
+                assertEquals("Error: wrong label for " + speed + " at " + degrees,
+                        formatWind(speed, degrees, metric),
+                        mLabels.formatWind(speed, degrees, metric));
+            }
+        }
+        float[] edges = {-0.0f, -1f, 0.5f, 250.5f, 22.5f, 67.5f, 337.5f, 360f, -22.5f,
+                Float.NaN, Float.POSITIVE_INFINITY};
+        for (float speed : edges) {
+            for (float degrees : edges) {
+                assertEquals("Error: wrong label for " + speed + " at " + degrees,
+                        formatWind(speed, degrees, true), mLabels.formatWind(speed, degrees, true));
+            }
+        }
+    }
+
+    /*
+        Formats the temperatures and wind of BENCHMARK_ROWS rows, as the list and detail view
+        bind them, checks nothing is allocated once the labels have been made, and logs the
+        time taken against String.format.
+     */
+    @SuppressWarnings("deprecation")
+    public void testBenchmark() {
+        Random random = new Random(2);
+        double[] highs = new double[BENCHMARK_ROWS];
+        double[] lows = new double[BENCHMARK_ROWS];
+        float[] speeds = new float[BENCHMARK_ROWS];
+        float[] directions = new float[BENCHMARK_ROWS];
+        for (int i = 0; i < BENCHMARK_ROWS; i++) {
+            highs[i] = random.nextDouble() * 50 - 10;
+            lows[i] = highs[i] - random.nextDouble() * 15;
+            speeds[i] = random.nextFloat() * 40;
+            directions[i] = random.nextFloat() * 360;
+        }
+        boolean metric = Utility.isMetric(mContext);
+
+        // Makes the wind labels these rows use
+        for (int i = 0; i < BENCHMARK_ROWS; i++) {
+            Utility.getFormattedWind(mContext, speeds[i], directions[i]);
+        }
+
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        long start = System.nanoTime();
+        for (int i = 0; i < BENCHMARK_ROWS; i++) {
+            Utility.formatTemperature(mContext, highs[i]);
+            Utility.formatTemperature(mContext, lows[i]);
+            Utility.getFormattedWind(mContext, speeds[i], directions[i]);
+        }
+        long labelNanos = System.nanoTime() - start;
+        Debug.stopAllocCounting();
+        int allocations = Debug.getThreadAllocCount();
+
+        start = System.nanoTime();
+        for (int i = 0; i < BENCHMARK_ROWS; i++) {
+            formatTemperature(highs[i], metric);
+            formatTemperature(lows[i], metric);
+            formatWind(speeds[i], directions[i], metric);
+        }
+        long formatNanos = System.nanoTime() - start;
+
+        Log.i(LOG_TAG, String.format(Locale.US,
+                "%d rows: %.2fms and %d allocations through UnitLabels, %.2fms with String.format",
+                BENCHMARK_ROWS, labelNanos / 1e6, allocations, formatNanos / 1e6));
+        assertEquals("Error: formatting rows allocated", 0, allocations);
+    }
+}
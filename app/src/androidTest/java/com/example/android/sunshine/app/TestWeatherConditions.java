@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.conditions.WeatherConditions;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/*
+    Compares Utility's condition lookups, now made through WeatherConditions, with the if/else
+    chains and switch they replaced, for every id from well below to well above the range the
+    tables cover.
+ */
+public class TestWeatherConditions extends AndroidTestCase {
+
+    private static final int FIRST_ID = -1000;
+    private static final int LAST_ID = 2000;
+
+    private static final List<Integer> DESCRIBED_IDS = Arrays.asList(
+            500, 501, 502, 503, 504, 511, 520, 531,
+            600, 601, 602, 611, 612, 615, 616, 620, 621, 622,
+            701, 711, 721, 731, 741, 751, 761, 762, 771, 781,
+            800, 801, 802, 803, 804,
+            900, 901, 902, 903, 904, 905, 906,
+            951, 952, 953, 954, 955, 956, 957, 958, 959, 960, 961, 962);
+
+    private static int getIconResource(int weatherId) {
+        if (weatherId >= 200 && weatherId <= 232) {
+            return R.drawable.ic_storm;
+        } else if (weatherId >= 300 && weatherId <= 321) {
+            return R.drawable.ic_light_rain;
+        } else if (weatherId >= 500 && weatherId <= 504) {
+            return R.drawable.ic_rain;
+        } else if (weatherId == 511) {
+            return R.drawable.ic_snow;
+        } else if (weatherId >= 520 && weatherId <= 531) {
+            return R.drawable.ic_rain;
+        } else if (weatherId >= 600 && weatherId <= 622) {
+            return R.drawable.ic_snow;
+        } else if (weatherId >= 701 && weatherId <= 761) {
+            return R.drawable.ic_fog;
+        } else if (weatherId == 761 || weatherId == 781) {
+            return R.drawable.ic_storm;
+        } else if (weatherId == 800) {
+            return R.drawable.ic_clear;
+        } else if (weatherId == 801) {
+            return R.drawable.ic_light_clouds;
+        } else if (weatherId >= 802 && weatherId <= 804) {
+            return R.drawable.ic_cloudy;
+        }
+        return -1;
+    }
+
+    private static int getArtResource(int weatherId) {
+        if (weatherId >= 200 && weatherId <= 232) {
+            return R.drawable.art_storm;
+        } else if (weatherId >= 300 && weatherId <= 321) {
+            return R.drawable.art_light_rain;
+        } else if (weatherId >= 500 && weatherId <= 504) {
+            return R.drawable.art_rain;
+        } else if (weatherId == 511) {
+            return R.drawable.art_snow;
+        } else if (weatherId >= 520 && weatherId <= 531) {
+            return R.drawable.art_rain;
+        } else if (weatherId >= 600 && weatherId <= 622) {
+            return R.drawable.art_snow;
+        } else if (weatherId >= 701 && weatherId <= 761) {
+            return R.drawable.art_fog;
+        } else if (weatherId == 761 || weatherId == 781) {
+            return R.drawable.art_storm;
+        } else if (weatherId == 800) {
+            return R.drawable.art_clear;
+        } else if (weatherId == 801) {
+            return R.drawable.art_light_clouds;
+        } else if (weatherId >= 802 && weatherId <= 804) {
+            return R.drawable.art_clouds;
+        }
+        return -1;
+    }
+
+    private String getConditionString(int weatherId) {
+        String name;
+        if (weatherId >= 200 && weatherId <= 232) {
+            name = "condition_2xx";
+        } else if (weatherId >= 300 && weatherId <= 321) {
+            name = "condition_3xx";
+        } else if (DESCRIBED_IDS.contains(weatherId)) {
+            name = "condition_" + weatherId;
+        } else {
+            return mContext.getString(R.string.condition_unknown, weatherId);
+        }
+        int stringId = mContext.getResources().getIdentifier(name, "string",
+                mContext.getPackageName());
+        assertTrue("Error: no string " + name, stringId != 0);
+        return mContext.getString(stringId);
+    }
+
+    public void testResources() {
+        for (int id = FIRST_ID; id <= LAST_ID; id++) {
+            assertEquals("Error: wrong icon for " + id, getIconResource(id),
+                    Utility.getIconResourceForWeatherCondition(id));
+            assertEquals("Error: wrong art for " + id, getArtResource(id),
+                    Utility.getArtResourceForWeatherCondition(id));
+        }
+    }
+
+    public void testStrings() {
+        for (int id = FIRST_ID; id <= LAST_ID; id++) {
+            assertEquals("Error: wrong description for " + id, getConditionString(id),
+                    Utility.getStringForWeatherCondition(mContext, id));
+        }
+    }
+
+    public void testArtUrls() {
+        String artPack = SettingsSnapshot.get(mContext).getArtPack();
+        for (int id = FIRST_ID; id <= LAST_ID; id++) {
+            String slug = WeatherConditions.getArtSlug(id);
+            String expected = slug != null ? String.format(Locale.US, artPack, slug) : null;
+            assertEquals("Error: wrong art url for " + id, expected,
+                    Utility.getArtUrlForWeatherCondition(mContext, id));
+            assertEquals("Error: art url without art for " + id,
+                    getIconResource(id) == -1, expected == null);
+        }
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.annotation.TargetApi;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/*
+    Runs a writer doing repeated bulk inserts, the way a sync does, alongside several readers
+    running the forecast query, and reports the readers' p50/p99 latency in rollback journal
+    mode and in write-ahead logging mode.
+ */
+public class TestConcurrentAccess extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestConcurrentAccess.class.getSimpleName();
+
+    private static final int LOCATIONS = 20;
+    private static final int DAYS = 14;
+    private static final int WRITES = 200;
+    private static final int READERS = 4;
+    private static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000;
+    private static final long FIRST_DAY = WeatherContract.normalizeDate(1419033600000L);
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        super.tearDown();
+    }
+
+    public void testWriteAheadLoggingEnabled() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+        WeatherDbHelper helper = new WeatherDbHelper(mContext);
+        Cursor cursor = helper.getWritableDatabase().rawQuery("PRAGMA journal_mode", null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals("Error: the database isn't in write-ahead logging mode",
+                    "wal", cursor.getString(0).toLowerCase(Locale.US));
+        } finally {
+            cursor.close();
+            helper.close();
+        }
+    }
+
+    /*
+        Fills in the weather for every location, DAYS days from the given one, in one
+        transaction the way WeatherProvider.bulkInsert does.
+     */
+    private static void writeForecasts(SQLiteDatabase db, int firstDay) {
+        db.beginTransaction();
+        try {
+            for (int location = 0; location < LOCATIONS; location++) {
+                for (int day = 0; day < DAYS; day++) {
+                    ContentValues values = new ContentValues();
+                    values.put(WeatherEntry.COLUMN_LOC_KEY, location);
+                    values.put(WeatherEntry.COLUMN_DATE,
+                            FIRST_DAY + (firstDay + day) * DAY_IN_MILLIS);
+                    values.put(WeatherEntry.COLUMN_SHORT_DESC, "Clear");
+                    values.put(WeatherEntry.COLUMN_WEATHER_ID, 800);
+                    values.put(WeatherEntry.COLUMN_MIN_TEMP, -5 + (firstDay + day) % 20);
+                    values.put(WeatherEntry.COLUMN_MAX_TEMP, 5 + (firstDay + day) % 20);
+                    values.put(WeatherEntry.COLUMN_HUMIDITY, 65);
+                    values.put(WeatherEntry.COLUMN_PRESSURE, 1013);
+                    values.put(WeatherEntry.COLUMN_WIND_SPEED, 4.5);
+                    values.put(WeatherEntry.COLUMN_DEGREES, 270);
+                    db.insert(WeatherEntry.TABLE_NAME, null, values);
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private static void seed(SQLiteDatabase db) {
+        for (int i = 0; i < LOCATIONS; i++) {
+            ContentValues values = new ContentValues();
+            values.put(LocationEntry._ID, i);
+            values.put(LocationEntry.COLUMN_LOCATION_SETTING, Integer.toString(i));
+            values.put(LocationEntry.COLUMN_CITY_NAME, "City " + i);
+            values.put(LocationEntry.COLUMN_COORD_LAT, i);
+            values.put(LocationEntry.COLUMN_COORD_LONG, i);
+            db.insert(LocationEntry.TABLE_NAME, null, values);
+        }
+        writeForecasts(db, 0);
+    }
+
+    /*
+        @return every reader query's latency in microseconds, sorted.
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private long[] runReadersAgainstWriter(boolean writeAheadLogging) throws Exception {
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        WeatherDbHelper helper = new WeatherDbHelper(mContext);
+        helper.setWriteAheadLoggingEnabled(writeAheadLogging);
+        final SQLiteDatabase db = helper.getWritableDatabase();
+        seed(db);
+
+        final AtomicBoolean writing = new AtomicBoolean(true);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final CountDownLatch started = new CountDownLatch(READERS + 1);
+        final List<List<Long>> latencies = new ArrayList<List<Long>>();
+        List<Thread> threads = new ArrayList<Thread>();
+
+        threads.add(new Thread("writer") {
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    started.await();
+                    for (int i = 1; i <= WRITES; i++) {
+                        writeForecasts(db, i);
+                        WeatherDbHelper.checkpoint(db);
+                    }
+                } catch (Throwable t) {
+                    failure.compareAndSet(null, t);
+                } finally {
+                    writing.set(false);
+                }
+            }
+        });
+        for (int r = 0; r < READERS; r++) {
+            final int reader = r;
+            final List<Long> readerLatencies = new ArrayList<Long>();
+            latencies.add(readerLatencies);
+            threads.add(new Thread("reader " + r) {
+                @Override
+                public void run() {
+                    started.countDown();
+                    try {
+                        started.await();
+                        int i = reader;
+                        while (writing.get()) {
+                            String setting = Integer.toString(i++ % LOCATIONS);
+                            String sql = WeatherProvider.buildQueryStatement(
+                                    WeatherEntry.buildWeatherLocation(setting), null, null,
+                                    WeatherEntry.COLUMN_DATE + " ASC");
+                            long start = System.nanoTime();
+                            Cursor cursor = db.rawQuery(sql, new String[]{setting});
+                            cursor.moveToLast();
+                            cursor.close();
+                            readerLatencies.add((System.nanoTime() - start) / 1000);
+                        }
+                    } catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                    }
+                }
+            });
+        }
+
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        helper.close();
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+
+        int count = 0;
+        for (List<Long> readerLatencies : latencies) {
+            count += readerLatencies.size();
+        }
+        long[] all = new long[count];
+        int next = 0;
+        for (List<Long> readerLatencies : latencies) {
+            for (long latency : readerLatencies) {
+                all[next++] = latency;
+            }
+        }
+        Arrays.sort(all);
+        return all;
+    }
+
+    private static long percentile(long[] sorted, int percentile) {
+        return sorted[Math.max(0, (int) Math.ceil(sorted.length * percentile / 100.0) - 1)];
+    }
+
+    public void testReaderLatencyUnderWrites() throws Exception {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            // The journal mode can only be chosen up front from Jelly Bean on
+            return;
+        }
+        long[] journal = runReadersAgainstWriter(false);
+        long[] wal = runReadersAgainstWriter(true);
+        assertTrue("Error: no reads completed with a rollback journal", journal.length > 0);
+        assertTrue("Error: no reads completed with write-ahead logging", wal.length > 0);
+
+        Log.i(LOG_TAG, String.format(Locale.US,
+                "Rollback journal: %d reads, p50 %dus, p99 %dus", journal.length,
+                percentile(journal, 50), percentile(journal, 99)));
+        Log.i(LOG_TAG, String.format(Locale.US,
+                "Write-ahead log:  %d reads, p50 %dus, p99 %dus", wal.length,
+                percentile(wal, 50), percentile(wal, 99)));
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.test.AndroidTestCase;
+import android.text.format.Time;
+import android.util.Log;
+
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+
+/*
+    Checks DayBoundaries against the Time code normalizeDate and the sync adapter used before,
+    in zones with transitions at or near midnight, half hour daylight saving and skipped days,
+    over every year from 1950 to 2050.
+ */
+public class TestDayBoundaries extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestDayBoundaries.class.getSimpleName();
+
+    private static final long HOUR_IN_MILLIS = 60L * 60 * 1000;
+    private static final long DAY_IN_MILLIS = 24 * HOUR_IN_MILLIS;
+
+    private static final String[] ZONES = {"UTC", "America/Los_Angeles", "America/New_York",
+            "America/Sao_Paulo", "America/Santiago", "America/Havana", "Europe/London",
+            "Europe/Moscow", "Asia/Tehran", "Asia/Kolkata", "Australia/Lord_Howe",
+            "Pacific/Apia", "Pacific/Chatham"};
+
+    // 1950-01-01 to 2050-01-01
+    private static final long FIRST_MILLIS = -631152000000L;
+    private static final long LAST_MILLIS = 2524608000000L;
+
+    private static final int RANDOM_SAMPLES = 5000;
+    private static final int BENCHMARK_DATES = 10000;
+
+    private TimeZone mDefaultZone;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDefaultZone = TimeZone.getDefault();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        TimeZone.setDefault(mDefaultZone);
+        DayBoundaries.invalidate();
+        super.tearDown();
+    }
+
+    private static long normalizeDateWithTime(long date) {
+        Time time = new Time();
+        time.set(date);
+        int julianDay = Time.getJulianDay(date, time.gmtoff);
+        return time.setJulianDay(julianDay);
+    }
+
+    private static int getJulianDayWithTime(long date) {
+        Time time = new Time();
+        time.set(date);
+        return Time.getJulianDay(date, time.gmtoff);
+    }
+
+    private static void checkDate(String zone, long date) {
+        // Twice, as the first call remembers the day the second one finds
+        for (int i = 0; i < 2; i++) {
+            assertEquals("Error: wrong normalized date for " + date + " in " + zone,
+                    normalizeDateWithTime(date), DayBoundaries.normalizeDate(date));
+            int julianDay = getJulianDayWithTime(date);
+            assertEquals("Error: wrong Julian day for " + date + " in " + zone,
+                    julianDay, DayBoundaries.getJulianDay(date));
+            assertEquals("Error: wrong start of day " + julianDay + " in " + zone,
+                    new Time().setJulianDay(julianDay), DayBoundaries.getDayStart(julianDay));
+        }
+    }
+
+    public void testMatchesTime() {
+        Random random = new Random(1);
+        for (String zoneId : ZONES) {
+            TimeZone zone = TimeZone.getTimeZone(zoneId);
+            TimeZone.setDefault(zone);
+            DayBoundaries.invalidate();
+
+            int transitions = 0;
+            int previousOffset = zone.getOffset(FIRST_MILLIS);
+            for (long day = FIRST_MILLIS; day < LAST_MILLIS; day += DAY_IN_MILLIS) {
+                int offset = zone.getOffset(day);
+                if (offset != previousOffset) {
+                    // Every hour of the days either side of the transition, and the last
+                    // millisecond before each
+                    transitions++;
+                    for (long date = day - 2 * DAY_IN_MILLIS; date < day + DAY_IN_MILLIS;
+                         date += HOUR_IN_MILLIS) {
+                        checkDate(zoneId, date);
+                        checkDate(zoneId, date - 1);
+                    }
+                    previousOffset = offset;
+                }
+            }
+            for (int i = 0; i < RANDOM_SAMPLES; i++) {
+                checkDate(zoneId, FIRST_MILLIS
+                        + (long) (random.nextDouble() * (LAST_MILLIS - FIRST_MILLIS)));
+            }
+            Log.d(LOG_TAG, zoneId + ": checked around " + transitions + " transitions");
+        }
+    }
+
+    /*
+        Time divides towards zero, so before 1970 it puts a date that isn't a midnight on the
+        day after the one holding it; such dates mustn't be answered from the day holding them.
+        Every quarter hour from a week before the epoch to a day after it, both ways round.
+     */
+    public void testAroundEpoch() {
+        for (String zoneId : new String[]{"UTC", "America/Los_Angeles", "Asia/Tokyo"}) {
+            TimeZone.setDefault(TimeZone.getTimeZone(zoneId));
+            for (int direction : new int[]{1, -1}) {
+                DayBoundaries.invalidate();
+                for (long i = -7 * 96; i <= 96; i++) {
+                    checkDate(zoneId, direction * i * HOUR_IN_MILLIS / 4);
+                }
+            }
+        }
+    }
+
+    public void testInvalidate() {
+        long date = 1420070400000L; // 2015-01-01T00:00Z
+        TimeZone.setDefault(TimeZone.getTimeZone("America/New_York"));
+        DayBoundaries.invalidate();
+        long newYork = DayBoundaries.normalizeDate(date);
+        TimeZone.setDefault(TimeZone.getTimeZone("Asia/Tokyo"));
+        DayBoundaries.invalidate();
+        assertEquals("Error: a day from the old zone was used",
+                normalizeDateWithTime(date), DayBoundaries.normalizeDate(date));
+        assertTrue("Error: the zones should have different days",
+                newYork != DayBoundaries.normalizeDate(date));
+    }
+
+    /*
+        Not a pass/fail test: logs the time to normalize the dates of a sync's worth of rows,
+        many times over, with a new Time for each and through DayBoundaries.
+     */
+    public void testBenchmark() {
+        long now = System.currentTimeMillis();
+        long[] dates = new long[BENCHMARK_DATES];
+        for (int i = 0; i < dates.length; i++) {
+            dates[i] = now + (i % 14) * DAY_IN_MILLIS;
+        }
+
+        long start = System.nanoTime();
+        for (long date : dates) {
+            normalizeDateWithTime(date);
+        }
+        long timeNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (long date : dates) {
+            DayBoundaries.normalizeDate(date);
+        }
+        long boundaryNanos = System.nanoTime() - start;
+
+        Log.i(LOG_TAG, String.format(Locale.US,
+                "%d dates: %.2fms with Time, %.2fms through DayBoundaries",
+                BENCHMARK_DATES, timeNanos / 1e6, boundaryNanos / 1e6));
+    }
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.HistoryEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.Locale;
+import java.util.Random;
+
+/*
+    Checks that ForecastArchive gives back what it packed, to the precision it quantizes to,
+    that pruned days come back out of the history uri, and logs the size of the archive and
+    the speed of reading it.
+ */
+public class TestForecastArchive extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestForecastArchive.class.getSimpleName();
+
+    private static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000;
+    private static final long FIRST_DAY = WeatherContract.normalizeDate(1419033600000L);
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        // Takes the locations' history with them
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+
+    /*
+        Days of plausible weather starting at FIRST_DAY, normalized one by one so they cross
+        the daylight saving changes the way synced days do.
+     */
+    private static ForecastBatch createDays(long locationId, int days, long seed) {
+        Random random = new Random(seed);
+        ForecastBatch batch = new ForecastBatch(days);
+        batch.setLocationId(locationId);
+        String[] descriptions = {"Clear", "Clouds", "Rain", "Snow"};
+        for (int i = 0; i < days; i++) {
+            double min = -10 + random.nextDouble() * 25;
+            batch.add(WeatherContract.normalizeDate(FIRST_DAY + i * DAY_IN_MILLIS),
+                    800 - random.nextInt(4) * 100, descriptions[random.nextInt(4)],
+                    min, min + random.nextDouble() * 12, 30 + random.nextDouble() * 70,
+                    990 + random.nextDouble() * 40, random.nextDouble() * 20,
+                    random.nextDouble() * 360);
+        }
+        return batch;
+    }
+
+    private static void assertSameDay(ForecastBatch expected, int i, ForecastBatch actual, int j) {
+        assertEquals(expected.getDate(i), actual.getDate(j));
+        assertEquals(expected.getWeatherId(i), actual.getWeatherId(j));
+        assertEquals(expected.getShortDesc(i), actual.getShortDesc(j));
+        assertEquals(expected.getMinTemp(i), actual.getMinTemp(j),
+                0.5 / ForecastArchive.TEMPERATURE_SCALE + 1e-9);
+        assertEquals(expected.getMaxTemp(i), actual.getMaxTemp(j),
+                0.5 / ForecastArchive.TEMPERATURE_SCALE + 1e-9);
+        assertEquals(expected.getHumidity(i), actual.getHumidity(j),
+                0.5 / ForecastArchive.HUMIDITY_SCALE + 1e-9);
+        assertEquals(expected.getPressure(i), actual.getPressure(j),
+                0.5 / ForecastArchive.PRESSURE_SCALE + 1e-9);
+        assertEquals(expected.getWindSpeed(i), actual.getWindSpeed(j),
+                0.5 / ForecastArchive.WIND_SPEED_SCALE + 1e-9);
+        assertEquals(expected.getDegrees(i), actual.getDegrees(j),
+                0.5 / ForecastArchive.DEGREES_SCALE + 1e-9);
+    }
+
+    public void testRoundTrip() {
+        ForecastBatch days = createDays(1, 31, 31);
+        byte[] data = ForecastArchive.encode(days);
+        ForecastBatch decoded = ForecastArchive.decode(data);
+        assertEquals(days.size(), decoded.size());
+        for (int i = 0; i < days.size(); i++) {
+            assertSameDay(days, i, decoded, i);
+        }
+        Log.i(LOG_TAG, String.format(Locale.US, "%d days packed into %d bytes, %.1f bytes/day",
+                days.size(), data.length, (double) data.length / days.size()));
+
+        assertEquals(0, ForecastArchive.decode(ForecastArchive.encode(new ForecastBatch(0))).size());
+    }
+
+    public void testMerge() {
+        ForecastBatch older = createDays(1, 10, 1);
+        ForecastBatch newer = new ForecastBatch(2);
+        newer.add(older.getDate(4), 500, "Rain", 1, 2, 3, 4, 5, 6);
+        newer.add(WeatherContract.normalizeDate(FIRST_DAY + 10 * DAY_IN_MILLIS),
+                600, "Snow", 1, 2, 3, 4, 5, 6);
+
+        ForecastBatch merged = ForecastArchive.merge(older, newer);
+        assertEquals("Error: the merge didn't replace the repeated day", 11, merged.size());
+        assertSameDay(older, 3, merged, 3);
+        assertSameDay(newer, 0, merged, 4);
+        assertSameDay(older, 5, merged, 5);
+        assertSameDay(newer, 1, merged, 10);
+    }
+
+    /*
+        Pruned days should leave the weather table for the history, merge into the months
+        archived before them and come back out of the history uri in range.
+     */
+    public void testArchiveThroughProvider() {
+        ContentValues northPole = TestUtilities.createNorthPoleLocationValues();
+        String locationSetting = northPole.getAsString(LocationEntry.COLUMN_LOCATION_SETTING);
+        long locationId = ContentUris.parseId(
+                mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, northPole));
+        ForecastBatch days = createDays(locationId, 60, 60);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, days.toContentValues());
+
+        // Archive the first 20 days, then the next 20, which share a month with the first
+        assertEquals(20, archiveUpTo(days.getDate(19)));
+        assertEquals(20, archiveUpTo(days.getDate(39)));
+
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                null, null, null, null);
+        assertEquals("Error: archived days are still in the weather table", 20, cursor.getCount());
+        cursor.close();
+
+        Uri historyUri = HistoryEntry.buildHistoryUri(locationSetting,
+                days.getDate(10), days.getDate(29));
+        cursor = mContext.getContentResolver().query(historyUri, null, null, null, null);
+        try {
+            assertEquals("Error: the history uri returned the wrong days", 20, cursor.getCount());
+            ForecastBatch history = new ForecastBatch(cursor.getCount());
+            while (cursor.moveToNext()) {
+                history.add(cursor.getLong(cursor.getColumnIndex(HistoryEntry.COLUMN_DATE)),
+                        cursor.getInt(cursor.getColumnIndex(HistoryEntry.COLUMN_WEATHER_ID)),
+                        cursor.getString(cursor.getColumnIndex(HistoryEntry.COLUMN_SHORT_DESC)),
+                        cursor.getDouble(cursor.getColumnIndex(HistoryEntry.COLUMN_MIN_TEMP)),
+                        cursor.getDouble(cursor.getColumnIndex(HistoryEntry.COLUMN_MAX_TEMP)),
+                        cursor.getDouble(cursor.getColumnIndex(HistoryEntry.COLUMN_HUMIDITY)),
+                        cursor.getDouble(cursor.getColumnIndex(HistoryEntry.COLUMN_PRESSURE)),
+                        cursor.getDouble(cursor.getColumnIndex(HistoryEntry.COLUMN_WIND_SPEED)),
+                        cursor.getDouble(cursor.getColumnIndex(HistoryEntry.COLUMN_DEGREES)));
+            }
+            for (int i = 0; i < history.size(); i++) {
+                assertSameDay(days, 10 + i, history, i);
+            }
+        } finally {
+            cursor.close();
+        }
+
+        // A projection picks the columns
+        cursor = mContext.getContentResolver().query(historyUri,
+                new String[]{HistoryEntry.COLUMN_MAX_TEMP}, null, null, null);
+        assertEquals(1, cursor.getColumnCount());
+        assertTrue(cursor.moveToFirst());
+        assertEquals(days.getMaxTemp(10), cursor.getDouble(0),
+                0.5 / ForecastArchive.TEMPERATURE_SCALE + 1e-9);
+        cursor.close();
+
+        // Deleting the location deletes its history
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        cursor = mContext.getContentResolver().query(HistoryEntry.CONTENT_URI,
+                null, null, null, null);
+        assertEquals("Error: history outlived its location", 0, cursor.getCount());
+        cursor.close();
+    }
+
+    private int archiveUpTo(long date) {
+        return mContext.getContentResolver().delete(WeatherEntry.buildWeatherArchiveUri(),
+                WeatherEntry.COLUMN_DATE + " <= ?", new String[]{Long.toString(date)});
+    }
+
+    /*
+        Not a pass/fail test: logs how many bytes ARCHIVE_BENCHMARK_DAYS of one location take
+        archived, and how fast a year of them reads back from the history uri compared with
+        the same year read from the weather table before it was archived.
+     */
+    private static final int ARCHIVE_BENCHMARK_DAYS = 3 * 365;
+
+    public void testArchiveBenchmark() {
+        ContentValues northPole = TestUtilities.createNorthPoleLocationValues();
+        String locationSetting = northPole.getAsString(LocationEntry.COLUMN_LOCATION_SETTING);
+        long locationId = ContentUris.parseId(
+                mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, northPole));
+        ForecastBatch days = createDays(locationId, ARCHIVE_BENCHMARK_DAYS, 3);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, days.toContentValues());
+
+        long yearStart = days.getDate(365);
+        long yearEnd = days.getDate(2 * 365 - 1);
+        long start = System.nanoTime();
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI, null,
+                WeatherEntry.COLUMN_LOC_KEY + " = ? AND " + WeatherEntry.COLUMN_DATE +
+                        " BETWEEN ? AND ?", new String[]{Long.toString(locationId),
+                        Long.toString(yearStart), Long.toString(yearEnd)},
+                WeatherEntry.COLUMN_DATE + " ASC");
+        int rows = cursor.getCount();
+        cursor.close();
+        long weatherNanos = System.nanoTime() - start;
+        assertEquals(365, rows);
+
+        start = System.nanoTime();
+        int archived = archiveUpTo(Long.MAX_VALUE);
+        long archiveNanos = System.nanoTime() - start;
+        assertEquals(ARCHIVE_BENCHMARK_DAYS, archived);
+
+        start = System.nanoTime();
+        cursor = mContext.getContentResolver().query(
+                HistoryEntry.buildHistoryUri(locationSetting, yearStart, yearEnd),
+                null, null, null, null);
+        rows = cursor.getCount();
+        cursor.close();
+        long historyNanos = System.nanoTime() - start;
+        assertEquals("Error: the history uri didn't return the year", 365, rows);
+
+        cursor = mContext.getContentResolver().query(HistoryEntry.CONTENT_URI,
+                new String[]{"COUNT(*)", "SUM(LENGTH(" + HistoryEntry.COLUMN_DATA + "))",
+                        "SUM(" + HistoryEntry.COLUMN_DAYS + ")"}, null, null, null);
+        assertTrue(cursor.moveToFirst());
+        int months = cursor.getInt(0);
+        long bytes = cursor.getLong(1);
+        assertEquals(ARCHIVE_BENCHMARK_DAYS, cursor.getInt(2));
+        cursor.close();
+
+        Log.i(LOG_TAG, String.format(Locale.US,
+                "Archived %d days in %dms into %d months of %d bytes, %.1f bytes/day",
+                archived, archiveNanos / 1000000, months, bytes, (double) bytes / archived));
+        Log.i(LOG_TAG, String.format(Locale.US,
+                "A year of days read in %.1fms from the weather table, %.1fms from the history",
+                weatherNanos / 1e6, historyNanos / 1e6));
+    }
+}
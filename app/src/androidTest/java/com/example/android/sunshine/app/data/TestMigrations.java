@@ -0,0 +1,363 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/*
+    Builds the weather database as it was at every version WeatherDbMigrations can migrate
+    from, fills it with forecasts, opens it with the current WeatherDbHelper and checks that
+    the forecasts survived, the schema matches a freshly created one, and how long it took.
+ */
+public class TestMigrations extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestMigrations.class.getSimpleName();
+
+    private static final int LOCATIONS = 100;
+    private static final int DAYS = 14;
+    private static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000;
+    private static final long FIRST_DAY = WeatherContract.normalizeDate(1419033600000L);
+    private static final long MAX_MIGRATION_MILLIS = 2000;
+
+    // The schema as released at version 2
+    private static final String[] SCHEMA_2 = {
+            "CREATE TABLE location (" +
+                    "_id INTEGER PRIMARY KEY," +
+                    "location_setting TEXT UNIQUE NOT NULL, " +
+                    "city_name TEXT NOT NULL, " +
+                    "coord_lat REAL NOT NULL, " +
+                    "coord_long REAL NOT NULL " +
+                    " );",
+            "CREATE TABLE weather (" +
+                    "_id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                    "location_id INTEGER NOT NULL, " +
+                    "date INTEGER NOT NULL, " +
+                    "short_desc TEXT NOT NULL, " +
+                    "weather_id INTEGER NOT NULL," +
+                    "min REAL NOT NULL, " +
+                    "max REAL NOT NULL, " +
+                    "humidity REAL NOT NULL, " +
+                    "pressure REAL NOT NULL, " +
+                    "wind REAL NOT NULL, " +
+                    "degrees REAL NOT NULL, " +
+                    " FOREIGN KEY (location_id) REFERENCES location (_id),  " +
+                    "UNIQUE (date, location_id) ON CONFLICT REPLACE);",
+    };
+
+    // Version 3 added the validators
+    private static final String[] SCHEMA_3 = {
+            SCHEMA_2[0],
+            SCHEMA_2[1],
+            "CREATE TABLE validator (" +
+                    "_id INTEGER PRIMARY KEY," +
+                    "location_setting TEXT UNIQUE NOT NULL ON CONFLICT REPLACE, " +
+                    "etag TEXT, " +
+                    "last_modified TEXT " +
+                    " );",
+    };
+
+    // Version 4 indexed the weather by location and date
+    private static final String[] SCHEMA_4 = {
+            SCHEMA_3[0],
+            SCHEMA_3[1],
+            SCHEMA_3[2],
+            "CREATE INDEX weather_location_date ON weather (location_id, date);",
+    };
+
+    // The statements creating version 5's triggers, which all copy a location's first day
+    private static final String REFRESH_CURRENT_5 = "INSERT OR REPLACE INTO current " +
+            "(location_setting, location_id, date, weather_id, short_desc, min, max) " +
+            "SELECT location.location_setting, location_id, date, weather_id, short_desc, " +
+            "min, max FROM weather INNER JOIN location ON weather.location_id = location._id " +
+            "WHERE weather.location_id = %s ORDER BY date ASC LIMIT 1; ";
+    private static final String DELETE_CURRENT_5 = "DELETE FROM current WHERE location_id = %s; ";
+    private static final String FIRST_DAY_5 = "NOT EXISTS (SELECT 1 FROM weather " +
+            "WHERE location_id = %1$s.location_id AND date < %1$s.date)";
+
+    // Version 5 added the current conditions and the triggers keeping them
+    private static final String[] SCHEMA_5 = {
+            SCHEMA_4[0],
+            SCHEMA_4[1],
+            SCHEMA_4[2],
+            SCHEMA_4[3],
+            "CREATE TABLE current (" +
+                    "location_setting TEXT PRIMARY KEY, " +
+                    "location_id INTEGER UNIQUE NOT NULL, " +
+                    "date INTEGER NOT NULL, " +
+                    "weather_id INTEGER NOT NULL, " +
+                    "short_desc TEXT NOT NULL, " +
+                    "min REAL NOT NULL, " +
+                    "max REAL NOT NULL);",
+            "CREATE TRIGGER weather_current_insert AFTER INSERT ON weather WHEN " +
+                    String.format(FIRST_DAY_5, "NEW") + " BEGIN " +
+                    String.format(REFRESH_CURRENT_5, "NEW.location_id") + " END;",
+            "CREATE TRIGGER weather_current_update AFTER UPDATE ON weather BEGIN " +
+                    String.format(DELETE_CURRENT_5, "OLD.location_id") +
+                    String.format(REFRESH_CURRENT_5, "OLD.location_id") +
+                    String.format(REFRESH_CURRENT_5, "NEW.location_id") + " END;",
+            "CREATE TRIGGER weather_current_delete AFTER DELETE ON weather WHEN " +
+                    String.format(FIRST_DAY_5, "OLD") + " BEGIN " +
+                    String.format(DELETE_CURRENT_5, "OLD.location_id") +
+                    String.format(REFRESH_CURRENT_5, "OLD.location_id") + " END;",
+            "CREATE TRIGGER location_current_insert AFTER INSERT ON location BEGIN " +
+                    String.format(REFRESH_CURRENT_5, "NEW._id") + " END;",
+            "CREATE TRIGGER location_current_update AFTER UPDATE ON location BEGIN " +
+                    String.format(DELETE_CURRENT_5, "OLD._id") +
+                    String.format(REFRESH_CURRENT_5, "NEW._id") + " END;",
+            "CREATE TRIGGER location_current_delete AFTER DELETE ON location BEGIN " +
+                    String.format(DELETE_CURRENT_5, "OLD._id") + " END;",
+    };
+
+    // Indexed by version; every version from FIRST_MIGRATED_VERSION to the one before the
+    // current needs one
+    private static final String[][] HISTORICAL_SCHEMAS =
+            {null, null, SCHEMA_2, SCHEMA_3, SCHEMA_4, SCHEMA_5};
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        super.tearDown();
+    }
+
+    public void testEveryVersionHasAStep() {
+        WeatherDbMigrations.Migration[] migrations = WeatherDbMigrations.MIGRATIONS;
+        for (int i = 0; i < migrations.length; i++) {
+            assertEquals("Error: migration steps out of order",
+                    WeatherDbMigrations.FIRST_MIGRATED_VERSION + i + 1, migrations[i].version);
+        }
+        assertEquals("Error: no migration step to the current version",
+                WeatherDbHelper.DATABASE_VERSION, migrations[migrations.length - 1].version);
+        assertEquals("Error: a historical schema is missing",
+                WeatherDbHelper.DATABASE_VERSION, HISTORICAL_SCHEMAS.length);
+    }
+
+    public void testMigrateFromEveryVersion() {
+        for (int version = WeatherDbMigrations.FIRST_MIGRATED_VERSION;
+             version < WeatherDbHelper.DATABASE_VERSION; version++) {
+            mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+            createHistoricalDatabase(version);
+
+            long start = System.nanoTime();
+            WeatherDbHelper helper = new WeatherDbHelper(mContext);
+            SQLiteDatabase db = helper.getWritableDatabase();
+            long elapsedMillis = (System.nanoTime() - start) / 1000000;
+            Log.i(LOG_TAG, String.format(Locale.US,
+                    "Migrated version %d with %d forecasts to version %d in %dms",
+                    version, LOCATIONS * DAYS, WeatherDbHelper.DATABASE_VERSION, elapsedMillis));
+
+            try {
+                assertEquals("Error: wrong version after migrating from " + version,
+                        WeatherDbHelper.DATABASE_VERSION, db.getVersion());
+                assertEquals("Error: the schema migrated from version " + version +
+                        " differs from a new database", describeNewSchema(), describeSchema(db));
+                verifyData(db, version);
+                assertTrue("Error: migrating from version " + version + " took " +
+                        elapsedMillis + "ms", elapsedMillis < MAX_MIGRATION_MILLIS);
+            } finally {
+                helper.close();
+            }
+        }
+    }
+
+    public void testTooOldVersionIsWiped() {
+        SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(
+                mContext.getDatabasePath(WeatherDbHelper.DATABASE_NAME), null);
+        db.execSQL("CREATE TABLE location (_id INTEGER PRIMARY KEY, name TEXT)");
+        db.setVersion(WeatherDbMigrations.FIRST_MIGRATED_VERSION - 1);
+        db.close();
+
+        WeatherDbHelper helper = new WeatherDbHelper(mContext);
+        try {
+            assertEquals("Error: the schema of a wiped database differs from a new database",
+                    describeNewSchema(), describeSchema(helper.getWritableDatabase()));
+        } finally {
+            helper.close();
+        }
+    }
+
+    private void createHistoricalDatabase(int version) {
+        SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(
+                mContext.getDatabasePath(WeatherDbHelper.DATABASE_NAME), null);
+        try {
+            for (String sql : HISTORICAL_SCHEMAS[version]) {
+                db.execSQL(sql);
+            }
+            db.beginTransaction();
+            try {
+                for (int i = 0; i < LOCATIONS; i++) {
+                    db.execSQL("INSERT INTO location VALUES (?, ?, ?, ?, ?)", new Object[]{
+                            i + 1, "setting " + i, "City " + i, i * 0.5, i * -0.5});
+                    for (int day = 0; day < DAYS; day++) {
+                        db.execSQL("INSERT INTO weather (location_id, date, short_desc, " +
+                                "weather_id, min, max, humidity, pressure, wind, degrees) " +
+                                "VALUES (?, ?, 'Clear', ?, ?, ?, 65, 1013, 4.5, 270)", new Object[]{
+                                i + 1, FIRST_DAY + day * DAY_IN_MILLIS, 800 + day, day - 5, day + 5});
+                    }
+                    if (version >= 3) {
+                        db.execSQL("INSERT INTO validator (location_setting, etag) VALUES (?, ?)",
+                                new Object[]{"setting " + i, "\"etag-" + i + "\""});
+                    }
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            db.setVersion(version);
+        } finally {
+            db.close();
+        }
+    }
+
+    private void verifyData(SQLiteDatabase db, int version) {
+        Cursor cursor = db.rawQuery("SELECT location_setting, city_name, date, weather_id, min, max" +
+                " FROM weather INNER JOIN location ON weather.location_id = location._id" +
+                " ORDER BY location._id, date", null);
+        try {
+            assertEquals("Error: forecasts lost migrating from version " + version,
+                    LOCATIONS * DAYS, cursor.getCount());
+            for (int i = 0; i < LOCATIONS; i++) {
+                for (int day = 0; day < DAYS; day++) {
+                    assertTrue(cursor.moveToNext());
+                    assertEquals("setting " + i, cursor.getString(0));
+                    assertEquals("City " + i, cursor.getString(1));
+                    assertEquals(FIRST_DAY + day * DAY_IN_MILLIS, cursor.getLong(2));
+                    assertEquals(800 + day, cursor.getInt(3));
+                    assertEquals(day - 5.0, cursor.getDouble(4));
+                    assertEquals(day + 5.0, cursor.getDouble(5));
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+
+        // Every location's first day, whether migrated into the table or written by its triggers
+        cursor = db.rawQuery("SELECT location_setting, date, weather_id FROM current" +
+                " ORDER BY location_id", null);
+        try {
+            assertEquals("Error: current conditions missing after migrating from version " +
+                    version, LOCATIONS, cursor.getCount());
+            for (int i = 0; cursor.moveToNext(); i++) {
+                assertEquals("setting " + i, cursor.getString(0));
+                assertEquals(FIRST_DAY, cursor.getLong(1));
+                assertEquals(800, cursor.getInt(2));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        if (version >= 3) {
+            cursor = db.rawQuery("SELECT COUNT(*) FROM validator", null);
+            try {
+                assertTrue(cursor.moveToFirst());
+                assertEquals("Error: validators lost migrating from version " + version,
+                        LOCATIONS, cursor.getInt(0));
+            } finally {
+                cursor.close();
+            }
+        }
+    }
+
+    private List<String> describeNewSchema() {
+        SQLiteDatabase db = SQLiteDatabase.create(null);
+        try {
+            new WeatherDbHelper(mContext).onCreate(db);
+            return describeSchema(db);
+        } finally {
+            db.close();
+        }
+    }
+
+    /*
+        Describes every table's columns, every index's columns and the names of the triggers,
+        in a form that doesn't depend on the SQL that created them.
+     */
+    private static List<String> describeSchema(SQLiteDatabase db) {
+        List<String> description = new ArrayList<String>();
+        Cursor cursor = db.rawQuery("SELECT tbl_name, name FROM sqlite_master" +
+                " WHERE type = 'trigger'", null);
+        try {
+            while (cursor.moveToNext()) {
+                description.add(cursor.getString(0) + " trigger " + cursor.getString(1));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        List<String> tables = new ArrayList<String>();
+        cursor = db.rawQuery("SELECT name FROM sqlite_master WHERE type = 'table'" +
+                " AND name NOT LIKE 'sqlite_%' AND name != 'android_metadata'", null);
+        try {
+            while (cursor.moveToNext()) {
+                tables.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        for (String table : tables) {
+            cursor = db.rawQuery("PRAGMA table_info(" + table + ")", null);
+            try {
+                while (cursor.moveToNext()) {
+                    description.add(String.format(Locale.US, "%s.%s %s notnull=%d pk=%d",
+                            table, cursor.getString(cursor.getColumnIndex("name")),
+                            cursor.getString(cursor.getColumnIndex("type")),
+                            cursor.getInt(cursor.getColumnIndex("notnull")),
+                            cursor.getInt(cursor.getColumnIndex("pk"))));
+                }
+            } finally {
+                cursor.close();
+            }
+
+            List<String> indexes = new ArrayList<String>();
+            cursor = db.rawQuery("PRAGMA index_list(" + table + ")", null);
+            try {
+                while (cursor.moveToNext()) {
+                    indexes.add(cursor.getString(cursor.getColumnIndex("name")));
+                }
+            } finally {
+                cursor.close();
+            }
+            for (String index : indexes) {
+                StringBuilder columns = new StringBuilder();
+                cursor = db.rawQuery("PRAGMA index_info(" + index + ")", null);
+                try {
+                    while (cursor.moveToNext()) {
+                        columns.append(' ').append(cursor.getString(cursor.getColumnIndex("name")));
+                    }
+                } finally {
+                    cursor.close();
+                }
+                description.add(table + " index" + columns);
+            }
+        }
+        Collections.sort(description);
+        return description;
+    }
+}
@@ -16,19 +16,35 @@
 package com.example.android.sunshine.app.data;
 
 import android.content.ComponentName;
+import android.content.ContentProviderClient;
+import android.content.ContentProviderOperation;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.pm.PackageManager;
 import android.content.pm.ProviderInfo;
+import android.database.ContentObserver;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
 import android.os.Build;
+import android.os.Bundle;
+import android.os.Debug;
+import android.os.Handler;
+import android.os.HandlerThread;
 import android.test.AndroidTestCase;
 import android.util.Log;
 
+import com.example.android.sunshine.app.BuildConfig;
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.app.utils.PollingCheck;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /*
     Note: This is not a complete set of tests of the Sunshine ContentProvider, but it does test
@@ -512,4 +528,463 @@ public class TestProvider extends AndroidTestCase {
         }
         cursor.close();
     }
+
+    /*
+        Upserting the same rows twice should leave them alone the second time, and changing one
+        value should update that row in place rather than replace it.
+     */
+    public void testUpsert() {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+
+        Bundle counts = upsert(createBulkInsertWeatherValues(locationRowId));
+        assertEquals("Error: new rows weren't inserted",
+                BULK_INSERT_RECORDS_TO_INSERT, counts.getInt(WeatherEntry.KEY_INSERTED));
+
+        long[] ids = getWeatherIds();
+
+        // Same values again: nothing to write, so observers must not hear about it
+        TestUtilities.TestContentObserver weatherObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(WeatherEntry.CONTENT_URI, true, weatherObserver);
+        int written = mContext.getContentResolver().bulkInsert(
+                WeatherEntry.buildWeatherUpsertUri(), createBulkInsertWeatherValues(locationRowId));
+        assertEquals("Error: unchanged rows were written", 0, written);
+        try {
+            Thread.sleep(500);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        assertFalse("Error: observers were notified of an upsert that wrote nothing",
+                weatherObserver.mContentChanged);
+        mContext.getContentResolver().unregisterContentObserver(weatherObserver);
+        weatherObserver.mHT.quit();
+
+        // Change one day
+        ContentValues[] changedValues = createBulkInsertWeatherValues(locationRowId);
+        changedValues[3].put(WeatherEntry.COLUMN_MAX_TEMP, 99);
+        counts = upsert(changedValues);
+        assertEquals(0, counts.getInt(WeatherEntry.KEY_INSERTED));
+        assertEquals("Error: changed row wasn't updated", 1, counts.getInt(WeatherEntry.KEY_UPDATED));
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT - 1, counts.getInt(WeatherEntry.KEY_UNCHANGED));
+
+        long[] idsAfterUpdate = getWeatherIds();
+        assertEquals("Error: row count changed", ids.length, idsAfterUpdate.length);
+        for (int i = 0; i < ids.length; i++) {
+            assertEquals("Error: upsert changed the _id of row " + i, ids[i], idsAfterUpdate[i]);
+        }
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.CONTENT_URI, null, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        cursor.moveToPosition(3);
+        TestUtilities.validateCurrentRecord("testUpsert. Error validating updated row",
+                cursor, changedValues[3]);
+        cursor.close();
+    }
+
+    /*
+        The same forecast as createBulkInsertWeatherValues, with normalized dates, as
+        METHOD_WRITE_FORECAST expects.
+     */
+    static ForecastBatch createForecastBatch(long locationRowId, int days) {
+        long millisecondsInADay = 1000*60*60*24;
+        ForecastBatch batch = new ForecastBatch(days);
+        batch.setLocationId(locationRowId);
+        for (int i = 0; i < days; i++) {
+            batch.add(WeatherContract.normalizeDate(TestUtilities.TEST_DATE + i * millisecondsInADay),
+                    321, "Asteroids", 65 - i % 50, 75 + i % 50, 1.2 + 0.01 * (float) (i % 50),
+                    1.3 - 0.01 * (float) (i % 50), 5.5 + 0.2 * (float) (i % 50), 1.1);
+        }
+        return batch;
+    }
+
+    public void testWriteForecast() {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+
+        ForecastBatch batch = createForecastBatch(locationRowId, BULK_INSERT_RECORDS_TO_INSERT);
+        Bundle counts = writeForecast(batch);
+        assertEquals("Error: new rows weren't inserted",
+                BULK_INSERT_RECORDS_TO_INSERT, counts.getInt(WeatherEntry.KEY_INSERTED));
+        long[] ids = getWeatherIds();
+
+        // Same values again: nothing to write
+        counts = writeForecast(createForecastBatch(locationRowId, BULK_INSERT_RECORDS_TO_INSERT));
+        assertEquals("Error: unchanged rows were inserted", 0, counts.getInt(WeatherEntry.KEY_INSERTED));
+        assertEquals("Error: unchanged rows were updated", 0, counts.getInt(WeatherEntry.KEY_UPDATED));
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, counts.getInt(WeatherEntry.KEY_UNCHANGED));
+
+        // The columns land in the rows the ContentValues path would have written
+        ContentValues[] rows = batch.toContentValues();
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.CONTENT_URI, null, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+        for (int i = 0; cursor.moveToNext(); i++) {
+            TestUtilities.validateCurrentRecord("testWriteForecast. Error validating row " + i,
+                    cursor, rows[i]);
+        }
+        cursor.close();
+
+        // Change one day
+        ForecastBatch changed = new ForecastBatch(BULK_INSERT_RECORDS_TO_INSERT);
+        changed.setLocationId(locationRowId);
+        for (int i = 0; i < batch.size(); i++) {
+            changed.add(batch.getDate(i), batch.getWeatherId(i), batch.getShortDesc(i),
+                    batch.getMinTemp(i), i == 3 ? 99 : batch.getMaxTemp(i), batch.getHumidity(i),
+                    batch.getPressure(i), batch.getWindSpeed(i), batch.getDegrees(i));
+        }
+        counts = writeForecast(changed);
+        assertEquals(0, counts.getInt(WeatherEntry.KEY_INSERTED));
+        assertEquals("Error: changed row wasn't updated", 1, counts.getInt(WeatherEntry.KEY_UPDATED));
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT - 1, counts.getInt(WeatherEntry.KEY_UNCHANGED));
+
+        long[] idsAfterUpdate = getWeatherIds();
+        assertEquals("Error: row count changed", ids.length, idsAfterUpdate.length);
+        for (int i = 0; i < ids.length; i++) {
+            assertEquals("Error: writeForecast changed the _id of row " + i, ids[i], idsAfterUpdate[i]);
+        }
+    }
+
+    /*
+        Not a pass/fail test: logs rows/sec and allocations for writing WRITE_BENCHMARK_ROWS
+        new rows through the ContentValues upsert and through the columnar writeForecast,
+        counting the building of each path's input too.
+     */
+    private static final int WRITE_BENCHMARK_ROWS = 10000;
+
+    @SuppressWarnings("deprecation")
+    public void testWriteBenchmark() {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+
+        for (int run = 0; run < 2; run++) {
+            boolean columnar = run == 1;
+            mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+
+            Debug.resetThreadAllocCount();
+            Debug.resetThreadAllocSize();
+            Debug.startAllocCounting();
+            long start = System.nanoTime();
+            ForecastBatch batch = createForecastBatch(locationRowId, WRITE_BENCHMARK_ROWS);
+            Bundle counts = columnar ? writeForecast(batch) : upsert(batch.toContentValues());
+            long elapsed = System.nanoTime() - start;
+            Debug.stopAllocCounting();
+
+            assertEquals("Error: rows weren't all inserted",
+                    WRITE_BENCHMARK_ROWS, counts.getInt(WeatherEntry.KEY_INSERTED));
+            Log.i(LOG_TAG, String.format(Locale.US,
+                    "%s: %d rows in %dms, %.0f rows/s, %d objects, %d bytes",
+                    columnar ? "writeForecast" : "upsert", WRITE_BENCHMARK_ROWS,
+                    elapsed / 1000000, WRITE_BENCHMARK_ROWS * 1e9 / elapsed,
+                    Debug.getThreadAllocCount(), Debug.getThreadAllocSize()));
+        }
+    }
+
+    /*
+        A batch whose last operation fails should leave nothing of the ones before it behind,
+        and a batch that succeeds should notify each uri once, after it has committed.
+     */
+    public void testApplyBatch() throws Exception {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+        ContentValues[] weatherValues = createBulkInsertWeatherValues(locationRowId);
+
+        final AtomicInteger notifications = new AtomicInteger();
+        HandlerThread observerThread = new HandlerThread("BatchObserver");
+        observerThread.start();
+        ContentObserver observer = new ContentObserver(new Handler(observerThread.getLooper())) {
+            @Override
+            public void onChange(boolean selfChange) {
+                notifications.incrementAndGet();
+            }
+        };
+        mContext.getContentResolver().registerContentObserver(
+                WeatherEntry.CONTENT_URI, true, observer);
+        try {
+            ArrayList<ContentProviderOperation> operations =
+                    new ArrayList<ContentProviderOperation>();
+            for (ContentValues values : weatherValues) {
+                operations.add(ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                        .withValues(values).build());
+            }
+            // Sees the inserts above, so it fails
+            operations.add(ContentProviderOperation.newAssertQuery(WeatherEntry.CONTENT_URI)
+                    .withExpectedCount(0).build());
+            try {
+                mContext.getContentResolver().applyBatch(
+                        WeatherContract.CONTENT_AUTHORITY, operations);
+                fail("Error: the failing assertion didn't fail the batch");
+            } catch (OperationApplicationException expected) {
+                // expected
+            }
+            assertEquals("Error: a failed batch left rows behind", 0, getWeatherIds().length);
+
+            operations.remove(operations.size() - 1);
+            operations.add(ContentProviderOperation.newDelete(WeatherEntry.CONTENT_URI)
+                    .withSelection(WeatherEntry.COLUMN_DATE + " = ?", new String[]{
+                            Long.toString(WeatherContract.normalizeDate(
+                                    weatherValues[0].getAsLong(WeatherEntry.COLUMN_DATE)))})
+                    .build());
+            mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+            assertEquals("Error: the batch wasn't applied",
+                    BULK_INSERT_RECORDS_TO_INSERT - 1, getWeatherIds().length);
+
+            new PollingCheck(5000) {
+                @Override
+                protected boolean check() {
+                    return notifications.get() > 0;
+                }
+            }.run();
+            Thread.sleep(500);
+            assertEquals("Error: the batch's notifications weren't coalesced",
+                    1, notifications.get());
+        } finally {
+            mContext.getContentResolver().unregisterContentObserver(observer);
+            observerThread.quit();
+        }
+    }
+
+    /*
+        Replacing a forecast adds its location, writes its days and prunes its old ones in one
+        call, leaving other locations' weather alone.
+     */
+    public void testReplaceForecast() {
+        ContentValues otherLocation = TestUtilities.createNorthPoleLocationValues();
+        long otherLocationId = ContentUris.parseId(
+                mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, otherLocation));
+        writeForecast(createForecastBatch(otherLocationId, BULK_INSERT_RECORDS_TO_INSERT));
+
+        String locationSetting = "replace-test";
+        ForecastBatch batch = createForecastBatch(-1, BULK_INSERT_RECORDS_TO_INSERT);
+        Bundle result = replaceForecast(locationSetting, batch, null);
+        long locationId = result.getLong(WeatherEntry.COLUMN_LOC_KEY);
+        assertTrue("Error: the location wasn't added", locationId > 0 && locationId != otherLocationId);
+        assertEquals("Error: new rows weren't inserted",
+                BULK_INSERT_RECORDS_TO_INSERT, result.getInt(WeatherEntry.KEY_INSERTED));
+
+        // Same forecast, one day on: the first day is pruned and nothing else written
+        result = replaceForecast(locationSetting, batch, batch.getDate(0));
+        assertEquals("Error: the location was added again",
+                locationId, result.getLong(WeatherEntry.COLUMN_LOC_KEY));
+        assertEquals(0, result.getInt(WeatherEntry.KEY_INSERTED) + result.getInt(WeatherEntry.KEY_UPDATED));
+        assertEquals("Error: the past day wasn't pruned", 1, result.getInt(WeatherEntry.KEY_DELETED));
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocation(locationSetting), null, null, null, null);
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT - 1, cursor.getCount());
+        cursor.close();
+        cursor = mContext.getContentResolver().query(WeatherEntry.buildWeatherLocation(
+                otherLocation.getAsString(LocationEntry.COLUMN_LOCATION_SETTING)),
+                null, null, null, null);
+        assertEquals("Error: another location's weather was pruned",
+                BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+        cursor.close();
+    }
+
+    /*
+        Repeating a per-location query should be answered from the cache, a write to that
+        location should drop it, and a write to another location should leave it alone.
+     */
+    public void testQueryCache() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+        ContentValues northPole = TestUtilities.createNorthPoleLocationValues();
+        long locationId = ContentUris.parseId(
+                mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, northPole));
+        String otherSetting = "cache-test";
+        ForecastBatch batch = createForecastBatch(locationId, BULK_INSERT_RECORDS_TO_INSERT);
+        writeForecast(batch);
+        replaceForecast(otherSetting, createForecastBatch(-1, BULK_INSERT_RECORDS_TO_INSERT), null);
+
+        ContentProviderClient client = mContext.getContentResolver()
+                .acquireContentProviderClient(WeatherContract.CONTENT_AUTHORITY);
+        QueryCache cache = ((WeatherProvider) client.getLocalContentProvider()).getQueryCache();
+        client.release();
+
+        Uri today = WeatherEntry.buildWeatherLocationWithDate(
+                northPole.getAsString(LocationEntry.COLUMN_LOCATION_SETTING), batch.getDate(0));
+        String[] projection = {WeatherEntry.COLUMN_MAX_TEMP, LocationEntry.COLUMN_CITY_NAME};
+
+        long hits = cache.getHits();
+        assertEquals(75.0, queryMaxTemp(today, projection));
+        assertEquals(75.0, queryMaxTemp(today, projection));
+        assertEquals("Error: the repeated query wasn't cached", hits + 1, cache.getHits());
+
+        // Another location's write leaves the entry alone
+        replaceForecast(otherSetting, createForecastBatch(-1, BULK_INSERT_RECORDS_TO_INSERT + 1), null);
+        assertEquals(75.0, queryMaxTemp(today, projection));
+        assertEquals("Error: another location's write dropped the entry", hits + 2, cache.getHits());
+
+        // This location's write drops it, and the next query sees the new value
+        ForecastBatch changed = new ForecastBatch(1);
+        changed.setLocationId(locationId);
+        changed.add(batch.getDate(0), batch.getWeatherId(0), batch.getShortDesc(0),
+                batch.getMinTemp(0), 99, batch.getHumidity(0), batch.getPressure(0),
+                batch.getWindSpeed(0), batch.getDegrees(0));
+        writeForecast(changed);
+        assertEquals("Error: the cache served a stale row", 99.0, queryMaxTemp(today, projection));
+        assertEquals(hits + 2, cache.getHits());
+
+        StringWriter dump = new StringWriter();
+        cache.dump(new PrintWriter(dump));
+        Log.i(LOG_TAG, dump.toString());
+        assertTrue("Error: dump is missing the hit rate", dump.toString().contains("hit rate"));
+    }
+
+    /*
+        The current conditions should follow the first stored day through inserts, updates
+        and pruning, and fall back to today's row while yesterday's is still stored.
+     */
+    public void testCurrentConditions() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+        long dayInMillis = 1000 * 60 * 60 * 24;
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        String locationSetting = "current-test";
+        String[] projection = {WeatherContract.CurrentEntry.COLUMN_MAX_TEMP,
+                WeatherContract.CurrentEntry.COLUMN_DATE};
+        Uri currentUri = WeatherContract.CurrentEntry.buildCurrentUri(locationSetting);
+
+        // Yesterday, today and the next three days
+        ForecastBatch batch = new ForecastBatch(5);
+        for (int i = 0; i < 5; i++) {
+            batch.add(WeatherContract.normalizeDate(today + (i - 1) * dayInMillis), 800, "Clear",
+                    0, 10 + i, 50, 1000, 5, 180);
+        }
+        replaceForecast(locationSetting, batch, null);
+        assertEquals("Error: yesterday was taken for the current conditions",
+                11.0, queryMaxTemp(currentUri, projection));
+
+        // Once yesterday is pruned today's row is looked up directly, and follows updates
+        replaceForecast(locationSetting, batch, batch.getDate(0));
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.CurrentEntry.CONTENT_URI, null, null, null, null);
+        assertEquals("Error: not one row of current conditions", 1, cursor.getCount());
+        cursor.close();
+        assertEquals(11.0, queryMaxTemp(currentUri, projection));
+
+        ForecastBatch changed = new ForecastBatch(1);
+        changed.add(batch.getDate(1), 500, "Rain", 0, 42, 50, 1000, 5, 180);
+        replaceForecast(locationSetting, changed, null);
+        assertEquals("Error: an update didn't reach the current conditions",
+                42.0, queryMaxTemp(currentUri, projection));
+
+        // Deleting the location's weather removes its row
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        cursor = mContext.getContentResolver().query(currentUri, projection, null, null, null);
+        assertEquals("Error: current conditions outlived their weather", 0, cursor.getCount());
+        cursor.close();
+    }
+
+    /*
+        Every call should be recorded against its entry point and uri match, with the rows it
+        touched, and show up in the dump and, in debug builds, the stats uri.
+     */
+    public void testProviderStats() {
+        ContentProviderClient client = mContext.getContentResolver()
+                .acquireContentProviderClient(WeatherContract.CONTENT_AUTHORITY);
+        WeatherProvider provider = (WeatherProvider) client.getLocalContentProvider();
+        client.release();
+        ProviderStats stats = provider.getStats();
+        stats.clear();
+
+        ContentValues northPole = TestUtilities.createNorthPoleLocationValues();
+        long locationId = ContentUris.parseId(
+                mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, northPole));
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                createBulkInsertWeatherValues(locationId));
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.buildWeatherLocation(
+                northPole.getAsString(LocationEntry.COLUMN_LOCATION_SETTING)),
+                null, null, null, null);
+        cursor.close();
+        cursor = mContext.getContentResolver().query(WeatherEntry.buildWeatherLocation(
+                northPole.getAsString(LocationEntry.COLUMN_LOCATION_SETTING)),
+                null, null, null, null);
+        cursor.close();
+
+        ProviderStats.Histogram inserts = stats.getHistogram("insert LOCATION");
+        assertNotNull("Error: the location insert wasn't recorded", inserts);
+        assertEquals(1, inserts.count);
+        ProviderStats.Histogram bulkInserts = stats.getHistogram("bulkInsert WEATHER");
+        assertNotNull("Error: the bulk insert wasn't recorded", bulkInserts);
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, bulkInserts.rows);
+        ProviderStats.Histogram queries = stats.getHistogram("query WEATHER_WITH_LOCATION");
+        assertNotNull("Error: the query wasn't recorded", queries);
+        assertEquals(2, queries.count);
+        assertEquals(2 * BULK_INSERT_RECORDS_TO_INSERT, queries.rows);
+        assertTrue(queries.getPercentileMicros(0.5) <= queries.getPercentileMicros(0.99));
+        assertTrue(queries.getPercentileMicros(0.99) <= queries.maxMicros);
+
+        StringWriter dump = new StringWriter();
+        provider.dump(null, new PrintWriter(dump), null);
+        Log.i(LOG_TAG, dump.toString());
+        assertTrue("Error: dump is missing the query latencies",
+                dump.toString().contains("query WEATHER_WITH_LOCATION"));
+        assertTrue("Error: dump is missing the callers", dump.toString().contains("Callers:"));
+
+        if (BuildConfig.DEBUG) {
+            cursor = mContext.getContentResolver().query(
+                    WeatherContract.DebugEntry.STATS_URI, null, null, null, null);
+            boolean found = false;
+            int operation = cursor.getColumnIndex(WeatherContract.DebugEntry.COLUMN_OPERATION);
+            int count = cursor.getColumnIndex(WeatherContract.DebugEntry.COLUMN_COUNT);
+            while (cursor.moveToNext()) {
+                if ("bulkInsert WEATHER".equals(cursor.getString(operation))) {
+                    found = true;
+                    assertEquals(1, cursor.getInt(count));
+                }
+            }
+            cursor.close();
+            assertTrue("Error: the stats uri is missing the bulk insert", found);
+        }
+    }
+
+    private double queryMaxTemp(Uri uri, String[] projection) {
+        Cursor cursor = mContext.getContentResolver().query(uri, projection, null, null, null);
+        assertTrue("Error: no row for " + uri, cursor.moveToFirst());
+        double maxTemp = cursor.getDouble(0);
+        cursor.close();
+        return maxTemp;
+    }
+
+    private Bundle replaceForecast(String locationSetting, ForecastBatch batch, Long pruneBefore) {
+        Bundle extras = batch.toBundle();
+        extras.putString(LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        extras.putString(LocationEntry.COLUMN_CITY_NAME, "Replaced");
+        extras.putDouble(LocationEntry.COLUMN_COORD_LAT, 1.5);
+        extras.putDouble(LocationEntry.COLUMN_COORD_LONG, -1.5);
+        if (pruneBefore != null) {
+            extras.putLong(WeatherEntry.KEY_PRUNE_BEFORE, pruneBefore);
+        }
+        return mContext.getContentResolver().call(WeatherEntry.CONTENT_URI,
+                WeatherEntry.METHOD_REPLACE_FORECAST, null, extras);
+    }
+
+    private Bundle writeForecast(ForecastBatch batch) {
+        return mContext.getContentResolver().call(WeatherEntry.CONTENT_URI,
+                WeatherEntry.METHOD_WRITE_FORECAST, null, batch.toBundle());
+    }
+
+    private Bundle upsert(ContentValues[] values) {
+        Bundle extras = new Bundle();
+        extras.putParcelableArray(WeatherEntry.KEY_VALUES, values);
+        return mContext.getContentResolver().call(
+                WeatherEntry.CONTENT_URI, WeatherEntry.METHOD_UPSERT, null, extras);
+    }
+
+    private long[] getWeatherIds() {
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                new String[]{WeatherEntry._ID}, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        long[] ids = new long[cursor.getCount()];
+        for (int i = 0; cursor.moveToNext(); i++) {
+            ids[i] = cursor.getLong(0);
+        }
+        cursor.close();
+        return ids;
+    }
 }
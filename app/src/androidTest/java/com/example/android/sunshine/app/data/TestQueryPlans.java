@@ -0,0 +1,289 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.CurrentEntry;
+import com.example.android.sunshine.app.data.WeatherContract.HistoryEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.ValidatorEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/*
+    Runs EXPLAIN QUERY PLAN over the SQL behind every WeatherProvider URI, the way the app
+    queries it, and fails when a filtered query scans a whole table or sorts a forecast in a
+    temporary b-tree.  testSeededTimings then times the same queries on a database the size of
+    years of syncs for thousands of locations, with and without the location/date index.
+ */
+public class TestQueryPlans extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestQueryPlans.class.getSimpleName();
+
+    private static final String SORT_BY_DATE = WeatherEntry.COLUMN_DATE + " ASC";
+
+    private static final int SEED_LOCATIONS = 1000;
+    private static final int SEED_DAYS = 2 * 365;
+    private static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000;
+    private static final long FIRST_DAY = WeatherContract.normalizeDate(1419033600000L);
+    private static final int TIMING_RUNS = 20;
+
+    // "SCAN TABLE weather" on older SQLite, "SCAN weather" on newer, with or without an index
+    private static final Pattern FULL_SCAN = Pattern.compile("^SCAN (TABLE )?\\w+.*");
+    private static final String TEMP_SORT = "USE TEMP B-TREE FOR ORDER BY";
+
+    private SQLiteDatabase mDb;
+
+    /*
+        One statement the provider runs, with arguments to run it with against the seeded
+        database.
+     */
+    private static class PlannedQuery {
+        final String name;
+        final String sql;
+        final String[] args;
+
+        PlannedQuery(String name, String sql, String[] args) {
+            this.name = name;
+            this.sql = sql;
+            this.args = args;
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        mDb = new WeatherDbHelper(mContext).getWritableDatabase();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDb.close();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        super.tearDown();
+    }
+
+    private static String locationSetting(int i) {
+        return String.format(Locale.US, "%05d", i);
+    }
+
+    /*
+        Every URI, with the selections the app actually passes to it.  Unfiltered reads, such
+        as the list of all locations to sync, read every row by design and aren't listed.
+     */
+    private static List<PlannedQuery> buildQueries() {
+        String setting = locationSetting(SEED_LOCATIONS / 2);
+        String start = Long.toString(FIRST_DAY + (SEED_DAYS - 14) * DAY_IN_MILLIS);
+        String day = Long.toString(FIRST_DAY + (SEED_DAYS - 1) * DAY_IN_MILLIS);
+
+        List<PlannedQuery> queries = new ArrayList<PlannedQuery>();
+        queries.add(new PlannedQuery("weather/*",
+                WeatherProvider.buildQueryStatement(
+                        WeatherEntry.buildWeatherLocation(setting), null, null, SORT_BY_DATE),
+                new String[]{setting}));
+        queries.add(new PlannedQuery("weather/*?date",
+                WeatherProvider.buildQueryStatement(
+                        WeatherEntry.buildWeatherLocationWithStartDate(setting, Long.parseLong(start)),
+                        null, null, SORT_BY_DATE),
+                new String[]{setting, start}));
+        queries.add(new PlannedQuery("weather/*/#",
+                WeatherProvider.buildQueryStatement(
+                        WeatherEntry.buildWeatherLocationWithDate(setting, Long.parseLong(day)),
+                        null, null, null),
+                new String[]{setting, day}));
+        // The stored row the upsert compares each incoming row with
+        queries.add(new PlannedQuery("weather (upsert)",
+                WeatherProvider.buildQueryStatement(WeatherEntry.CONTENT_URI, null,
+                        WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
+                                WeatherEntry.COLUMN_DATE + " = ? ", null),
+                new String[]{Integer.toString(SEED_LOCATIONS / 2), day}));
+        queries.add(new PlannedQuery("current/*",
+                WeatherProvider.buildQueryStatement(
+                        CurrentEntry.buildCurrentUri(setting), null, null, null),
+                new String[]{setting, start}));
+        queries.add(new PlannedQuery("location",
+                WeatherProvider.buildQueryStatement(LocationEntry.CONTENT_URI,
+                        new String[]{LocationEntry._ID},
+                        LocationEntry.COLUMN_LOCATION_SETTING + " = ?", null),
+                new String[]{setting}));
+        queries.add(new PlannedQuery("validator",
+                WeatherProvider.buildQueryStatement(ValidatorEntry.CONTENT_URI,
+                        new String[]{ValidatorEntry.COLUMN_ETAG,
+                                ValidatorEntry.COLUMN_LAST_MODIFIED},
+                        ValidatorEntry.COLUMN_LOCATION_SETTING + " = ?", null),
+                new String[]{setting}));
+        // The sync's cleanup of past days
+        queries.add(new PlannedQuery("weather (delete old)",
+                "DELETE FROM " + WeatherEntry.TABLE_NAME +
+                        " WHERE " + WeatherEntry.COLUMN_DATE + " <= ?",
+                new String[]{start}));
+        // The days the cleanup archives, and the archived month each is merged into
+        queries.add(new PlannedQuery("weather (archive old)",
+                "SELECT * FROM " + WeatherEntry.TABLE_NAME +
+                        " WHERE " + WeatherEntry.COLUMN_DATE + " <= ?" +
+                        " ORDER BY " + WeatherEntry.COLUMN_DATE,
+                new String[]{start}));
+        queries.add(new PlannedQuery("history (month)",
+                WeatherProvider.buildQueryStatement(HistoryEntry.CONTENT_URI,
+                        new String[]{HistoryEntry.COLUMN_DATA},
+                        HistoryEntry.COLUMN_LOC_KEY + " = ? AND " +
+                                HistoryEntry.COLUMN_MONTH + " = ? ", null),
+                new String[]{Integer.toString(SEED_LOCATIONS / 2), "201412"}));
+        queries.add(new PlannedQuery("history/*",
+                WeatherProvider.buildQueryStatement(HistoryEntry.buildHistoryUri(
+                        setting, Long.parseLong(start), Long.parseLong(day)), null, null, null),
+                new String[]{setting, start, day}));
+        return queries;
+    }
+
+    private List<String> explain(PlannedQuery query) {
+        List<String> plan = new ArrayList<String>();
+        Cursor cursor = mDb.rawQuery("EXPLAIN QUERY PLAN " + query.sql, query.args);
+        try {
+            int detailIndex = cursor.getColumnIndexOrThrow("detail");
+            while (cursor.moveToNext()) {
+                plan.add(cursor.getString(detailIndex));
+            }
+        } finally {
+            cursor.close();
+        }
+        return plan;
+    }
+
+    public void testNoFullTableScans() {
+        for (PlannedQuery query : buildQueries()) {
+            List<String> plan = explain(query);
+            Log.d(LOG_TAG, query.name + ": " + plan);
+            assertFalse("Error: no plan for " + query.name, plan.isEmpty());
+            for (String step : plan) {
+                assertFalse("Error: " + query.name + " scans a whole table: " + plan
+                        + "\n" + query.sql, FULL_SCAN.matcher(step).matches());
+                assertFalse("Error: " + query.name + " sorts in a temporary b-tree: " + plan
+                        + "\n" + query.sql, step.startsWith(TEMP_SORT));
+            }
+        }
+    }
+
+    public void testIndexCreated() {
+        Cursor cursor = mDb.rawQuery("SELECT name FROM sqlite_master WHERE type = 'index'" +
+                " AND name = ?", new String[]{WeatherDbHelper.INDEX_WEATHER_LOCATION_DATE});
+        try {
+            assertTrue("Error: the location/date index wasn't created", cursor.moveToFirst());
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /*
+        Fills the database with SEED_LOCATIONS locations, each with SEED_DAYS days of weather.
+     */
+    private void seed() {
+        long start = System.nanoTime();
+        mDb.beginTransaction();
+        try {
+            SQLiteStatement location = mDb.compileStatement("INSERT INTO " +
+                    LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + ", " +
+                    LocationEntry.COLUMN_LOCATION_SETTING + ", " +
+                    LocationEntry.COLUMN_CITY_NAME + ", " + LocationEntry.COLUMN_COORD_LAT + ", " +
+                    LocationEntry.COLUMN_COORD_LONG + ") VALUES (?, ?, ?, ?, ?)");
+            SQLiteStatement weather = mDb.compileStatement("INSERT INTO " +
+                    WeatherEntry.TABLE_NAME + " (" + WeatherEntry.COLUMN_LOC_KEY + ", " +
+                    WeatherEntry.COLUMN_DATE + ", " + WeatherEntry.COLUMN_SHORT_DESC + ", " +
+                    WeatherEntry.COLUMN_WEATHER_ID + ", " + WeatherEntry.COLUMN_MIN_TEMP + ", " +
+                    WeatherEntry.COLUMN_MAX_TEMP + ", " + WeatherEntry.COLUMN_HUMIDITY + ", " +
+                    WeatherEntry.COLUMN_PRESSURE + ", " + WeatherEntry.COLUMN_WIND_SPEED + ", " +
+                    WeatherEntry.COLUMN_DEGREES + ") VALUES (?, ?, 'Clear', 800, ?, ?, 65, 1013, 4.5, 270)");
+            for (int i = 0; i < SEED_LOCATIONS; i++) {
+                location.bindLong(1, i);
+                location.bindString(2, locationSetting(i));
+                location.bindString(3, "City " + i);
+                location.bindDouble(4, -90 + i % 180);
+                location.bindDouble(5, -180 + i % 360);
+                location.executeInsert();
+                for (int d = 0; d < SEED_DAYS; d++) {
+                    weather.bindLong(1, i);
+                    weather.bindLong(2, FIRST_DAY + d * DAY_IN_MILLIS);
+                    weather.bindDouble(3, -5 + (i + d) % 20);
+                    weather.bindDouble(4, 5 + (i + d) % 20);
+                    weather.executeInsert();
+                }
+            }
+            location.close();
+            weather.close();
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+        mDb.execSQL("ANALYZE");
+        Log.i(LOG_TAG, String.format(Locale.US, "Seeded %d locations with %d days each in %dms",
+                SEED_LOCATIONS, SEED_DAYS, (System.nanoTime() - start) / 1000000));
+    }
+
+    /*
+        @return the mean time to run the query and read every row, in microseconds.
+     */
+    private long time(PlannedQuery query) {
+        long start = System.nanoTime();
+        for (int i = 0; i < TIMING_RUNS; i++) {
+            Cursor cursor = mDb.rawQuery(query.sql, query.args);
+            cursor.moveToLast();
+            cursor.close();
+        }
+        return (System.nanoTime() - start) / 1000 / TIMING_RUNS;
+    }
+
+    public void testSeededTimings() {
+        seed();
+
+        List<PlannedQuery> queries = new ArrayList<PlannedQuery>();
+        for (PlannedQuery query : buildQueries()) {
+            // Timing the delete would empty the database under the other queries
+            if (!query.sql.startsWith("DELETE")) {
+                queries.add(query);
+            }
+        }
+
+        long[] indexed = new long[queries.size()];
+        for (int i = 0; i < queries.size(); i++) {
+            indexed[i] = time(queries.get(i));
+        }
+
+        mDb.execSQL("DROP INDEX " + WeatherDbHelper.INDEX_WEATHER_LOCATION_DATE);
+        for (int i = 0; i < queries.size(); i++) {
+            PlannedQuery query = queries.get(i);
+            Log.i(LOG_TAG, String.format(Locale.US, "%-20s %8dus indexed, %8dus without %s",
+                    query.name, indexed[i], time(query),
+                    WeatherDbHelper.INDEX_WEATHER_LOCATION_DATE));
+        }
+
+        // With the statistics gathered on a full database the plans must still hold up
+        mDb.execSQL("CREATE INDEX " + WeatherDbHelper.INDEX_WEATHER_LOCATION_DATE + " ON " +
+                WeatherEntry.TABLE_NAME + " (" + WeatherEntry.COLUMN_LOC_KEY + ", " +
+                WeatherEntry.COLUMN_DATE + ")");
+        mDb.execSQL("ANALYZE");
+        testNoFullTableScans();
+    }
+}
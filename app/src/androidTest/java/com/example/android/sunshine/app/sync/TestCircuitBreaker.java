@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.test.AndroidTestCase;
+
+import java.util.Random;
+
+/*
+    Walks the CircuitBreaker through its states with a fake clock.
+ */
+public class TestCircuitBreaker extends AndroidTestCase {
+
+    private static final String TEST_PREFS_NAME = "test_circuit_breaker";
+    private static final String ENDPOINT = "http://example.com/forecast?";
+
+    private static class FakeClock implements Clock {
+        long mNow = 1419033600000L;
+
+        @Override
+        public long currentTimeMillis() {
+            return mNow;
+        }
+    }
+
+    private SharedPreferences mPrefs;
+    private FakeClock mClock;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPrefs = mContext.getSharedPreferences(TEST_PREFS_NAME, Context.MODE_PRIVATE);
+        mPrefs.edit().clear().commit();
+        mClock = new FakeClock();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mPrefs.edit().clear().commit();
+        super.tearDown();
+    }
+
+    private CircuitBreaker createBreaker(String endpoint) {
+        return new CircuitBreaker(mPrefs, endpoint, mClock, new Random(42));
+    }
+
+    private static void failUntilOpen(CircuitBreaker breaker) {
+        for (int i = 0; i < CircuitBreaker.FAILURE_THRESHOLD; i++) {
+            assertTrue("Error: circuit opened too early", breaker.allowRequest());
+            breaker.onFailure();
+        }
+        assertEquals("Error: repeated failures didn't open the circuit",
+                CircuitBreaker.STATE_OPEN, breaker.getState());
+    }
+
+    public void testOpensAfterRepeatedFailures() {
+        CircuitBreaker breaker = createBreaker(ENDPOINT);
+        assertEquals(CircuitBreaker.STATE_CLOSED, breaker.getState());
+
+        // A success in between resets the count
+        breaker.onFailure();
+        breaker.onFailure();
+        breaker.onSuccess();
+        breaker.onFailure();
+        assertEquals("Error: failures that weren't in a row opened the circuit",
+                CircuitBreaker.STATE_CLOSED, breaker.getState());
+        breaker.onSuccess();
+
+        failUntilOpen(breaker);
+        assertFalse("Error: open circuit let a request through", breaker.allowRequest());
+
+        long backoff = breaker.getRetryAtMillis() - mClock.mNow;
+        assertTrue("Error: backoff longer than the base",
+                backoff <= CircuitBreaker.BASE_BACKOFF_MILLIS);
+        assertTrue("Error: jitter took off more than half the backoff",
+                backoff >= CircuitBreaker.BASE_BACKOFF_MILLIS / 2);
+    }
+
+    public void testHalfOpenAllowsSingleProbe() {
+        CircuitBreaker breaker = createBreaker(ENDPOINT);
+        failUntilOpen(breaker);
+
+        mClock.mNow = breaker.getRetryAtMillis();
+        assertEquals(CircuitBreaker.STATE_HALF_OPEN, breaker.getState());
+        assertTrue("Error: half-open circuit didn't let a probe through", breaker.allowRequest());
+        assertFalse("Error: half-open circuit let a second probe through", breaker.allowRequest());
+
+        breaker.onSuccess();
+        assertEquals("Error: successful probe didn't close the circuit",
+                CircuitBreaker.STATE_CLOSED, breaker.getState());
+        assertTrue(breaker.allowRequest());
+    }
+
+    public void testFailedProbesBackOffExponentially() {
+        CircuitBreaker breaker = createBreaker(ENDPOINT);
+        failUntilOpen(breaker);
+
+        long maxBackoff = CircuitBreaker.BASE_BACKOFF_MILLIS;
+        for (int i = 0; i < 12; i++) {
+            mClock.mNow = breaker.getRetryAtMillis();
+            assertTrue("Error: no probe let through", breaker.allowRequest());
+            breaker.onFailure();
+            assertEquals("Error: failed probe didn't reopen the circuit",
+                    CircuitBreaker.STATE_OPEN, breaker.getState());
+
+            maxBackoff = Math.min(maxBackoff * 2, CircuitBreaker.MAX_BACKOFF_MILLIS);
+            long backoff = breaker.getRetryAtMillis() - mClock.mNow;
+            assertTrue("Error: backoff " + backoff + " past " + maxBackoff, backoff <= maxBackoff);
+            assertTrue("Error: backoff " + backoff + " didn't grow", backoff >= maxBackoff / 2);
+        }
+    }
+
+    public void testLostProbeIsReplaced() {
+        CircuitBreaker breaker = createBreaker(ENDPOINT);
+        failUntilOpen(breaker);
+
+        mClock.mNow = breaker.getRetryAtMillis();
+        assertTrue(breaker.allowRequest());
+        mClock.mNow += CircuitBreaker.PROBE_TIMEOUT_MILLIS;
+        assertTrue("Error: a probe that never reported back blocked the circuit for good",
+                breaker.allowRequest());
+    }
+
+    public void testStateIsPersistedPerEndpoint() {
+        failUntilOpen(createBreaker(ENDPOINT));
+
+        CircuitBreaker restored = createBreaker(ENDPOINT);
+        assertEquals("Error: open circuit forgotten", CircuitBreaker.STATE_OPEN, restored.getState());
+        assertFalse(restored.allowRequest());
+
+        CircuitBreaker other = createBreaker("http://example.org/forecast?");
+        assertEquals("Error: another endpoint's circuit opened",
+                CircuitBreaker.STATE_CLOSED, other.getState());
+        assertTrue(other.allowRequest());
+    }
+}
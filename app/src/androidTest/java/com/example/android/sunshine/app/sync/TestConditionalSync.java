@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.SyncResult;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.utils.PollingCheck;
+import com.example.android.sunshine.app.utils.StubHttpServer;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+    Runs the sync adapter against a local stub server to check that an unchanged forecast is
+    neither downloaded nor written again.
+ */
+public class TestConditionalSync extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestConditionalSync.class.getSimpleName();
+
+    private static final int FORECAST_DAYS = 14;
+
+    private StubHttpServer mServer;
+    private SunshineSyncAdapter mSyncAdapter;
+    private HandlerThread mObserverThread;
+    private ContentObserver mObserver;
+    private final AtomicInteger mProviderWrites = new AtomicInteger();
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+
+        mServer = new StubHttpServer();
+        mServer.setBody(TestForecastParser.createForecastJson(FORECAST_DAYS));
+        mServer.setETag("\"v1\"");
+        mServer.setLastModified("Sat, 20 Dec 2014 00:00:00 GMT");
+
+        mSyncAdapter = new SunshineSyncAdapter(mContext, false);
+        mSyncAdapter.setForecastFetcher(new ForecastFetcher(mServer.getUrl()));
+
+        // Every provider write notifies a uri under the base uri, so counting the
+        // notifications counts the writes.
+        mObserverThread = new HandlerThread("ProviderWriteObserver");
+        mObserverThread.start();
+        mObserver = new ContentObserver(new Handler(mObserverThread.getLooper())) {
+            @Override
+            public void onChange(boolean selfChange) {
+                mProviderWrites.incrementAndGet();
+            }
+        };
+        mContext.getContentResolver().registerContentObserver(
+                WeatherContract.BASE_CONTENT_URI, true, mObserver);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.getContentResolver().unregisterContentObserver(mObserver);
+        mObserverThread.quit();
+        mServer.shutdown();
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.ValidatorEntry.CONTENT_URI, null, null);
+    }
+
+    private void sync() {
+        mSyncAdapter.onPerformSync(null, new Bundle(), WeatherContract.CONTENT_AUTHORITY,
+                null, new SyncResult());
+    }
+
+    private int countWeatherRows() {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.WeatherEntry.CONTENT_URI, null, null, null, null);
+        int count = cursor.getCount();
+        cursor.close();
+        return count;
+    }
+
+    private void waitForWrites() {
+        new PollingCheck(5000) {
+            @Override
+            protected boolean check() {
+                return mProviderWrites.get() > 0;
+            }
+        }.run();
+        // let any trailing notifications arrive before we count
+        settle();
+    }
+
+    private static void settle() {
+        try {
+            Thread.sleep(500);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public void testNotModifiedSkipsDownloadAndWrites() {
+        sync();
+        waitForWrites();
+        long firstSyncBytes = mServer.getBytesSent();
+        int firstSyncWrites = mProviderWrites.get();
+        assertEquals("Error: first sync didn't store the forecast", FORECAST_DAYS, countWeatherRows());
+
+        final int repeatedSyncs = 5;
+        for (int i = 0; i < repeatedSyncs; i++) {
+            sync();
+        }
+        settle();
+        long repeatedSyncBytes = mServer.getBytesSent() - firstSyncBytes;
+
+        Log.i(LOG_TAG, "First sync: " + firstSyncBytes + " bytes, " + firstSyncWrites +
+                " provider writes.  Next " + repeatedSyncs + " syncs: " + repeatedSyncBytes +
+                " bytes, " + (mProviderWrites.get() - firstSyncWrites) + " provider writes.");
+
+        assertEquals("Error: every sync should have reached the server",
+                1 + repeatedSyncs, mServer.getRequestCount());
+        assertEquals("Error: repeated syncs weren't conditional",
+                repeatedSyncs, mServer.getNotModifiedCount());
+        assertTrue("Error: repeated syncs downloaded the forecast again",
+                repeatedSyncBytes < firstSyncBytes);
+        assertEquals("Error: repeated syncs wrote to the provider",
+                firstSyncWrites, mProviderWrites.get());
+        assertEquals("Error: weather rows changed", FORECAST_DAYS, countWeatherRows());
+    }
+
+    public void testChangedForecastIsStored() {
+        sync();
+        waitForWrites();
+
+        mProviderWrites.set(0);
+        mServer.setETag("\"v2\"");
+        sync();
+        waitForWrites();
+
+        assertEquals("Error: the changed forecast wasn't downloaded",
+                0, mServer.getNotModifiedCount());
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.ValidatorEntry.CONTENT_URI,
+                new String[]{WeatherContract.ValidatorEntry.COLUMN_ETAG}, null, null, null);
+        assertTrue("Error: no validators stored", cursor.moveToFirst());
+        assertEquals("Error: stale ETag kept", "\"v2\"", cursor.getString(0));
+        cursor.close();
+    }
+
+    public void testSyncHistoryRecordsStages() throws InterruptedException {
+        SyncHistory history = SunshineSyncService.getSyncHistory();
+        history.clear();
+
+        sync();
+        waitForWrites();
+        sync();
+        assertTrue("Error: fan-out didn't finish", mSyncAdapter.awaitFanOut(60 * 1000));
+
+        List<SyncRun> runs = history.getRuns();
+        assertEquals("Error: every sync should be recorded", 2, runs.size());
+
+        String location = Utility.getPreferredLocation(mContext);
+        SyncRun first = runs.get(0);
+        SyncRun.StageRecord parse = first.getStage(location, "parse");
+        assertNotNull("Error: first sync didn't parse", parse);
+        assertTrue("Error: parse stage didn't record the bytes read", parse.getBytes() > 0);
+        assertEquals("Error: parse stage didn't record the days read",
+                FORECAST_DAYS, parse.getRows());
+        SyncRun.StageRecord store = first.getStage(location, "store");
+        assertNotNull("Error: first sync didn't store", store);
+        assertEquals("Error: store stage didn't record the rows written",
+                FORECAST_DAYS, store.getRows());
+        assertNotNull("Error: fan-out stages didn't run", first.getStage(null, "widgets"));
+        for (SyncRun.StageRecord record : first.getStages()) {
+            assertTrue("Error: stage " + record.stage + " wasn't timed",
+                    record.getElapsedNanos() >= 0);
+        }
+
+        // The second sync gets a 304, so it stops after the fetch
+        SyncRun second = runs.get(1);
+        assertNotNull("Error: second sync didn't fetch", second.getStage(location, "fetch"));
+        assertNull("Error: unchanged forecast was parsed", second.getStage(location, "parse"));
+        assertNull("Error: fan-out ran for an unchanged forecast", second.getStage(null, "widgets"));
+
+        StringWriter dump = new StringWriter();
+        history.dump(new PrintWriter(dump));
+        Log.i(LOG_TAG, dump.toString());
+        assertTrue("Error: dump is missing the stage means", dump.toString().contains("parse"));
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/*
+    Checks that post-sync consumers run concurrently, don't hold up the caller, and are
+    abandoned and recorded as timed out when they run too long.
+ */
+public class TestFanOutDispatcher extends AndroidTestCase {
+
+    private static final long CONSUMER_MILLIS = 500;
+
+    /*
+        A consumer that sleeps for a while, or until it is interrupted.
+     */
+    private static SyncStage sleeper(final String name, final long millis,
+                                     final CountDownLatch started) {
+        return new SyncStage() {
+            @Override
+            public String getName() {
+                return name;
+            }
+
+            @Override
+            public boolean run(SunshineSyncAdapter.LocationSyncResult result,
+                               SyncRun.StageRecord record) {
+                started.countDown();
+                try {
+                    Thread.sleep(millis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return true;
+            }
+        };
+    }
+
+    public void testConsumersRunConcurrently() throws InterruptedException {
+        FanOutDispatcher dispatcher = new FanOutDispatcher(mContext);
+        SyncRun run = new SyncRun();
+        CountDownLatch started = new CountDownLatch(3);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 3; i++) {
+            dispatcher.dispatch(run, sleeper("consumer" + i, CONSUMER_MILLIS, started),
+                    10 * CONSUMER_MILLIS);
+        }
+        long dispatchMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue("Error: dispatch waited for the consumers", dispatchMillis < CONSUMER_MILLIS);
+        assertTrue("Error: no wakelock while consumers run", dispatcher.isHoldingWakeLock());
+
+        assertTrue("Error: consumers didn't finish", dispatcher.awaitIdle(10 * CONSUMER_MILLIS));
+        assertFalse("Error: wakelock held after the consumers finished",
+                dispatcher.isHoldingWakeLock());
+        long totalMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue("Error: consumers ran one after the other", totalMillis < 3 * CONSUMER_MILLIS);
+
+        assertEquals("Error: consumers weren't recorded", 3, run.getStages().size());
+        for (SyncRun.StageRecord record : run.getStages()) {
+            assertFalse("Error: " + record.stage + " timed out", record.isTimedOut());
+            assertTrue("Error: " + record.stage + " wasn't timed",
+                    record.getElapsedNanos() >= TimeUnit.MILLISECONDS.toNanos(CONSUMER_MILLIS));
+        }
+    }
+
+    public void testSlowConsumerTimesOut() throws InterruptedException {
+        FanOutDispatcher dispatcher = new FanOutDispatcher(mContext);
+        SyncRun run = new SyncRun();
+        CountDownLatch started = new CountDownLatch(2);
+
+        dispatcher.dispatch(run, sleeper("slow", 60 * 1000, started), CONSUMER_MILLIS);
+        dispatcher.dispatch(run, sleeper("fast", 0, started), CONSUMER_MILLIS);
+
+        assertTrue("Error: the slow consumer wasn't abandoned",
+                dispatcher.awaitIdle(10 * CONSUMER_MILLIS));
+        assertFalse("Error: wakelock held after the slow consumer was abandoned",
+                dispatcher.isHoldingWakeLock());
+        SyncRun.StageRecord slow = run.getStage(null, "slow");
+        assertTrue("Error: slow consumer not recorded as timed out", slow.isTimedOut());
+        assertTrue("Error: timeout recorded too early",
+                slow.getElapsedNanos() >= TimeUnit.MILLISECONDS.toNanos(CONSUMER_MILLIS));
+        assertFalse("Error: fast consumer recorded as timed out",
+                run.getStage(null, "fast").isTimedOut());
+    }
+}
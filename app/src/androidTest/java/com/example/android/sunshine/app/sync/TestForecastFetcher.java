@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.utils.StubHttpServer;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+
+/*
+    Runs the ForecastFetcher against a local server with a slow tail, to check its timeouts
+    and measure what hedging does to tail latency.
+ */
+public class TestForecastFetcher extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestForecastFetcher.class.getSimpleName();
+
+    private static final int FETCHES = 100;
+    // One request in SLOW_EVERY stalls for SLOW_MILLIS
+    private static final int SLOW_EVERY = 50;
+    private static final long SLOW_MILLIS = 1500;
+
+    private StubHttpServer mServer;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mServer = new StubHttpServer();
+        mServer.setBody(TestForecastParser.createForecastJson(14));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        super.tearDown();
+    }
+
+    public void testReadTimeout() {
+        mServer.setResponseDelay(5000);
+        ForecastFetcher fetcher = new ForecastFetcher(mServer.getUrl());
+        fetcher.setTimeouts(1000, 500);
+
+        long start = System.nanoTime();
+        try {
+            fetcher.fetch("94043", null, null).close();
+            fail("Error: a stalled response didn't time out");
+        } catch (IOException expected) {
+        }
+        long elapsedMillis = (System.nanoTime() - start) / 1000000;
+        assertTrue("Error: read timeout took " + elapsedMillis + "ms", elapsedMillis < 3000);
+    }
+
+    /*
+        Times FETCHES requests from the start of the fetch to the response headers.
+     */
+    private long[] timeFetches(ForecastFetcher fetcher) throws IOException {
+        long[] latencies = new long[FETCHES];
+        for (int i = 0; i < FETCHES; i++) {
+            long start = System.nanoTime();
+            ForecastFetcher.Response response = fetcher.fetch("94043", null, null);
+            latencies[i] = (System.nanoTime() - start) / 1000000;
+            assertEquals("Error: unexpected response", 200, response.getCode());
+            response.close();
+        }
+        Arrays.sort(latencies);
+        return latencies;
+    }
+
+    private static long percentile(long[] sorted, int percentile) {
+        return sorted[(int) Math.ceil(sorted.length * percentile / 100.0) - 1];
+    }
+
+    public void testNoHedgeWhenNotAllowed() throws IOException {
+        mServer.setResponseDelay(ForecastFetcher.DEFAULT_HEDGE_DELAY_MILLIS + 500);
+        ForecastFetcher fetcher = new ForecastFetcher(mServer.getUrl());
+        fetcher.setHedging(true);
+
+        fetcher.fetch("94043", null, null, false).close();
+        assertEquals("Error: a request that mustn't be hedged was sent twice",
+                1, mServer.getRequestCount());
+    }
+
+    public void testHedgingCutsTailLatency() throws IOException {
+        mServer.setSlowRequests(SLOW_EVERY, SLOW_MILLIS);
+
+        ForecastFetcher plain = new ForecastFetcher(mServer.getUrl());
+        long[] plainLatencies = timeFetches(plain);
+        int plainRequests = mServer.getRequestCount();
+
+        ForecastFetcher hedged = new ForecastFetcher(mServer.getUrl());
+        hedged.setHedging(true);
+        long[] hedgedLatencies = timeFetches(hedged);
+        int hedgedRequests = mServer.getRequestCount() - plainRequests;
+
+        Log.i(LOG_TAG, String.format(Locale.US,
+                "plain: p50 %dms p99 %dms max %dms, %d requests; " +
+                        "hedged: p50 %dms p99 %dms max %dms, %d requests, hedge delay %dms",
+                percentile(plainLatencies, 50), percentile(plainLatencies, 99),
+                plainLatencies[FETCHES - 1], plainRequests,
+                percentile(hedgedLatencies, 50), percentile(hedgedLatencies, 99),
+                hedgedLatencies[FETCHES - 1], hedgedRequests, hedged.getHedgeDelayMillis()));
+
+        assertTrue("Error: the stub server's tail didn't show without hedging",
+                percentile(plainLatencies, 99) >= SLOW_MILLIS);
+        assertTrue("Error: no request was hedged", hedgedRequests > FETCHES);
+        assertTrue("Error: hedging didn't cut the tail",
+                percentile(hedgedLatencies, 99) < SLOW_MILLIS / 2);
+    }
+}
@@ -0,0 +1,241 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Locale;
+
+/*
+    Checks that the streaming ForecastParser reads the same values as the old
+    StringBuffer + JSONObject path, and benchmarks the two against each other.
+ */
+public class TestForecastParser extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestForecastParser.class.getSimpleName();
+
+    private static final int[] BENCHMARK_DAYS = {14, 16, 200};
+    private static final int WARMUP_RUNS = 5;
+    private static final int BENCHMARK_RUNS = 50;
+
+    /*
+        Builds a payload shaped like the OpenWeatherMap daily forecast response.
+     */
+    static byte[] createForecastJson(int numDays) throws IOException {
+        StringBuilder sb = new StringBuilder(numDays * 300);
+        sb.append("{\"city\":{\"id\":5375480,\"name\":\"Mountain View\",")
+                .append("\"coord\":{\"lon\":-122.083847,\"lat\":37.386051},")
+                .append("\"country\":\"US\",\"population\":0},")
+                .append("\"cod\":\"200\",\"message\":0.0125,\"cnt\":").append(numDays)
+                .append(",\"list\":[");
+        for (int i = 0; i < numDays; i++) {
+            if (i > 0) sb.append(',');
+            sb.append("{\"dt\":").append(1419033600L + i * 86400L)
+                    .append(",\"temp\":{\"day\":").append(15.5 + (i % 7))
+                    .append(",\"min\":").append(String.format(Locale.US, "%.2f", 4.25 + (i % 5)))
+                    .append(",\"max\":").append(String.format(Locale.US, "%.2f", 18.75 + (i % 9)))
+                    .append(",\"night\":7.02,\"eve\":14.36,\"morn\":9.8},")
+                    .append("\"pressure\":").append(String.format(Locale.US, "%.2f", 1013.13 - i % 11))
+                    .append(",\"humidity\":").append(40 + (i % 50))
+                    .append(",\"weather\":[{\"id\":").append(i % 2 == 0 ? 800 : 501)
+                    .append(",\"main\":\"").append(i % 2 == 0 ? "Clear" : "Rain")
+                    .append("\",\"description\":\"sky is clear\",\"icon\":\"01d\"}],")
+                    .append("\"speed\":").append(String.format(Locale.US, "%.2f", 1.5 + (i % 4)))
+                    .append(",\"deg\":").append((i * 37) % 360)
+                    .append(",\"clouds\":").append(i % 100).append('}');
+        }
+        sb.append("]}");
+        return sb.toString().getBytes("UTF-8");
+    }
+
+    /*
+        Holds the values pulled out of one day, whichever parser produced them.
+     */
+    static class ParsedDay {
+        double pressure;
+        int humidity;
+        double windSpeed;
+        double windDirection;
+        double high;
+        double low;
+        String description;
+        int weatherId;
+
+        void assertSameAs(ParsedDay other, int day) {
+            String error = "Error: day " + day + " parsed differently";
+            assertEquals(error, pressure, other.pressure);
+            assertEquals(error, humidity, other.humidity);
+            assertEquals(error, windSpeed, other.windSpeed);
+            assertEquals(error, windDirection, other.windDirection);
+            assertEquals(error, high, other.high);
+            assertEquals(error, low, other.low);
+            assertEquals(error, description, other.description);
+            assertEquals(error, weatherId, other.weatherId);
+        }
+    }
+
+    /*
+        The sync adapter's previous implementation: buffer the whole response, then build
+        a JSONObject tree out of it.
+     */
+    static ArrayList<ParsedDay> parseWithJsonObject(InputStream in)
+            throws IOException, JSONException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in));
+        StringBuffer buffer = new StringBuffer();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            buffer.append(line + "\n");
+        }
+        JSONObject forecastJson = new JSONObject(buffer.toString());
+        JSONArray weatherArray = forecastJson.getJSONArray("list");
+        JSONObject cityJson = forecastJson.getJSONObject("city");
+        cityJson.getString("name");
+        cityJson.getJSONObject("coord").getDouble("lat");
+
+        ArrayList<ParsedDay> days = new ArrayList<ParsedDay>(weatherArray.length());
+        for (int i = 0; i < weatherArray.length(); i++) {
+            JSONObject dayForecast = weatherArray.getJSONObject(i);
+            ParsedDay day = new ParsedDay();
+            day.pressure = dayForecast.getDouble("pressure");
+            day.humidity = dayForecast.getInt("humidity");
+            day.windSpeed = dayForecast.getDouble("speed");
+            day.windDirection = dayForecast.getDouble("deg");
+            JSONObject weatherObject = dayForecast.getJSONArray("weather").getJSONObject(0);
+            day.description = weatherObject.getString("main");
+            day.weatherId = weatherObject.getInt("id");
+            JSONObject temperatureObject = dayForecast.getJSONObject("temp");
+            day.high = temperatureObject.getDouble("max");
+            day.low = temperatureObject.getDouble("min");
+            days.add(day);
+        }
+        return days;
+    }
+
+    static ArrayList<ParsedDay> parseWithStream(InputStream in)
+            throws IOException, JSONException {
+        final ArrayList<ParsedDay> days = new ArrayList<ParsedDay>();
+        int code = new ForecastParser().parse(in, new ForecastParser.Listener() {
+            @Override
+            public void onCity(String cityName, double latitude, double longitude) {
+            }
+
+            @Override
+            public void onDay(ForecastParser.Day forecastDay) {
+                ParsedDay day = new ParsedDay();
+                day.pressure = forecastDay.pressure;
+                day.humidity = forecastDay.humidity;
+                day.windSpeed = forecastDay.windSpeed;
+                day.windDirection = forecastDay.windDirection;
+                day.description = forecastDay.description;
+                day.weatherId = forecastDay.weatherId;
+                day.high = forecastDay.high;
+                day.low = forecastDay.low;
+                days.add(day);
+            }
+        });
+        assertEquals("Error: unexpected response code", 200, code);
+        return days;
+    }
+
+    public void testStreamMatchesJsonObject() throws Throwable {
+        for (int numDays : BENCHMARK_DAYS) {
+            byte[] json = createForecastJson(numDays);
+            ArrayList<ParsedDay> expected = parseWithJsonObject(new ByteArrayInputStream(json));
+            ArrayList<ParsedDay> actual = parseWithStream(new ByteArrayInputStream(json));
+            assertEquals("Error: wrong number of days", expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++) {
+                expected.get(i).assertSameAs(actual.get(i), i);
+            }
+        }
+    }
+
+    public void testErrorCode() throws Throwable {
+        byte[] json = "{\"cod\":\"404\",\"message\":\"Error: Not found city\"}".getBytes("UTF-8");
+        int code = new ForecastParser().parse(new ByteArrayInputStream(json), null);
+        assertEquals("Error: the cod of the response wasn't reported", 404, code);
+    }
+
+    public void testMalformedJson() throws Throwable {
+        byte[] json = "{\"city\":{\"name\":\"Mountain View\"".getBytes("UTF-8");
+        try {
+            parseWithStream(new ByteArrayInputStream(json));
+            fail("Error: truncated response should not parse");
+        } catch (JSONException expected) {
+        }
+    }
+
+    /*
+        Not a pass/fail test: logs the average time and allocations per parse for each
+        payload size so the two paths can be compared on a given device.
+     */
+    @SuppressWarnings("deprecation")
+    public void testBenchmark() throws Throwable {
+        for (int numDays : BENCHMARK_DAYS) {
+            byte[] json = createForecastJson(numDays);
+            for (int run = 0; run < 2; run++) {
+                boolean streaming = run == 1;
+                for (int i = 0; i < WARMUP_RUNS; i++) {
+                    parse(streaming, json);
+                }
+
+                Debug.resetThreadAllocCount();
+                Debug.resetThreadAllocSize();
+                Debug.startAllocCounting();
+                long start = System.nanoTime();
+                for (int i = 0; i < BENCHMARK_RUNS; i++) {
+                    parse(streaming, json);
+                }
+                long elapsed = System.nanoTime() - start;
+                Debug.stopAllocCounting();
+
+                Log.i(LOG_TAG, String.format(Locale.US,
+                        "%s %d days (%d bytes): %.1f us/parse, %d objects/parse, %d bytes/parse",
+                        streaming ? "stream" : "JSONObject", numDays, json.length,
+                        elapsed / 1000.0 / BENCHMARK_RUNS,
+                        Debug.getThreadAllocCount() / BENCHMARK_RUNS,
+                        Debug.getThreadAllocSize() / BENCHMARK_RUNS));
+            }
+        }
+    }
+
+    private static void parse(boolean streaming, byte[] json) throws Exception {
+        if (streaming) {
+            new ForecastParser().parse(new ByteArrayInputStream(json), new ForecastParser.Listener() {
+                @Override
+                public void onCity(String cityName, double latitude, double longitude) {
+                }
+
+                @Override
+                public void onDay(ForecastParser.Day day) {
+                }
+            });
+        } else {
+            parseWithJsonObject(new ByteArrayInputStream(json));
+        }
+    }
+}
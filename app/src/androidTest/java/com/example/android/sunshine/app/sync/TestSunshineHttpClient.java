@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.utils.StubHttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Arrays;
+
+/*
+    Runs the SunshineHttpClient against a local server to check that connections are reused
+    across requests, gzip is inflated and every request is timed.
+ */
+public class TestSunshineHttpClient extends AndroidTestCase {
+
+    private static final String ETAG = "\"forecast-1\"";
+
+    private StubHttpServer mServer;
+    private SunshineHttpClient mClient;
+    private byte[] mBody;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mServer = new StubHttpServer();
+        mBody = TestForecastParser.createForecastJson(14);
+        mServer.setBody(mBody);
+        mClient = new SunshineHttpClient();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        super.tearDown();
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    public void testConnectionReuse() throws IOException {
+        mServer.setETag(ETAG);
+        URL url = new URL(mServer.getUrl());
+
+        // Full responses, some read and some left unread, then conditional ones answered
+        // with 304s, all of which should leave the connection fit for the next request
+        for (int i = 0; i < 3; i++) {
+            SunshineHttpClient.Response response = mClient.newCall(url).execute();
+            assertEquals("Error: unexpected response", 200, response.getCode());
+            if (i % 2 == 0) {
+                readFully(response.getBody());
+            }
+            response.close();
+        }
+        for (int i = 0; i < 3; i++) {
+            SunshineHttpClient.Response response = mClient.newCall(url)
+                    .header("If-None-Match", ETAG)
+                    .execute();
+            assertEquals("Error: unexpected response", 304, response.getCode());
+            response.close();
+        }
+
+        assertEquals("Error: not every request reached the server", 6,
+                mServer.getRequestCount());
+        assertEquals("Error: connections weren't reused", 1, mServer.getConnectionCount());
+    }
+
+    public void testForecastFetchesReuseConnection() throws IOException {
+        mServer.setETag(ETAG);
+        ForecastFetcher fetcher = new ForecastFetcher(mServer.getUrl(), mClient);
+
+        fetcher.fetch("94043", null, null).close();
+        for (int i = 0; i < 4; i++) {
+            ForecastFetcher.Response response = fetcher.fetch("94043", ETAG, null);
+            assertTrue("Error: expected a 304", response.isNotModified());
+            response.close();
+        }
+
+        assertEquals("Error: forecast fetches didn't share a connection", 1,
+                mServer.getConnectionCount());
+    }
+
+    public void testGzip() throws IOException {
+        mServer.setGzip(true);
+
+        SunshineHttpClient.Response response =
+                mClient.newCall(new URL(mServer.getUrl())).execute();
+        byte[] body = readFully(response.getBody());
+        response.close();
+
+        assertTrue("Error: inflated body differs from the original", Arrays.equals(mBody, body));
+        assertTrue("Error: response wasn't marked gzipped", response.getTiming().gzipped);
+        assertTrue("Error: " + response.getWireBytes() + " bytes on the wire for a "
+                        + mBody.length + " byte body",
+                response.getWireBytes() > 0 && response.getWireBytes() < mBody.length);
+    }
+
+    public void testTiming() throws IOException {
+        mServer.setResponseDelay(200);
+
+        SunshineHttpClient.Response response =
+                mClient.newCall(new URL(mServer.getUrl())).execute();
+        readFully(response.getBody());
+        response.close();
+
+        SunshineHttpClient.Timing timing = response.getTiming();
+        assertEquals("Error: DNS isn't timed, so should be unknown: " + timing,
+                -1, timing.dnsMillis);
+        assertTrue("Error: connect wasn't timed: " + timing, timing.connectMillis >= 0);
+        assertTrue("Error: first byte came before the server answered: " + timing,
+                timing.firstByteMillis + timing.connectMillis >= 200);
+        assertTrue("Error: body wasn't timed: " + timing, timing.bodyMillis >= 0);
+        assertEquals("Error: wrong byte count: " + timing, mBody.length, timing.wireBytes);
+    }
+}
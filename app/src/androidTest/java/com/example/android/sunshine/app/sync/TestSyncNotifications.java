@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.SyncResult;
+import android.database.ContentObserver;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.utils.PollingCheck;
+import com.example.android.sunshine.app.utils.StubHttpServer;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+    Syncs two locations against a local stub server and counts how often observers of each
+    location's weather, and of all weather, are woken.  Each location's observers should hear
+    of its own forecast once, and never of the other's.
+ */
+public class TestSyncNotifications extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestSyncNotifications.class.getSimpleName();
+
+    private static final int FORECAST_DAYS = 14;
+    private static final String LOCATION_A = "94043";
+    private static final String LOCATION_B = "10001";
+
+    private StubHttpServer mServer;
+    private SunshineSyncAdapter mSyncAdapter;
+    private HandlerThread mObserverThread;
+    private CountingObserver mObserverA;
+    private CountingObserver mObserverB;
+    private CountingObserver mObserverAll;
+
+    private static class CountingObserver extends ContentObserver {
+        final AtomicInteger wakeups = new AtomicInteger();
+
+        CountingObserver(Handler handler) {
+            super(handler);
+        }
+
+        @Override
+        public void onChange(boolean selfChange) {
+            wakeups.incrementAndGet();
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+
+        mServer = new StubHttpServer();
+        mServer.setBody(TestForecastParser.createForecastJson(FORECAST_DAYS));
+
+        mSyncAdapter = new SunshineSyncAdapter(mContext, false);
+        mSyncAdapter.setForecastFetcher(new ForecastFetcher(mServer.getUrl()));
+
+        mObserverThread = new HandlerThread("WeatherObservers");
+        mObserverThread.start();
+        Handler handler = new Handler(mObserverThread.getLooper());
+        mObserverA = register(handler, WeatherContract.WeatherEntry.buildWeatherLocation(LOCATION_A));
+        mObserverB = register(handler, WeatherContract.WeatherEntry.buildWeatherLocation(LOCATION_B));
+        mObserverAll = register(handler, WeatherContract.WeatherEntry.CONTENT_URI);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.getContentResolver().unregisterContentObserver(mObserverA);
+        mContext.getContentResolver().unregisterContentObserver(mObserverB);
+        mContext.getContentResolver().unregisterContentObserver(mObserverAll);
+        mObserverThread.quit();
+        mServer.shutdown();
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    private CountingObserver register(Handler handler, Uri uri) {
+        CountingObserver observer = new CountingObserver(handler);
+        // Registered the way a CursorLoader's cursor registers for its query's uri
+        mContext.getContentResolver().registerContentObserver(uri, true, observer);
+        return observer;
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.ValidatorEntry.CONTENT_URI, null, null);
+    }
+
+    private void sync(String... locations) {
+        Bundle extras = new Bundle();
+        extras.putStringArray(SunshineSyncAdapter.EXTRA_LOCATIONS, locations);
+        mSyncAdapter.onPerformSync(null, extras, WeatherContract.CONTENT_AUTHORITY,
+                null, new SyncResult());
+    }
+
+    private void waitForWakeups(final CountingObserver observer, final int wakeups) {
+        new PollingCheck(5000) {
+            @Override
+            protected boolean check() {
+                return observer.wakeups.get() >= wakeups;
+            }
+        }.run();
+        // let any extra notifications arrive before we count
+        try {
+            Thread.sleep(500);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void resetWakeups() {
+        mObserverA.wakeups.set(0);
+        mObserverB.wakeups.set(0);
+        mObserverAll.wakeups.set(0);
+    }
+
+    public void testSyncWakesOnlyTheSyncedLocations() {
+        sync(LOCATION_A, LOCATION_B);
+        waitForWakeups(mObserverAll, 2);
+
+        Log.i(LOG_TAG, "Wakeups for one sync of two locations: " + LOCATION_A + " " +
+                mObserverA.wakeups.get() + ", " + LOCATION_B + " " + mObserverB.wakeups.get() +
+                ", all weather " + mObserverAll.wakeups.get());
+        assertEquals("Error: " + LOCATION_A + " observers weren't woken exactly once",
+                1, mObserverA.wakeups.get());
+        assertEquals("Error: " + LOCATION_B + " observers weren't woken exactly once",
+                1, mObserverB.wakeups.get());
+        assertEquals("Error: all-weather observers weren't woken once per location",
+                2, mObserverAll.wakeups.get());
+
+        // A changed forecast for one location leaves the other's observers alone
+        resetWakeups();
+        mServer.setBody(TestForecastParser.createForecastJson(FORECAST_DAYS + 1));
+        sync(LOCATION_B);
+        waitForWakeups(mObserverB, 1);
+
+        assertEquals("Error: syncing " + LOCATION_B + " woke " + LOCATION_A + " observers",
+                0, mObserverA.wakeups.get());
+        assertEquals("Error: " + LOCATION_B + " observers weren't woken exactly once",
+                1, mObserverB.wakeups.get());
+    }
+
+    public void testDeleteWakesOnlyTheAffectedLocation() {
+        sync(LOCATION_A, LOCATION_B);
+        waitForWakeups(mObserverAll, 2);
+
+        resetWakeups();
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI,
+                WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " IN (SELECT " +
+                        WeatherContract.LocationEntry._ID + " FROM " +
+                        WeatherContract.LocationEntry.TABLE_NAME + " WHERE " +
+                        WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?)",
+                new String[]{LOCATION_A});
+        waitForWakeups(mObserverA, 1);
+
+        assertEquals("Error: deleting " + LOCATION_A + " woke " + LOCATION_B + " observers",
+                0, mObserverB.wakeups.get());
+        assertEquals("Error: " + LOCATION_A + " observers weren't woken exactly once",
+                1, mObserverA.wakeups.get());
+    }
+}
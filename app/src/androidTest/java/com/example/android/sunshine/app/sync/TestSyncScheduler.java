@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.test.AndroidTestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+    Drives the SyncScheduler with a fake clock through calm and volatile weather.
+ */
+public class TestSyncScheduler extends AndroidTestCase {
+
+    private static final String TEST_PREFS_NAME = "test_sync_scheduler";
+    private static final int DEFAULT_INTERVAL = SunshineSyncAdapter.SYNC_INTERVAL;
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    private static final String LOCATION = "94043";
+    private static final String OTHER_LOCATION = "10001";
+
+    private static class FakeClock implements Clock {
+        long mNow = 1419033600000L;
+
+        @Override
+        public long currentTimeMillis() {
+            return mNow;
+        }
+
+        void advanceSeconds(long seconds) {
+            mNow += seconds * 1000;
+        }
+    }
+
+    private SharedPreferences mPrefs;
+    private FakeClock mClock;
+    private SyncScheduler mScheduler;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPrefs = mContext.getSharedPreferences(TEST_PREFS_NAME, Context.MODE_PRIVATE);
+        mPrefs.edit().clear().commit();
+        mClock = new FakeClock();
+        mScheduler = new SyncScheduler(mPrefs, mClock, DEFAULT_INTERVAL);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mPrefs.edit().clear().commit();
+        super.tearDown();
+    }
+
+    /*
+        A week of forecast starting today, with the near-term days shifted by the given amount.
+     */
+    static List<SyncScheduler.Day> createForecast(int weatherId, double temperatureShift) {
+        List<SyncScheduler.Day> forecast = new ArrayList<SyncScheduler.Day>();
+        for (int i = 0; i < 7; i++) {
+            forecast.add(new SyncScheduler.Day(1419033600000L + i * DAY_IN_MILLIS,
+                    i == 0 ? weatherId : 800, 20 + i + temperatureShift, 10 + i + temperatureShift));
+        }
+        return forecast;
+    }
+
+    /*
+        Syncs once the current interval is up, bringing the given forecast.
+     */
+    private int syncOnSchedule(List<SyncScheduler.Day> forecast) {
+        mClock.advanceSeconds(mScheduler.getInterval());
+        return mScheduler.onForecast(LOCATION, forecast);
+    }
+
+    public void testCalmWeatherWidensUpToCeiling() {
+        List<SyncScheduler.Day> forecast = createForecast(800, 0);
+        assertEquals("Error: first sync moved the interval",
+                DEFAULT_INTERVAL, syncOnSchedule(forecast));
+
+        int interval = DEFAULT_INTERVAL;
+        boolean widened = false;
+        for (int i = 0; i < 10; i++) {
+            int next = syncOnSchedule(forecast);
+            assertTrue("Error: interval narrowed in calm weather", next >= interval);
+            assertTrue("Error: interval went past the staleness ceiling",
+                    next <= SyncScheduler.MAX_INTERVAL);
+            widened |= next > interval;
+            interval = next;
+        }
+        assertTrue("Error: calm weather never widened the interval", widened);
+        assertEquals("Error: interval didn't settle at the ceiling",
+                SyncScheduler.MAX_INTERVAL, interval);
+
+        // A 304 counts as calm too
+        mClock.advanceSeconds(interval);
+        assertEquals(SyncScheduler.MAX_INTERVAL, mScheduler.onUnchanged(LOCATION));
+    }
+
+    public void testManualRefreshesDontWiden() {
+        List<SyncScheduler.Day> forecast = createForecast(800, 0);
+        syncOnSchedule(forecast);
+        for (int i = 0; i < 5; i++) {
+            mClock.advanceSeconds(60);
+            assertEquals("Error: a burst of refreshes widened the interval",
+                    DEFAULT_INTERVAL, mScheduler.onForecast(LOCATION, forecast));
+        }
+    }
+
+    public void testVolatileWeatherNarrowsDownToFloor() {
+        syncOnSchedule(createForecast(800, 0));
+
+        int interval = syncOnSchedule(createForecast(500, 0));
+        assertTrue("Error: clear turning to rain didn't narrow the interval",
+                interval < DEFAULT_INTERVAL);
+
+        for (int i = 1; i < 10; i++) {
+            interval = syncOnSchedule(createForecast(i % 2 == 0 ? 800 : 500, 0));
+            assertTrue("Error: interval went below the floor",
+                    interval >= SyncScheduler.MIN_INTERVAL);
+        }
+        assertEquals(SyncScheduler.MIN_INTERVAL, interval);
+
+        // A big temperature swing narrows as well
+        mPrefs.edit().clear().commit();
+        syncOnSchedule(createForecast(800, 0));
+        assertTrue("Error: a 5 degree swing didn't narrow the interval",
+                syncOnSchedule(createForecast(800, 5)) < DEFAULT_INTERVAL);
+    }
+
+    public void testSmallChangesAndFailuresKeepInterval() {
+        syncOnSchedule(createForecast(800, 0));
+        assertEquals("Error: a small change moved the interval",
+                DEFAULT_INTERVAL, syncOnSchedule(createForecast(801, 0.5)));
+
+        mClock.advanceSeconds(DEFAULT_INTERVAL);
+        assertEquals("Error: a failure moved the interval",
+                DEFAULT_INTERVAL, mScheduler.onFailed());
+    }
+
+    public void testLocationSwitchStartsOver() {
+        // Calm enough to widen the interval
+        List<SyncScheduler.Day> forecast = createForecast(800, 0);
+        int interval = DEFAULT_INTERVAL;
+        for (int i = 0; i < 4; i++) {
+            interval = syncOnSchedule(forecast);
+        }
+        assertTrue("Error: calm weather didn't widen the interval", interval > DEFAULT_INTERVAL);
+
+        // Another city's forecast, stormy where the first was clear, isn't a change in the
+        // weather, and the calm run behind it doesn't carry over
+        mClock.advanceSeconds(60);
+        assertEquals("Error: a location switch narrowed the interval",
+                interval, mScheduler.onForecast(OTHER_LOCATION, createForecast(200, 10)));
+        assertEquals("Error: a location switch wasn't a fresh start",
+                SyncScheduler.OUTCOME_MINOR_CHANGE, getLastOutcome());
+        mClock.advanceSeconds(interval);
+        assertEquals("Error: the calm run of the old location widened the interval",
+                interval, mScheduler.onUnchanged(OTHER_LOCATION));
+
+        // Switching back to a location with an unchanged forecast starts over too
+        mClock.advanceSeconds(60);
+        mScheduler.onUnchanged(LOCATION);
+        assertEquals("Error: a 304 after a location switch counted as calm",
+                SyncScheduler.OUTCOME_MINOR_CHANGE, getLastOutcome());
+    }
+
+    private int getLastOutcome() {
+        List<SyncScheduler.Sync> history = mScheduler.getHistory();
+        return history.get(history.size() - 1).outcome;
+    }
+
+    public void testHistoryIsBounded() {
+        for (int i = 0; i < 50; i++) {
+            mClock.advanceSeconds(60);
+            mScheduler.onUnchanged(LOCATION);
+        }
+        List<SyncScheduler.Sync> history = mScheduler.getHistory();
+        assertTrue("Error: history grew without bound", history.size() < 50);
+        assertEquals("Error: latest sync not last in the history",
+                mClock.currentTimeMillis(), history.get(history.size() - 1).timeMillis);
+    }
+
+    public void testCompare() {
+        List<SyncScheduler.Day> forecast = createForecast(800, 0);
+        assertEquals(SyncScheduler.OUTCOME_UNCHANGED,
+                SyncScheduler.compare(forecast, createForecast(800, 0)));
+        assertEquals(SyncScheduler.OUTCOME_MINOR_CHANGE,
+                SyncScheduler.compare(forecast, createForecast(801, 1)));
+        assertEquals(SyncScheduler.OUTCOME_MAJOR_CHANGE,
+                SyncScheduler.compare(forecast, createForecast(200, 0)));
+        assertEquals(SyncScheduler.OUTCOME_MAJOR_CHANGE,
+                SyncScheduler.compare(forecast, createForecast(800, -3)));
+
+        // Days only one side has don't count
+        List<SyncScheduler.Day> nextDay = createForecast(800, 0).subList(1, 7);
+        assertEquals(SyncScheduler.OUTCOME_UNCHANGED, SyncScheduler.compare(forecast, nextDay));
+    }
+}
@@ -0,0 +1,275 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.utils;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A tiny HTTP/1.1 server for tests that serves one canned body for every GET on the loopback
+ * interface.  It honours If-None-Match against the configured ETag, supports keep-alive and,
+ * when asked to, gzip, and counts requests, connections and bytes so tests can see what went over the wire.
+ */
+public class StubHttpServer {
+
+    private final ServerSocket mServerSocket;
+    private final Thread mAcceptThread;
+
+    private volatile byte[] mBody = new byte[0];
+    private volatile String mETag;
+    private volatile String mLastModified;
+    private volatile long mResponseDelayMillis;
+    private volatile int mSlowRequestInterval;
+    private volatile long mSlowRequestDelayMillis;
+    private volatile boolean mGzip;
+
+    private final AtomicInteger mRequestCount = new AtomicInteger();
+    private final AtomicInteger mNotModifiedCount = new AtomicInteger();
+    private final AtomicInteger mConnectionCount = new AtomicInteger();
+    private final AtomicLong mBytesSent = new AtomicLong();
+
+    public StubHttpServer() throws IOException {
+        mServerSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        mAcceptThread = new Thread("StubHttpServer") {
+            @Override
+            public void run() {
+                acceptLoop();
+            }
+        };
+        mAcceptThread.setDaemon(true);
+        mAcceptThread.start();
+    }
+
+    /**
+     * @return a base URL ending in "?", ready for query parameters to be appended.
+     */
+    public String getUrl() {
+        return "http://127.0.0.1:" + mServerSocket.getLocalPort() + "/forecast?";
+    }
+
+    public void setBody(byte[] body) {
+        mBody = body;
+    }
+
+    public void setETag(String etag) {
+        mETag = etag;
+    }
+
+    public void setLastModified(String lastModified) {
+        mLastModified = lastModified;
+    }
+
+    /**
+     * Delays every response's status line by the given time, to simulate a slow server.
+     */
+    public void setResponseDelay(long millis) {
+        mResponseDelayMillis = millis;
+    }
+
+    /**
+     * Delays every n-th request by the given time on top of any response delay, to simulate
+     * a server with a latency tail.
+     */
+    public void setSlowRequests(int every, long delayMillis) {
+        mSlowRequestInterval = every;
+        mSlowRequestDelayMillis = delayMillis;
+    }
+
+    /**
+     * Gzips bodies for clients that accept it.
+     */
+    public void setGzip(boolean gzip) {
+        mGzip = gzip;
+    }
+
+    public int getRequestCount() {
+        return mRequestCount.get();
+    }
+
+    public int getNotModifiedCount() {
+        return mNotModifiedCount.get();
+    }
+
+    public int getConnectionCount() {
+        return mConnectionCount.get();
+    }
+
+    public long getBytesSent() {
+        return mBytesSent.get();
+    }
+
+    public void shutdown() {
+        try {
+            mServerSocket.close();
+        } catch (IOException e) {
+            // ignored, we're going away anyway
+        }
+    }
+
+    private void acceptLoop() {
+        while (!mServerSocket.isClosed()) {
+            final Socket socket;
+            try {
+                socket = mServerSocket.accept();
+            } catch (IOException e) {
+                return;
+            }
+            mConnectionCount.incrementAndGet();
+            Thread connectionThread = new Thread("StubHttpServer connection") {
+                @Override
+                public void run() {
+                    serve(socket);
+                }
+            };
+            connectionThread.setDaemon(true);
+            connectionThread.start();
+        }
+    }
+
+    private void serve(Socket socket) {
+        try {
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = socket.getOutputStream();
+            Map<String, String> headers = new HashMap<String, String>();
+            while (readRequest(in, headers)) {
+                int request = mRequestCount.incrementAndGet();
+                long delay = mResponseDelayMillis;
+                int slowInterval = mSlowRequestInterval;
+                if (slowInterval > 0 && request % slowInterval == 0) {
+                    delay += mSlowRequestDelayMillis;
+                }
+                if (delay > 0) {
+                    try {
+                        Thread.sleep(delay);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                byte[] response = buildResponse(headers);
+                out.write(response);
+                out.flush();
+                mBytesSent.addAndGet(response.length);
+                if ("close".equalsIgnoreCase(headers.get("connection"))) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            // the client went away
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // ignored
+            }
+        }
+    }
+
+    private byte[] buildResponse(Map<String, String> requestHeaders) throws IOException {
+        String etag = mETag;
+        String lastModified = mLastModified;
+        boolean notModified = etag != null && etag.equals(requestHeaders.get("if-none-match"))
+                || etag == null && lastModified != null
+                && lastModified.equals(requestHeaders.get("if-modified-since"));
+
+        byte[] body = notModified ? new byte[0] : mBody;
+        String acceptEncoding = requestHeaders.get("accept-encoding");
+        boolean gzip = !notModified && mGzip && acceptEncoding != null
+                && acceptEncoding.contains("gzip");
+        if (gzip) {
+            ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+            GZIPOutputStream out = new GZIPOutputStream(gzipped);
+            out.write(body);
+            out.close();
+            body = gzipped.toByteArray();
+        }
+
+        StringBuilder head = new StringBuilder();
+        if (notModified) {
+            mNotModifiedCount.incrementAndGet();
+            head.append("HTTP/1.1 304 Not Modified\r\n");
+        } else {
+            head.append("HTTP/1.1 200 OK\r\n");
+            head.append("Content-Type: application/json; charset=utf-8\r\n");
+            if (gzip) {
+                head.append("Content-Encoding: gzip\r\n");
+            }
+            head.append("Content-Length: ").append(body.length).append("\r\n");
+        }
+        if (etag != null) {
+            head.append("ETag: ").append(etag).append("\r\n");
+        }
+        if (lastModified != null) {
+            head.append("Last-Modified: ").append(lastModified).append("\r\n");
+        }
+        head.append("\r\n");
+
+        ByteArrayOutputStream response = new ByteArrayOutputStream();
+        response.write(head.toString().getBytes("US-ASCII"));
+        response.write(body);
+        return response.toByteArray();
+    }
+
+    /**
+     * Reads one request head, filling in its headers with lower-cased names.
+     *
+     * @return false if the connection was closed before a request arrived.
+     */
+    private static boolean readRequest(InputStream in, Map<String, String> headers)
+            throws IOException {
+        headers.clear();
+        String requestLine = readLine(in);
+        if (requestLine == null) {
+            return false;
+        }
+        String line;
+        while ((line = readLine(in)) != null && line.length() > 0) {
+            int colon = line.indexOf(':');
+            if (colon > 0) {
+                headers.put(line.substring(0, colon).trim().toLowerCase(Locale.US),
+                        line.substring(colon + 1).trim());
+            }
+        }
+        return true;
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        int c;
+        while ((c = in.read()) != -1) {
+            if (c == '\n') {
+                int length = sb.length();
+                if (length > 0 && sb.charAt(length - 1) == '\r') {
+                    sb.setLength(length - 1);
+                }
+                return sb.toString();
+            }
+            sb.append((char) c);
+        }
+        return sb.length() > 0 ? sb.toString() : null;
+    }
+}
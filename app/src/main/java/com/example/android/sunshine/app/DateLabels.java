@@ -0,0 +1,254 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.text.format.Time;
+
+import com.example.android.sunshine.app.data.DayBoundaries;
+
+import java.text.SimpleDateFormat;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The day labels shown in the forecast list, the widgets and the detail view ("Today, June 8",
+ * "Tomorrow", "Wednesday", "Mon Jun 8"), remembered per day so that binding a row is usually a
+ * map lookup.
+ * <p/>
+ * Labels are kept for the current day only, and dropped at midnight or when the time zone or
+ * locale changes.  They are keyed by the day the date falls on with its own zone offset, which
+ * is the day the formatters print; whether that is today, tomorrow or within the week is still
+ * decided with today's offset, as Utility always has.  The formatters are kept per thread, as
+ * SimpleDateFormat isn't thread safe, and rebuilt after a time zone or locale change.
+ */
+public final class DateLabels {
+
+    private static final String PATTERN_SHORT_DATE = "EEE MMM dd";
+    private static final String PATTERN_DAY_NAME = "EEEE";
+    private static final String PATTERN_MONTH_DAY = "MMMM dd";
+
+    private static final int LABEL_FRIENDLY = 0;
+    private static final int LABEL_FRIENDLY_LONG_TODAY = 1;
+    private static final int LABEL_FULL_FRIENDLY = 2;
+    private static final int LABEL_DAY_NAME = 3;
+    private static final int LABEL_MONTH_DAY = 4;
+    private static final int LABEL_KINDS = 5;
+
+    // Far more days than any list shows, in case something formats dates over a long range
+    private static final int MAX_LABELS = 512;
+
+    private static volatile DateLabels sInstance;
+
+    private final Context mContext;
+
+    // Bumped when the time zone or locale changes, to rebuild the per thread formatters
+    private volatile int mGeneration;
+    private volatile Today mToday;
+
+    private final ThreadLocal<Formatters> mFormatters = new ThreadLocal<Formatters>();
+
+    /**
+     * The labels worked out for dates relative to one day.
+     */
+    private static final class Today {
+        final int generation;
+        final int julianDay;
+        final long gmtoff;
+        // [startMillis, endMillis) is the current day, in the time zone it was worked out in
+        final long startMillis;
+        final long endMillis;
+        final ConcurrentHashMap<Integer, String> labels = new ConcurrentHashMap<Integer, String>();
+
+        Today(int generation) {
+            this.generation = generation;
+            Time time = new Time();
+            time.setToNow();
+            gmtoff = time.gmtoff;
+            julianDay = Time.getJulianDay(System.currentTimeMillis(), gmtoff);
+            startMillis = time.setJulianDay(julianDay);
+            endMillis = time.setJulianDay(julianDay + 1);
+        }
+
+        boolean isCurrent(int generation, long now) {
+            return this.generation == generation && now >= startMillis && now < endMillis;
+        }
+    }
+
+    private static final class Formatters {
+        final int generation;
+        final SimpleDateFormat shortDate = new SimpleDateFormat(PATTERN_SHORT_DATE);
+        final SimpleDateFormat dayName = new SimpleDateFormat(PATTERN_DAY_NAME);
+        final SimpleDateFormat monthDay = new SimpleDateFormat(PATTERN_MONTH_DAY);
+
+        Formatters(int generation) {
+            this.generation = generation;
+        }
+    }
+
+    private DateLabels(Context context) {
+        mContext = context;
+    }
+
+    public static DateLabels get(Context context) {
+        DateLabels labels = sInstance;
+        if (labels != null) {
+            return labels;
+        }
+        synchronized (DateLabels.class) {
+            if (sInstance == null) {
+                Context appContext = context.getApplicationContext();
+                final DateLabels newLabels = new DateLabels(appContext);
+                IntentFilter filter = new IntentFilter(Intent.ACTION_TIMEZONE_CHANGED);
+                filter.addAction(Intent.ACTION_LOCALE_CHANGED);
+                appContext.registerReceiver(new BroadcastReceiver() {
+                    @Override
+                    public void onReceive(Context context, Intent intent) {
+                        newLabels.invalidate();
+                    }
+                }, filter);
+                sInstance = newLabels;
+            }
+            return sInstance;
+        }
+    }
+
+    /**
+     * Drops the remembered labels and formatters, as after a time zone or locale change.
+     */
+    public void invalidate() {
+        synchronized (this) {
+            mGeneration++;
+        }
+        mToday = null;
+    }
+
+    /**
+     * @see Utility#getFriendlyDayString
+     */
+    public String getFriendlyDayString(long dateInMillis, boolean displayLongToday) {
+        return getLabel(dateInMillis,
+                displayLongToday ? LABEL_FRIENDLY_LONG_TODAY : LABEL_FRIENDLY);
+    }
+
+    /**
+     * @see Utility#getFullFriendlyDayString
+     */
+    public String getFullFriendlyDayString(long dateInMillis) {
+        return getLabel(dateInMillis, LABEL_FULL_FRIENDLY);
+    }
+
+    /**
+     * @see Utility#getDayName
+     */
+    public String getDayName(long dateInMillis) {
+        return getLabel(dateInMillis, LABEL_DAY_NAME);
+    }
+
+    /**
+     * @see Utility#getFormattedMonthDay
+     */
+    public String getFormattedMonthDay(long dateInMillis) {
+        return getLabel(dateInMillis, LABEL_MONTH_DAY);
+    }
+
+    private String getLabel(long dateInMillis, int kind) {
+        int generation = mGeneration;
+        Today today = mToday;
+        if (today == null || !today.isCurrent(generation, System.currentTimeMillis())) {
+            // Threads racing here build equivalent days, so it doesn't matter whose is kept
+            today = new Today(generation);
+            mToday = today;
+        }
+
+        int julianDay = Time.getJulianDay(dateInMillis, today.gmtoff);
+        int dateJulianDay = DayBoundaries.getJulianDay(dateInMillis);
+        if (julianDay != dateJulianDay) {
+            // Today's offset puts the date on another day than its own offset does, which only
+            // happens near a daylight saving transition; the label would be wrong for the rest
+            // of the day it's keyed by, so it isn't remembered.
+            return formatLabel(today, julianDay, dateInMillis, kind, getFormatters(generation));
+        }
+        Integer key = julianDay * LABEL_KINDS + kind;
+        String label = today.labels.get(key);
+        if (label == null) {
+            label = formatLabel(today, julianDay, dateInMillis, kind, getFormatters(generation));
+            if (today.labels.size() >= MAX_LABELS) {
+                today.labels.clear();
+            }
+            today.labels.put(key, label);
+        }
+        return label;
+    }
+
+    private Formatters getFormatters(int generation) {
+        Formatters formatters = mFormatters.get();
+        if (formatters == null || formatters.generation != generation) {
+            // SimpleDateFormat takes the default locale and time zone when it's built
+            formatters = new Formatters(generation);
+            mFormatters.set(formatters);
+        }
+        return formatters;
+    }
+
+    private String formatLabel(Today today, int julianDay, long dateInMillis, int kind,
+                               Formatters formatters) {
+        switch (kind) {
+            case LABEL_FRIENDLY:
+            case LABEL_FRIENDLY_LONG_TODAY:
+                // The day string for forecast uses the following logic:
+                // For today: "Today, June 8"
+                // For tomorrow:  "Tomorrow"
+                // For the next 5 days: "Wednesday" (just the day name)
+                // For all days after that: "Mon Jun 8"
+                if (kind == LABEL_FRIENDLY_LONG_TODAY && julianDay == today.julianDay) {
+                    return mContext.getString(R.string.format_full_friendly_date,
+                            mContext.getString(R.string.today),
+                            formatters.monthDay.format(dateInMillis));
+                } else if (julianDay < today.julianDay + 7) {
+                    return formatDayName(today, julianDay, dateInMillis, formatters);
+                } else {
+                    return formatters.shortDate.format(dateInMillis);
+                }
+            case LABEL_FULL_FRIENDLY:
+                return mContext.getString(R.string.format_full_friendly_date,
+                        formatDayName(today, julianDay, dateInMillis, formatters),
+                        formatters.monthDay.format(dateInMillis));
+            case LABEL_DAY_NAME:
+                return formatDayName(today, julianDay, dateInMillis, formatters);
+            case LABEL_MONTH_DAY:
+                return formatters.monthDay.format(dateInMillis);
+            default:
+                throw new IllegalArgumentException("Unknown label kind " + kind);
+        }
+    }
+
+    private String formatDayName(Today today, int julianDay, long dateInMillis,
+                                 Formatters formatters) {
+        // If the date is today, return the localized version of "Today" instead of the actual
+        // day name.
+        if (julianDay == today.julianDay) {
+            return mContext.getString(R.string.today);
+        } else if (julianDay == today.julianDay + 1) {
+            return mContext.getString(R.string.tomorrow);
+        } else {
+            // Otherwise, the format is just the day of the week (e.g "Wednesday").
+            return formatters.dayName.format(dateInMillis);
+        }
+    }
+}
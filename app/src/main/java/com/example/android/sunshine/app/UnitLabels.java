@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+
+import java.util.Locale;
+
+/**
+ * Temperature and wind labels, formatted once per locale and then looked up by value.
+ * <p/>
+ * Temperatures and wind speeds are shown rounded to whole units, so there are only a few
+ * hundred labels for the values that actually occur.  The temperature labels are formatted
+ * when the locale is first seen, the wind labels the first time each one is asked for.  Values
+ * are rounded the way String.format rounds them, half away from zero, with "-0" for small
+ * negative values; values outside the tables are formatted as before.
+ */
+public final class UnitLabels {
+
+    // The temperature range with labels made up front, in degrees Celsius
+    static final int MIN_CELSIUS = -90;
+    static final int MAX_CELSIUS = 60;
+
+    // ...and in whole displayed degrees of either unit
+    private static final int MIN_DEGREES = (int) Math.floor(MIN_CELSIUS * 1.8 + 32);
+    private static final int MAX_DEGREES = (int) Math.ceil(MAX_CELSIUS * 1.8 + 32);
+
+    // Wind speeds with labels, in whole displayed km/h or mph
+    static final int MAX_WIND_SPEED = 250;
+
+    // Compass directions, by sector, with the label for a direction that isn't a number last
+    private static final String[] DIRECTIONS = {"N", "NE", "E", "SE", "S", "SW", "W", "NW",
+            "Unknown"};
+
+    private static volatile UnitLabels sInstance;
+
+    private final Locale mLocale;
+    private final String mTemperatureFormat;
+    private final String mWindKmhFormat;
+    private final String mWindMphFormat;
+
+    // Index is the rounded temperature - MIN_DEGREES
+    private final String[] mTemperatures = new String[MAX_DEGREES - MIN_DEGREES + 1];
+    private final String mMinusZero;
+
+    // Index is rounded speed * DIRECTIONS.length + sector, filled in as they're needed
+    private final String[] mWindKmh = new String[(MAX_WIND_SPEED + 1) * DIRECTIONS.length];
+    private final String[] mWindMph = new String[(MAX_WIND_SPEED + 1) * DIRECTIONS.length];
+
+    private UnitLabels(Context context, Locale locale) {
+        mLocale = locale;
+        mTemperatureFormat = context.getString(R.string.format_temperature);
+        mWindKmhFormat = context.getString(R.string.format_wind_kmh);
+        mWindMphFormat = context.getString(R.string.format_wind_mph);
+        for (int i = 0; i < mTemperatures.length; i++) {
+            mTemperatures[i] = String.format(mTemperatureFormat,
+                    (double) (MIN_DEGREES + i)).intern();
+        }
+        mMinusZero = String.format(mTemperatureFormat, -0.0).intern();
+    }
+
+    /**
+     * @return the labels for the current locale.
+     */
+    public static UnitLabels get(Context context) {
+        Locale locale = Locale.getDefault();
+        UnitLabels labels = sInstance;
+        if (labels == null || (labels.mLocale != locale && !labels.mLocale.equals(locale))) {
+            // Threads racing here build the same labels, so it doesn't matter whose are kept
+            labels = new UnitLabels(context.getApplicationContext(), locale);
+            sInstance = labels;
+        }
+        return labels;
+    }
+
+    /**
+     * @param temperature in degrees Celsius.
+     * @param metric whether to show it in Celsius rather than Fahrenheit.
+     * @see Utility#formatTemperature
+     */
+    public String formatTemperature(double temperature, boolean metric) {
+        if (!metric) {
+            temperature = (temperature * 1.8) + 32;
+        }
+        // Also false for NaN
+        if (temperature > MIN_DEGREES - 0.5 && temperature < MAX_DEGREES + 0.5) {
+            long rounded = roundMagnitude(temperature);
+            if (Double.doubleToRawLongBits(temperature) < 0) {
+                return rounded == 0 ? mMinusZero : mTemperatures[(int) -rounded - MIN_DEGREES];
+            }
+            return mTemperatures[(int) rounded - MIN_DEGREES];
+        }
+        return String.format(mTemperatureFormat, temperature);
+    }
+
+    /**
+     * @param windSpeed in km/h.
+     * @param degrees the direction the wind comes from, clockwise from north.
+     * @param metric whether to show the speed in km/h rather than mph.
+     * @see Utility#getFormattedWind
+     */
+    public String formatWind(float windSpeed, float degrees, boolean metric) {
+        String format;
+        String[] labels;
+        if (metric) {
+            format = mWindKmhFormat;
+            labels = mWindKmh;
+        } else {
+            format = mWindMphFormat;
+            labels = mWindMph;
+            windSpeed = .621371192237334f * windSpeed;
+        }
+        int sector = getCompassSector(degrees);
+
+        // Not negative, not even -0, and not NaN
+        if (Float.floatToRawIntBits(windSpeed) >= 0 && windSpeed < MAX_WIND_SPEED + 0.5f) {
+            int index = (int) roundMagnitude(windSpeed) * DIRECTIONS.length + sector;
+            String label = labels[index];
+            if (label == null) {
+                label = String.format(format, (float) roundMagnitude(windSpeed),
+                        DIRECTIONS[sector]).intern();
+                labels[index] = label;
+            }
+            return label;
+        }
+        return String.format(format, windSpeed, DIRECTIONS[sector]);
+    }
+
+    /**
+     * @return the eighth of the compass the direction is in, 0 for north, clockwise, or the
+     * index of "Unknown" if it isn't a number.
+     */
+    static int getCompassSector(float degrees) {
+        if (degrees >= 22.5 && degrees < 337.5) {
+            return (int) ((degrees + 22.5) / 45);
+        }
+        // Anything else from 337.5 round to 22.5, including values outside 0-360, is north
+        return degrees == degrees ? 0 : DIRECTIONS.length - 1;
+    }
+
+    /**
+     * @return |value| rounded to the nearest whole number, halves rounded up, as String.format
+     * does.
+     */
+    private static long roundMagnitude(double value) {
+        double magnitude = Math.abs(value);
+        long whole = (long) magnitude;
+        // Exact, unlike magnitude + 0.5, which can round up a value just under a half
+        if (magnitude - whole >= 0.5) {
+            whole++;
+        }
+        return whole;
+    }
+}
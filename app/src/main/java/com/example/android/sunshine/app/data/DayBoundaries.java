@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.text.format.Time;
+
+import java.util.TimeZone;
+
+/**
+ * Julian days and the instants they start at in the default time zone, as worked out with
+ * {@link Time}, without building a Time for each date.
+ * <p/>
+ * Days whose zone offset doesn't change between one midnight and the next are remembered with
+ * their start, their end and the offset.  A date is placed on a day with the last offset seen,
+ * and if that day is remembered, holds the date and is also the day Time gives the date with
+ * the day's offset, it is answered with no further work.  Any other date, such as one on a day
+ * with a daylight saving transition, is worked out with Time exactly as before, so the answers
+ * are always the ones Time gives.  That includes dates before 1970: Time divides towards zero,
+ * so it puts any of them that isn't a midnight on the day after the one holding it.
+ * <p/>
+ * The remembered days belong to the time zone they were worked out in:
+ * {@link #invalidate} must be called when the default time zone changes.
+ */
+public final class DayBoundaries {
+
+    private static final long DAY_IN_MILLIS = 24L * 60 * 60 * 1000;
+
+    // Days are kept by julianDay & DAY_MASK, so any two months of days fit without clashing
+    private static final int DAY_SLOTS = 64;
+    private static final int DAY_MASK = DAY_SLOTS - 1;
+
+    private static final class Day {
+        final int generation;
+        final int julianDay;
+        // [startMillis, endMillis) are the instants on this day
+        final long startMillis;
+        final long endMillis;
+        // The zone offset all day, in seconds as in Time#gmtoff
+        final long gmtoff;
+
+        Day(int generation, int julianDay, long startMillis, long endMillis, long gmtoff) {
+            this.generation = generation;
+            this.julianDay = julianDay;
+            this.startMillis = startMillis;
+            this.endMillis = endMillis;
+            this.gmtoff = gmtoff;
+        }
+    }
+
+    private static final Day[] sDays = new Day[DAY_SLOTS];
+
+    // Bumped on a time zone change, which leaves the days in sDays for the old zone
+    private static volatile int sGeneration;
+    // The zone offset on the last day remembered, used to guess the day of a date
+    private static volatile long sGmtoff;
+
+    private DayBoundaries() {
+    }
+
+    /**
+     * Forgets every remembered day, for after the default time zone has changed.
+     */
+    public static void invalidate() {
+        synchronized (sDays) {
+            sGeneration++;
+            for (int i = 0; i < sDays.length; i++) {
+                sDays[i] = null;
+            }
+        }
+    }
+
+    /**
+     * @return the start of the day the date is on in the default time zone, as
+     * {@link WeatherContract#normalizeDate} has always given it.
+     */
+    public static long normalizeDate(long dateMillis) {
+        Day day = findDay(dateMillis);
+        if (day != null) {
+            return day.startMillis;
+        }
+        Time time = new Time();
+        time.set(dateMillis);
+        int julianDay = Time.getJulianDay(dateMillis, time.gmtoff);
+        Day remembered = rememberDay(julianDay);
+        return remembered != null ? remembered.startMillis : time.setJulianDay(julianDay);
+    }
+
+    /**
+     * @return the Julian day the date is on in the default time zone, as given by
+     * {@link Time#getJulianDay} with the zone offset at that date.
+     */
+    public static int getJulianDay(long dateMillis) {
+        Day day = findDay(dateMillis);
+        if (day != null) {
+            return day.julianDay;
+        }
+        Time time = new Time();
+        time.set(dateMillis);
+        int julianDay = Time.getJulianDay(dateMillis, time.gmtoff);
+        rememberDay(julianDay);
+        return julianDay;
+    }
+
+    /**
+     * @return the start of the Julian day in the default time zone, as given by
+     * {@link Time#setJulianDay}.
+     */
+    public static long getDayStart(int julianDay) {
+        Day day = sDays[julianDay & DAY_MASK];
+        if (day != null && day.generation == sGeneration && day.julianDay == julianDay) {
+            return day.startMillis;
+        }
+        Day remembered = rememberDay(julianDay);
+        return remembered != null ? remembered.startMillis : new Time().setJulianDay(julianDay);
+    }
+
+    private static Day findDay(long dateMillis) {
+        Day day = sDays[Time.getJulianDay(dateMillis, sGmtoff) & DAY_MASK];
+        // A day holding the date has the date's offset, so Time would give the date the day
+        // getJulianDay gives with it, which is this day unless the date is before 1970
+        if (day != null && day.generation == sGeneration && dateMillis >= day.startMillis
+                && dateMillis < day.endMillis
+                && Time.getJulianDay(dateMillis, day.gmtoff) == day.julianDay) {
+            return day;
+        }
+        return null;
+    }
+
+    /**
+     * Works out the day with Time and remembers it, unless its offset changes.
+     *
+     * @return the remembered day, or null if it wasn't.
+     */
+    private static Day rememberDay(int julianDay) {
+        int generation = sGeneration;
+        Time time = new Time();
+        long startMillis = time.setJulianDay(julianDay);
+        long endMillis = time.setJulianDay(julianDay + 1);
+        // Time gives -1 for a midnight skipped by a transition
+        if (startMillis == -1 || endMillis == -1 || endMillis - startMillis != DAY_IN_MILLIS) {
+            return null;
+        }
+        TimeZone zone = TimeZone.getTimeZone(time.timezone);
+        int offsetMillis = zone.getOffset(startMillis);
+        if (offsetMillis != zone.getOffset(endMillis - 1)) {
+            return null;
+        }
+
+        long gmtoff = offsetMillis / 1000;
+        Day day = new Day(generation, julianDay, startMillis, endMillis, gmtoff);
+        synchronized (sDays) {
+            // Not if the zone changed while this day was being worked out
+            if (generation != sGeneration) {
+                return null;
+            }
+            sDays[julianDay & DAY_MASK] = day;
+            sGmtoff = gmtoff;
+        }
+        return day;
+    }
+}
@@ -0,0 +1,277 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Packs a run of past days, a month of one location's weather as the history table keeps
+ * them, into a blob a fraction of the size of the rows it replaces.
+ * <p/>
+ * The days are stored column by column.  Dates are written as the gap from the day before, in
+ * the coarsest unit that divides them all, and each measurement is quantized to the precision
+ * the forecast is shown at and written as its change from the day before, so most values take
+ * a single byte.  Descriptions are written once per block and referred to by index.  Every
+ * number is a variable length integer, zigzag encoded where it can be negative.
+ */
+final class ForecastArchive {
+
+    private static final int VERSION = 1;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // Units tried for the dates, coarsest first: normalized dates are midnights, and every
+    // time zone in use today is a whole number of quarter hours from UTC
+    private static final long[] DATE_UNITS = {15 * 60 * 1000, 60 * 1000, 1000, 1};
+
+    // Quantization steps, as the number of steps per unit of each measurement
+    static final double TEMPERATURE_SCALE = 10;
+    static final double HUMIDITY_SCALE = 1;
+    static final double PRESSURE_SCALE = 10;
+    static final double WIND_SPEED_SCALE = 10;
+    static final double DEGREES_SCALE = 1;
+
+    private ForecastArchive() {
+    }
+
+    /**
+     * @param days the days to pack, in ascending order of date with no date twice.
+     */
+    static byte[] encode(ForecastBatch days) {
+        int size = days.size();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(16 + 12 * size);
+        writeVarint(out, VERSION);
+        writeVarint(out, size);
+
+        long unit = 1;
+        for (long candidate : DATE_UNITS) {
+            boolean divides = true;
+            for (int i = 0; i < size && divides; i++) {
+                divides = days.getDate(i) % candidate == 0;
+            }
+            if (divides) {
+                unit = candidate;
+                break;
+            }
+        }
+        writeVarint(out, unit);
+        long previous = 0;
+        for (int i = 0; i < size; i++) {
+            long date = days.getDate(i) / unit;
+            writeVarint(out, zigzag(date - previous));
+            previous = date;
+        }
+
+        long previousId = 0;
+        for (int i = 0; i < size; i++) {
+            writeVarint(out, zigzag(days.getWeatherId(i) - previousId));
+            previousId = days.getWeatherId(i);
+        }
+
+        List<String> descriptions = new ArrayList<String>();
+        Map<String, Integer> indices = new HashMap<String, Integer>();
+        int[] descriptionIndices = new int[size];
+        for (int i = 0; i < size; i++) {
+            String description = days.getShortDesc(i);
+            Integer index = indices.get(description);
+            if (index == null) {
+                index = descriptions.size();
+                indices.put(description, index);
+                descriptions.add(description);
+            }
+            descriptionIndices[i] = index;
+        }
+        writeVarint(out, descriptions.size());
+        for (String description : descriptions) {
+            byte[] bytes = description.getBytes(UTF_8);
+            writeVarint(out, bytes.length);
+            out.write(bytes, 0, bytes.length);
+        }
+        for (int index : descriptionIndices) {
+            writeVarint(out, index);
+        }
+
+        long minTemp = 0, maxTemp = 0, humidity = 0, pressure = 0, windSpeed = 0, degrees = 0;
+        for (int i = 0; i < size; i++) {
+            minTemp = writeQuantized(out, days.getMinTemp(i), TEMPERATURE_SCALE, minTemp);
+        }
+        for (int i = 0; i < size; i++) {
+            maxTemp = writeQuantized(out, days.getMaxTemp(i), TEMPERATURE_SCALE, maxTemp);
+        }
+        for (int i = 0; i < size; i++) {
+            humidity = writeQuantized(out, days.getHumidity(i), HUMIDITY_SCALE, humidity);
+        }
+        for (int i = 0; i < size; i++) {
+            pressure = writeQuantized(out, days.getPressure(i), PRESSURE_SCALE, pressure);
+        }
+        for (int i = 0; i < size; i++) {
+            windSpeed = writeQuantized(out, days.getWindSpeed(i), WIND_SPEED_SCALE, windSpeed);
+        }
+        for (int i = 0; i < size; i++) {
+            degrees = writeQuantized(out, days.getDegrees(i), DEGREES_SCALE, degrees);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * @return the days packed by {@link #encode}, with no location set.
+     */
+    static ForecastBatch decode(byte[] data) {
+        Reader in = new Reader(data);
+        int version = (int) in.readVarint();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unknown archive version " + version);
+        }
+        int size = (int) in.readVarint();
+
+        long[] dates = new long[size];
+        long unit = in.readVarint();
+        long date = 0;
+        for (int i = 0; i < size; i++) {
+            date += unzigzag(in.readVarint());
+            dates[i] = date * unit;
+        }
+
+        int[] weatherIds = new int[size];
+        long weatherId = 0;
+        for (int i = 0; i < size; i++) {
+            weatherId += unzigzag(in.readVarint());
+            weatherIds[i] = (int) weatherId;
+        }
+
+        String[] descriptions = new String[(int) in.readVarint()];
+        for (int i = 0; i < descriptions.length; i++) {
+            descriptions[i] = in.readString((int) in.readVarint());
+        }
+        String[] shortDescs = new String[size];
+        for (int i = 0; i < size; i++) {
+            shortDescs[i] = descriptions[(int) in.readVarint()];
+        }
+
+        double[] minTemps = in.readQuantized(size, TEMPERATURE_SCALE);
+        double[] maxTemps = in.readQuantized(size, TEMPERATURE_SCALE);
+        double[] humidities = in.readQuantized(size, HUMIDITY_SCALE);
+        double[] pressures = in.readQuantized(size, PRESSURE_SCALE);
+        double[] windSpeeds = in.readQuantized(size, WIND_SPEED_SCALE);
+        double[] degrees = in.readQuantized(size, DEGREES_SCALE);
+
+        ForecastBatch days = new ForecastBatch(size);
+        for (int i = 0; i < size; i++) {
+            days.add(dates[i], weatherIds[i], shortDescs[i], minTemps[i], maxTemps[i],
+                    humidities[i], pressures[i], windSpeeds[i], degrees[i]);
+        }
+        return days;
+    }
+
+    /**
+     * @return the days of both, in ascending order of date, taking the newer of two days with
+     * the same date.  Both must already be in order.
+     */
+    static ForecastBatch merge(ForecastBatch older, ForecastBatch newer) {
+        ForecastBatch merged = new ForecastBatch(older.size() + newer.size());
+        int i = 0;
+        int j = 0;
+        while (i < older.size() || j < newer.size()) {
+            if (j == newer.size()
+                    || (i < older.size() && older.getDate(i) < newer.getDate(j))) {
+                copyDay(older, i++, merged);
+            } else {
+                if (i < older.size() && older.getDate(i) == newer.getDate(j)) {
+                    i++;
+                }
+                copyDay(newer, j++, merged);
+            }
+        }
+        return merged;
+    }
+
+    private static void copyDay(ForecastBatch from, int i, ForecastBatch to) {
+        to.add(from.getDate(i), from.getWeatherId(i), from.getShortDesc(i), from.getMinTemp(i),
+                from.getMaxTemp(i), from.getHumidity(i), from.getPressure(i),
+                from.getWindSpeed(i), from.getDegrees(i));
+    }
+
+    private static long writeQuantized(ByteArrayOutputStream out, double value, double scale,
+                                       long previous) {
+        long quantized = Math.round(value * scale);
+        writeVarint(out, zigzag(quantized - previous));
+        return quantized;
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static final class Reader {
+        private final byte[] mData;
+        private int mPosition;
+
+        Reader(byte[] data) {
+            mData = data;
+        }
+
+        long readVarint() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                if (mPosition == mData.length) {
+                    throw new IllegalArgumentException("Truncated archive");
+                }
+                byte b = mData[mPosition++];
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("Malformed archive");
+        }
+
+        String readString(int length) {
+            if (length > mData.length - mPosition) {
+                throw new IllegalArgumentException("Truncated archive");
+            }
+            String value = new String(mData, mPosition, length, UTF_8);
+            mPosition += length;
+            return value;
+        }
+
+        double[] readQuantized(int size, double scale) {
+            double[] values = new double[size];
+            long quantized = 0;
+            for (int i = 0; i < size; i++) {
+                quantized += unzigzag(readVarint());
+                values[i] = quantized / scale;
+            }
+            return values;
+        }
+    }
+}
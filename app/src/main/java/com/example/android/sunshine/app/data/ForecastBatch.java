@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.os.Bundle;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.Arrays;
+
+/**
+ * The forecast for one location, held column by column in primitive arrays so it can be
+ * handed to {@link WeatherEntry#METHOD_WRITE_FORECAST} without a ContentValues, or a boxed
+ * value, per day.  Dates must already be normalized.
+ */
+public final class ForecastBatch {
+
+    private long mLocationId = -1;
+    private int mSize;
+
+    private long[] mDates;
+    private int[] mWeatherIds;
+    private String[] mShortDescs;
+    private double[] mMinTemps;
+    private double[] mMaxTemps;
+    private double[] mHumidities;
+    private double[] mPressures;
+    private double[] mWindSpeeds;
+    private double[] mDegrees;
+
+    public ForecastBatch(int capacity) {
+        mDates = new long[capacity];
+        mWeatherIds = new int[capacity];
+        mShortDescs = new String[capacity];
+        mMinTemps = new double[capacity];
+        mMaxTemps = new double[capacity];
+        mHumidities = new double[capacity];
+        mPressures = new double[capacity];
+        mWindSpeeds = new double[capacity];
+        mDegrees = new double[capacity];
+    }
+
+    public long getLocationId() {
+        return mLocationId;
+    }
+
+    public void setLocationId(long locationId) {
+        mLocationId = locationId;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public void add(long date, int weatherId, String shortDesc, double minTemp, double maxTemp,
+                    double humidity, double pressure, double windSpeed, double degrees) {
+        if (mSize == mDates.length) {
+            grow(Math.max(16, mSize * 2));
+        }
+        mDates[mSize] = date;
+        mWeatherIds[mSize] = weatherId;
+        mShortDescs[mSize] = shortDesc;
+        mMinTemps[mSize] = minTemp;
+        mMaxTemps[mSize] = maxTemp;
+        mHumidities[mSize] = humidity;
+        mPressures[mSize] = pressure;
+        mWindSpeeds[mSize] = windSpeed;
+        mDegrees[mSize] = degrees;
+        mSize++;
+    }
+
+    private void grow(int capacity) {
+        mDates = Arrays.copyOf(mDates, capacity);
+        mWeatherIds = Arrays.copyOf(mWeatherIds, capacity);
+        mShortDescs = Arrays.copyOf(mShortDescs, capacity);
+        mMinTemps = Arrays.copyOf(mMinTemps, capacity);
+        mMaxTemps = Arrays.copyOf(mMaxTemps, capacity);
+        mHumidities = Arrays.copyOf(mHumidities, capacity);
+        mPressures = Arrays.copyOf(mPressures, capacity);
+        mWindSpeeds = Arrays.copyOf(mWindSpeeds, capacity);
+        mDegrees = Arrays.copyOf(mDegrees, capacity);
+    }
+
+    public long getDate(int i) {
+        return mDates[i];
+    }
+
+    public int getWeatherId(int i) {
+        return mWeatherIds[i];
+    }
+
+    public String getShortDesc(int i) {
+        return mShortDescs[i];
+    }
+
+    public double getMinTemp(int i) {
+        return mMinTemps[i];
+    }
+
+    public double getMaxTemp(int i) {
+        return mMaxTemps[i];
+    }
+
+    public double getHumidity(int i) {
+        return mHumidities[i];
+    }
+
+    public double getPressure(int i) {
+        return mPressures[i];
+    }
+
+    public double getWindSpeed(int i) {
+        return mWindSpeeds[i];
+    }
+
+    public double getDegrees(int i) {
+        return mDegrees[i];
+    }
+
+    /**
+     * @return the extras for {@link WeatherEntry#METHOD_WRITE_FORECAST}.
+     */
+    public Bundle toBundle() {
+        if (mDates.length != mSize) {
+            grow(mSize);
+        }
+        Bundle extras = new Bundle();
+        extras.putLong(WeatherEntry.COLUMN_LOC_KEY, mLocationId);
+        extras.putLongArray(WeatherEntry.COLUMN_DATE, mDates);
+        extras.putIntArray(WeatherEntry.COLUMN_WEATHER_ID, mWeatherIds);
+        extras.putStringArray(WeatherEntry.COLUMN_SHORT_DESC, mShortDescs);
+        extras.putDoubleArray(WeatherEntry.COLUMN_MIN_TEMP, mMinTemps);
+        extras.putDoubleArray(WeatherEntry.COLUMN_MAX_TEMP, mMaxTemps);
+        extras.putDoubleArray(WeatherEntry.COLUMN_HUMIDITY, mHumidities);
+        extras.putDoubleArray(WeatherEntry.COLUMN_PRESSURE, mPressures);
+        extras.putDoubleArray(WeatherEntry.COLUMN_WIND_SPEED, mWindSpeeds);
+        extras.putDoubleArray(WeatherEntry.COLUMN_DEGREES, mDegrees);
+        return extras;
+    }
+
+    /**
+     * Reads back the extras built by {@link #toBundle()}, sharing their arrays.
+     */
+    static ForecastBatch fromBundle(Bundle extras) {
+        ForecastBatch batch = new ForecastBatch(0);
+        batch.mLocationId = extras.getLong(WeatherEntry.COLUMN_LOC_KEY, -1);
+        batch.mDates = extras.getLongArray(WeatherEntry.COLUMN_DATE);
+        batch.mWeatherIds = extras.getIntArray(WeatherEntry.COLUMN_WEATHER_ID);
+        batch.mShortDescs = extras.getStringArray(WeatherEntry.COLUMN_SHORT_DESC);
+        batch.mMinTemps = extras.getDoubleArray(WeatherEntry.COLUMN_MIN_TEMP);
+        batch.mMaxTemps = extras.getDoubleArray(WeatherEntry.COLUMN_MAX_TEMP);
+        batch.mHumidities = extras.getDoubleArray(WeatherEntry.COLUMN_HUMIDITY);
+        batch.mPressures = extras.getDoubleArray(WeatherEntry.COLUMN_PRESSURE);
+        batch.mWindSpeeds = extras.getDoubleArray(WeatherEntry.COLUMN_WIND_SPEED);
+        batch.mDegrees = extras.getDoubleArray(WeatherEntry.COLUMN_DEGREES);
+        if (batch.mDates == null || batch.mWeatherIds == null || batch.mShortDescs == null
+                || batch.mMinTemps == null || batch.mMaxTemps == null
+                || batch.mHumidities == null || batch.mPressures == null
+                || batch.mWindSpeeds == null || batch.mDegrees == null) {
+            throw new IllegalArgumentException("Missing forecast column");
+        }
+        int size = batch.mDates.length;
+        if (batch.mWeatherIds.length != size || batch.mShortDescs.length != size
+                || batch.mMinTemps.length != size || batch.mMaxTemps.length != size
+                || batch.mHumidities.length != size || batch.mPressures.length != size
+                || batch.mWindSpeeds.length != size || batch.mDegrees.length != size) {
+            throw new IllegalArgumentException("Forecast columns of different lengths");
+        }
+        batch.mSize = size;
+        return batch;
+    }
+
+    /**
+     * @return the forecast as rows, for the bulkInsert path on platforms without
+     * ContentProvider.call.
+     */
+    public ContentValues[] toContentValues() {
+        ContentValues[] rows = new ContentValues[mSize];
+        for (int i = 0; i < mSize; i++) {
+            ContentValues values = new ContentValues();
+            values.put(WeatherEntry.COLUMN_LOC_KEY, mLocationId);
+            values.put(WeatherEntry.COLUMN_DATE, mDates[i]);
+            values.put(WeatherEntry.COLUMN_WEATHER_ID, mWeatherIds[i]);
+            values.put(WeatherEntry.COLUMN_SHORT_DESC, mShortDescs[i]);
+            values.put(WeatherEntry.COLUMN_MIN_TEMP, mMinTemps[i]);
+            values.put(WeatherEntry.COLUMN_MAX_TEMP, mMaxTemps[i]);
+            values.put(WeatherEntry.COLUMN_HUMIDITY, mHumidities[i]);
+            values.put(WeatherEntry.COLUMN_PRESSURE, mPressures[i]);
+            values.put(WeatherEntry.COLUMN_WIND_SPEED, mWindSpeeds[i]);
+            values.put(WeatherEntry.COLUMN_DEGREES, mDegrees[i]);
+            rows[i] = values;
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,277 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.pm.PackageManager;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.text.format.DateFormat;
+
+import com.example.android.sunshine.app.data.WeatherContract.DebugEntry;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * How long WeatherProvider's entry points take, kept per operation and uri match ("query
+ * WEATHER_WITH_LOCATION", "bulkInsert WEATHER", ...), along with the rows they touched, the
+ * uids that called them and the last few operations slower than {@link #SLOW_MILLIS}.
+ * <p/>
+ * Latencies go into buckets of powers of two microseconds, so recording one is a few array
+ * writes and the percentiles read back are accurate to within a factor of two.
+ */
+final class ProviderStats {
+
+    // Operations taking longer than this are logged with their uri and caller
+    static final long SLOW_MILLIS = 100;
+    private static final int SLOW_CAPACITY = 32;
+
+    // Bucket i holds latencies below 2^i microseconds, the last one everything from 2^22us,
+    // about four seconds, up
+    private static final int BUCKETS = 23;
+
+    static final class Histogram {
+        final long[] buckets = new long[BUCKETS];
+        long count;
+        long rows;
+        long totalMicros;
+        long maxMicros;
+
+        void add(long micros, int rows) {
+            int bucket = 64 - Long.numberOfLeadingZeros(micros);
+            buckets[Math.min(bucket, BUCKETS - 1)]++;
+            count++;
+            this.rows += Math.max(rows, 0);
+            totalMicros += micros;
+            maxMicros = Math.max(maxMicros, micros);
+        }
+
+        /**
+         * @return the upper bound of the bucket holding the given fraction of operations,
+         * capped at the slowest one seen.
+         */
+        long getPercentileMicros(double fraction) {
+            long rank = (long) Math.ceil(fraction * count);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS - 1; i++) {
+                seen += buckets[i];
+                if (seen >= rank) {
+                    return Math.min(1L << i, maxMicros);
+                }
+            }
+            return maxMicros;
+        }
+    }
+
+    static final class SlowOperation {
+        final long timeMillis;
+        final String operation;
+        final String uri;
+        final int uid;
+        final long micros;
+        final int rows;
+
+        SlowOperation(long timeMillis, String operation, String uri, int uid, long micros,
+                      int rows) {
+            this.timeMillis = timeMillis;
+            this.operation = operation;
+            this.uri = uri;
+            this.uid = uid;
+            this.micros = micros;
+            this.rows = rows;
+        }
+    }
+
+    // Sorted, so operations on the same uri match sit next to each other in the dump
+    private final Map<String, Histogram> mHistograms = new TreeMap<String, Histogram>();
+    // uid -> number of calls
+    private final Map<Integer, long[]> mCallers = new TreeMap<Integer, long[]>();
+
+    private final SlowOperation[] mSlow = new SlowOperation[SLOW_CAPACITY];
+    // index the next slow operation is written to
+    private int mNextSlow;
+    private int mSlowSize;
+
+    /**
+     * Records one call of an entry point.
+     *
+     * @param operation the entry point and uri match, from {@link #getOperation}.
+     * @param rows the rows returned or written, or -1 if not known.
+     */
+    synchronized void record(String operation, Uri uri, int uid, long elapsedNanos,
+                             int rows) {
+        long micros = Math.max(elapsedNanos / 1000, 0);
+        Histogram histogram = mHistograms.get(operation);
+        if (histogram == null) {
+            histogram = new Histogram();
+            mHistograms.put(operation, histogram);
+        }
+        histogram.add(micros, rows);
+
+        long[] calls = mCallers.get(uid);
+        if (calls == null) {
+            calls = new long[1];
+            mCallers.put(uid, calls);
+        }
+        calls[0]++;
+
+        if (micros >= SLOW_MILLIS * 1000) {
+            mSlow[mNextSlow] = new SlowOperation(System.currentTimeMillis(), operation,
+                    String.valueOf(uri), uid, micros, rows);
+            mNextSlow = (mNextSlow + 1) % mSlow.length;
+            if (mSlowSize < mSlow.length) {
+                mSlowSize++;
+            }
+        }
+    }
+
+    static String getOperation(String entryPoint, int match) {
+        return entryPoint + " " + getMatchName(match);
+    }
+
+    static String getMatchName(int match) {
+        switch (match) {
+            case WeatherProvider.WEATHER:
+                return "WEATHER";
+            case WeatherProvider.WEATHER_WITH_LOCATION:
+                return "WEATHER_WITH_LOCATION";
+            case WeatherProvider.WEATHER_WITH_LOCATION_AND_DATE:
+                return "WEATHER_WITH_LOCATION_AND_DATE";
+            case WeatherProvider.LOCATION:
+                return "LOCATION";
+            case WeatherProvider.VALIDATOR:
+                return "VALIDATOR";
+            case WeatherProvider.CURRENT:
+                return "CURRENT";
+            case WeatherProvider.CURRENT_WITH_LOCATION:
+                return "CURRENT_WITH_LOCATION";
+            case WeatherProvider.HISTORY:
+                return "HISTORY";
+            case WeatherProvider.HISTORY_WITH_LOCATION:
+                return "HISTORY_WITH_LOCATION";
+            case WeatherProvider.DEBUG_STATS:
+                return "DEBUG_STATS";
+            case WeatherProvider.DEBUG_SLOW:
+                return "DEBUG_SLOW";
+            default:
+                return "NO_MATCH";
+        }
+    }
+
+    /**
+     * @return the recorded histogram of the operation, or null if it hasn't run.
+     */
+    synchronized Histogram getHistogram(String operation) {
+        return mHistograms.get(operation);
+    }
+
+    /**
+     * @return the logged slow operations, oldest first.
+     */
+    synchronized List<SlowOperation> getSlowOperations() {
+        List<SlowOperation> operations = new ArrayList<SlowOperation>(mSlowSize);
+        int first = (mNextSlow - mSlowSize + mSlow.length) % mSlow.length;
+        for (int i = 0; i < mSlowSize; i++) {
+            operations.add(mSlow[(first + i) % mSlow.length]);
+        }
+        return operations;
+    }
+
+    synchronized void clear() {
+        mHistograms.clear();
+        mCallers.clear();
+        for (int i = 0; i < mSlow.length; i++) {
+            mSlow[i] = null;
+        }
+        mNextSlow = 0;
+        mSlowSize = 0;
+    }
+
+    /**
+     * @return a row per operation, with the columns of {@link DebugEntry#STATS_URI}.
+     */
+    synchronized Cursor getStatsCursor() {
+        MatrixCursor cursor = new MatrixCursor(DebugEntry.STATS_COLUMNS, mHistograms.size());
+        for (Map.Entry<String, Histogram> entry : mHistograms.entrySet()) {
+            Histogram histogram = entry.getValue();
+            cursor.addRow(new Object[]{entry.getKey(), histogram.count, histogram.rows,
+                    histogram.totalMicros / histogram.count,
+                    histogram.getPercentileMicros(0.5), histogram.getPercentileMicros(0.99),
+                    histogram.maxMicros});
+        }
+        return cursor;
+    }
+
+    /**
+     * @return a row per slow operation, oldest first, with the columns of
+     * {@link DebugEntry#SLOW_URI}.
+     */
+    Cursor getSlowCursor() {
+        List<SlowOperation> operations = getSlowOperations();
+        MatrixCursor cursor = new MatrixCursor(DebugEntry.SLOW_COLUMNS, operations.size());
+        for (SlowOperation operation : operations) {
+            cursor.addRow(new Object[]{operation.timeMillis, operation.operation, operation.uri,
+                    operation.uid, operation.micros, operation.rows});
+        }
+        return cursor;
+    }
+
+    /**
+     * Prints the latencies of each operation, the calls per caller and the slow operations,
+     * naming callers by package where the package manager knows them.
+     */
+    synchronized void dump(PrintWriter writer, PackageManager packageManager) {
+        writer.println("Provider operations (latency in ms):");
+        writer.println(String.format(Locale.US, "  %-44s %7s %8s %8s %8s %8s %8s",
+                "operation", "count", "rows", "mean", "p50", "p99", "max"));
+        for (Map.Entry<String, Histogram> entry : mHistograms.entrySet()) {
+            Histogram histogram = entry.getValue();
+            writer.println(String.format(Locale.US,
+                    "  %-44s %7d %8d %8.2f %8.2f %8.2f %8.2f",
+                    entry.getKey(), histogram.count, histogram.rows,
+                    histogram.totalMicros / 1e3 / histogram.count,
+                    histogram.getPercentileMicros(0.5) / 1e3,
+                    histogram.getPercentileMicros(0.99) / 1e3, histogram.maxMicros / 1e3));
+        }
+
+        writer.println("Callers:");
+        for (Map.Entry<Integer, long[]> entry : mCallers.entrySet()) {
+            int uid = entry.getKey();
+            writer.println(String.format(Locale.US, "  %6d %-40s %7d calls",
+                    uid, getCallerName(packageManager, uid), entry.getValue()[0]));
+        }
+
+        List<SlowOperation> operations = getSlowOperations();
+        writer.println("Last " + operations.size() + " operations over " + SLOW_MILLIS +
+                "ms (oldest first):");
+        for (SlowOperation operation : operations) {
+            writer.println(String.format(Locale.US, "  %s: %-44s %8.1fms %5d rows  uid %d  %s",
+                    DateFormat.format("yyyy-MM-dd kk:mm:ss", operation.timeMillis),
+                    operation.operation, operation.micros / 1e3, operation.rows, operation.uid,
+                    operation.uri));
+        }
+    }
+
+    private static String getCallerName(PackageManager packageManager, int uid) {
+        String name = packageManager != null ? packageManager.getNameForUid(uid) : null;
+        return name != null ? name : "?";
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.annotation.TargetApi;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.support.v4.util.LruCache;
+
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The results of WeatherProvider's per-location weather queries, held in memory so the
+ * widgets, watch face, Muzei, the notification and the detail screen asking for the same
+ * day over and over don't each go back to SQLite.  Every hit returns a fresh cursor over the
+ * stored values.
+ * <p/>
+ * Entries are keyed by uri, projection and sort order and remember their location setting,
+ * so a write to one location only drops that location's entries.  The cache is bounded by
+ * an estimate of the bytes the stored values take.
+ */
+final class QueryCache {
+
+    // Rough sizes of the objects holding the values, for sizing the cache
+    private static final int ROW_OVERHEAD_BYTES = 16;
+    private static final int VALUE_OVERHEAD_BYTES = 16;
+    private static final int STRING_OVERHEAD_BYTES = 40;
+
+    private static final class Entry {
+        final String locationSetting;
+        final String[] columns;
+        final Object[][] rows;
+        final int bytes;
+
+        Entry(String locationSetting, String[] columns, Object[][] rows, int bytes) {
+            this.locationSetting = locationSetting;
+            this.columns = columns;
+            this.rows = rows;
+            this.bytes = bytes;
+        }
+
+        Cursor toCursor() {
+            MatrixCursor cursor = new MatrixCursor(columns, rows.length);
+            for (Object[] row : rows) {
+                // addRow copies the values, so the entry can't be changed through the cursor
+                cursor.addRow(row);
+            }
+            return cursor;
+        }
+    }
+
+    private final LruCache<String, Entry> mEntries;
+    // Bumped by every invalidation, so a query that raced a write isn't cached
+    private long mGeneration;
+    private final AtomicLong mHits = new AtomicLong();
+    private final AtomicLong mMisses = new AtomicLong();
+    private final AtomicLong mInvalidations = new AtomicLong();
+
+    QueryCache(int maxBytes) {
+        mEntries = new LruCache<String, Entry>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, Entry entry) {
+                return entry.bytes;
+            }
+        };
+    }
+
+    static String buildKey(Uri uri, String[] projection, String sortOrder) {
+        return uri + "|" + Arrays.toString(projection) + "|" + sortOrder;
+    }
+
+    /**
+     * @return a cursor over the cached results for the key, or null if there are none.
+     */
+    Cursor get(String key) {
+        Entry entry = mEntries.get(key);
+        if (entry == null) {
+            mMisses.incrementAndGet();
+            return null;
+        }
+        mHits.incrementAndGet();
+        return entry.toCursor();
+    }
+
+    /**
+     * @return the generation to hand to {@link #put} for a query run from now on.
+     */
+    synchronized long getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Copies the cursor's rows and closes it.  The copy is only kept if nothing was
+     * invalidated since the generation was read, before the query ran.
+     *
+     * @return a cursor over the copied rows.
+     */
+    @TargetApi(11)
+    Cursor put(String key, String locationSetting, long generation, Cursor cursor) {
+        Entry entry;
+        try {
+            String[] columns = cursor.getColumnNames();
+            Object[][] rows = new Object[cursor.getCount()][];
+            int bytes = 0;
+            for (int i = 0; cursor.moveToNext(); i++) {
+                Object[] row = new Object[columns.length];
+                bytes += ROW_OVERHEAD_BYTES + 4 * columns.length;
+                for (int column = 0; column < columns.length; column++) {
+                    switch (cursor.getType(column)) {
+                        case Cursor.FIELD_TYPE_INTEGER:
+                            row[column] = cursor.getLong(column);
+                            bytes += VALUE_OVERHEAD_BYTES;
+                            break;
+                        case Cursor.FIELD_TYPE_FLOAT:
+                            row[column] = cursor.getDouble(column);
+                            bytes += VALUE_OVERHEAD_BYTES;
+                            break;
+                        case Cursor.FIELD_TYPE_STRING:
+                            String value = cursor.getString(column);
+                            row[column] = value;
+                            bytes += STRING_OVERHEAD_BYTES + 2 * value.length();
+                            break;
+                        case Cursor.FIELD_TYPE_BLOB:
+                            byte[] blob = cursor.getBlob(column);
+                            row[column] = blob;
+                            bytes += VALUE_OVERHEAD_BYTES + blob.length;
+                            break;
+                        default:
+                            break;
+                    }
+                }
+                rows[i] = row;
+            }
+            entry = new Entry(locationSetting, columns, rows, Math.max(1, bytes));
+        } finally {
+            cursor.close();
+        }
+
+        synchronized (this) {
+            if (generation == mGeneration) {
+                mEntries.put(key, entry);
+            }
+        }
+        return entry.toCursor();
+    }
+
+    /**
+     * Drops the entries for one location setting.
+     */
+    synchronized void invalidate(String locationSetting) {
+        mGeneration++;
+        mInvalidations.incrementAndGet();
+        for (Map.Entry<String, Entry> entry : mEntries.snapshot().entrySet()) {
+            if (locationSetting.equals(entry.getValue().locationSetting)) {
+                mEntries.remove(entry.getKey());
+            }
+        }
+    }
+
+    synchronized void invalidateAll() {
+        mGeneration++;
+        mInvalidations.incrementAndGet();
+        mEntries.evictAll();
+    }
+
+    long getHits() {
+        return mHits.get();
+    }
+
+    long getMisses() {
+        return mMisses.get();
+    }
+
+    void dump(PrintWriter writer) {
+        long hits = mHits.get();
+        long lookups = Math.max(1, hits + mMisses.get());
+        writer.println(String.format(Locale.US,
+                "Query cache: %d hits, %d misses, %.1f%% hit rate, %d invalidations, " +
+                        "%d entries, %d of %d bytes",
+                hits, mMisses.get(), 100.0 * hits / lookups, mInvalidations.get(),
+                mEntries.snapshot().size(), mEntries.size(), mEntries.maxSize()));
+    }
+}
@@ -19,7 +19,6 @@ import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.net.Uri;
 import android.provider.BaseColumns;
-import android.text.format.Time;
 
 /**
  * Defines table and column names for the weather database.
@@ -43,15 +42,16 @@ public class WeatherContract {
     // At least, let's hope not.  Don't be that dev, reader.  Don't be that dev.
     public static final String PATH_WEATHER = "weather";
     public static final String PATH_LOCATION = "location";
+    public static final String PATH_VALIDATOR = "validator";
+    public static final String PATH_CURRENT = "current";
+    public static final String PATH_DEBUG = "debug";
+    public static final String PATH_HISTORY = "history";
 
     // To make it easy to query for the exact date, we normalize all dates that go into
     // the database to the start of the the Julian day at UTC.
     public static long normalizeDate(long startDate) {
         // normalize the start date to the beginning of the (UTC) day
-        Time time = new Time();
-        time.set(startDate);
-        int julianDay = Time.getJulianDay(startDate, time.gmtoff);
-        return time.setJulianDay(julianDay);
+        return DayBoundaries.normalizeDate(startDate);
     }
 
     /* Inner class that defines the table contents of the location table */
@@ -86,6 +86,181 @@ public class WeatherContract {
         }
     }
 
+    /* Inner class that defines the table contents of the validator table */
+    public static final class ValidatorEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_VALIDATOR).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_VALIDATOR;
+
+        public static final String TABLE_NAME = "validator";
+
+        // The location setting the forecast was requested for.  There is at most one row
+        // per location setting.
+        public static final String COLUMN_LOCATION_SETTING = "location_setting";
+
+        // HTTP cache validators sent back by openweathermap with the last forecast we stored,
+        // replayed as If-None-Match and If-Modified-Since on the next request.  Either may be
+        // null if the server didn't send it.
+        public static final String COLUMN_ETAG = "etag";
+        public static final String COLUMN_LAST_MODIFIED = "last_modified";
+    }
+
+    /*
+        Inner class that defines the table contents of the current conditions table: the
+        first day of each location's stored forecast, kept up to date by triggers on the weather
+        table so today's weather is a primary key lookup.  Read only.
+     */
+    public static final class CurrentEntry {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_CURRENT).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_CURRENT;
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_CURRENT;
+
+        public static final String TABLE_NAME = "current";
+
+        // The primary key.  There is one row per location holding weather.
+        public static final String COLUMN_LOCATION_SETTING = LocationEntry.COLUMN_LOCATION_SETTING;
+
+        // The rest are copied from the location's first day in the weather table, under the
+        // same names, so a projection written for a weather query works here too.
+        public static final String COLUMN_LOC_KEY = WeatherEntry.COLUMN_LOC_KEY;
+        public static final String COLUMN_DATE = WeatherEntry.COLUMN_DATE;
+        public static final String COLUMN_WEATHER_ID = WeatherEntry.COLUMN_WEATHER_ID;
+        public static final String COLUMN_SHORT_DESC = WeatherEntry.COLUMN_SHORT_DESC;
+        public static final String COLUMN_MIN_TEMP = WeatherEntry.COLUMN_MIN_TEMP;
+        public static final String COLUMN_MAX_TEMP = WeatherEntry.COLUMN_MAX_TEMP;
+
+        /**
+         * @return the uri of the location's weather for today, or its next stored day if today
+         * isn't stored.
+         */
+        public static Uri buildCurrentUri(String locationSetting) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting).build();
+        }
+
+        public static String getLocationSettingFromUri(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
+    }
+
+    /*
+        Inner class that defines the table contents of the history table: the past days pruned
+        from the weather table, packed by ForecastArchive into one row per location and month.
+        Querying buildHistoryUri reads a range of the days back out, as rows with the weather
+        table's column names.  Read only.
+     */
+    public static final class HistoryEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_HISTORY).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_HISTORY;
+
+        public static final String TABLE_NAME = "history";
+
+        public static final String COLUMN_LOC_KEY = WeatherEntry.COLUMN_LOC_KEY;
+        // The month the row holds, as year * 100 + month, e.g. 201512 for December 2015
+        public static final String COLUMN_MONTH = "month";
+        // The first and last dates the row holds, so a range of dates can be found without
+        // unpacking the rows around it
+        public static final String COLUMN_FIRST_DATE = "first_date";
+        public static final String COLUMN_LAST_DATE = "last_date";
+        // The number of days the row holds
+        public static final String COLUMN_DAYS = "days";
+        // The days, as packed by ForecastArchive
+        public static final String COLUMN_DATA = "data";
+
+        // The columns of the days read back by buildHistoryUri, named as in the weather table
+        public static final String COLUMN_DATE = WeatherEntry.COLUMN_DATE;
+        public static final String COLUMN_WEATHER_ID = WeatherEntry.COLUMN_WEATHER_ID;
+        public static final String COLUMN_SHORT_DESC = WeatherEntry.COLUMN_SHORT_DESC;
+        public static final String COLUMN_MIN_TEMP = WeatherEntry.COLUMN_MIN_TEMP;
+        public static final String COLUMN_MAX_TEMP = WeatherEntry.COLUMN_MAX_TEMP;
+        public static final String COLUMN_HUMIDITY = WeatherEntry.COLUMN_HUMIDITY;
+        public static final String COLUMN_PRESSURE = WeatherEntry.COLUMN_PRESSURE;
+        public static final String COLUMN_WIND_SPEED = WeatherEntry.COLUMN_WIND_SPEED;
+        public static final String COLUMN_DEGREES = WeatherEntry.COLUMN_DEGREES;
+
+        public static final String[] DAY_COLUMNS = {COLUMN_DATE, COLUMN_WEATHER_ID,
+                COLUMN_SHORT_DESC, COLUMN_MIN_TEMP, COLUMN_MAX_TEMP, COLUMN_HUMIDITY,
+                COLUMN_PRESSURE, COLUMN_WIND_SPEED, COLUMN_DEGREES};
+
+        private static final String PARAM_START = "start";
+        private static final String PARAM_END = "end";
+
+        /**
+         * @return the uri of the location's archived days from startDate to endDate, both
+         * included, in ascending order of date.  Temperatures, pressure and wind speed come
+         * back rounded to a tenth, humidity and degrees to a whole number.
+         */
+        public static Uri buildHistoryUri(String locationSetting, long startDate, long endDate) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendQueryParameter(PARAM_START, Long.toString(startDate))
+                    .appendQueryParameter(PARAM_END, Long.toString(endDate)).build();
+        }
+
+        public static String getLocationSettingFromUri(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
+
+        public static long getStartDateFromUri(Uri uri) {
+            String start = uri.getQueryParameter(PARAM_START);
+            return start != null && start.length() > 0 ? Long.parseLong(start) : 0;
+        }
+
+        public static long getEndDateFromUri(Uri uri) {
+            String end = uri.getQueryParameter(PARAM_END);
+            return end != null && end.length() > 0 ? Long.parseLong(end) : Long.MAX_VALUE;
+        }
+    }
+
+    /*
+        Inner class that defines the provider's own statistics, as kept for its dump.  The
+        uris only match in debug builds.
+     */
+    public static final class DebugEntry {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_DEBUG).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_DEBUG;
+
+        // One row per entry point and uri match, with latencies in microseconds
+        public static final Uri STATS_URI = CONTENT_URI.buildUpon().appendPath("stats").build();
+
+        public static final String COLUMN_OPERATION = "operation";
+        public static final String COLUMN_COUNT = "count";
+        public static final String COLUMN_ROWS = "rows";
+        public static final String COLUMN_MEAN_MICROS = "mean_micros";
+        public static final String COLUMN_P50_MICROS = "p50_micros";
+        public static final String COLUMN_P99_MICROS = "p99_micros";
+        public static final String COLUMN_MAX_MICROS = "max_micros";
+
+        public static final String[] STATS_COLUMNS = {COLUMN_OPERATION, COLUMN_COUNT,
+                COLUMN_ROWS, COLUMN_MEAN_MICROS, COLUMN_P50_MICROS, COLUMN_P99_MICROS,
+                COLUMN_MAX_MICROS};
+
+        // The last operations over the slow threshold, oldest first
+        public static final Uri SLOW_URI = CONTENT_URI.buildUpon().appendPath("slow").build();
+
+        public static final String COLUMN_TIME = "time";
+        public static final String COLUMN_URI = "uri";
+        public static final String COLUMN_UID = "uid";
+        public static final String COLUMN_MICROS = "micros";
+
+        public static final String[] SLOW_COLUMNS = {COLUMN_TIME, COLUMN_OPERATION, COLUMN_URI,
+                COLUMN_UID, COLUMN_MICROS, COLUMN_ROWS};
+    }
+
     /* Inner class that defines the table contents of the weather table */
     public static final class WeatherEntry implements BaseColumns {
 
@@ -126,10 +301,60 @@ public class WeatherContract {
         // Degrees are meteorological degrees (e.g, 0 is north, 180 is south).  Stored as floats.
         public static final String COLUMN_DEGREES = "degrees";
 
+        // Query parameter that turns a bulkInsert on CONTENT_URI into a diffing upsert: rows
+        // matching a stored (date, location_id) are updated in place only if a value differs,
+        // keeping their _id, and observers are only notified if something was written.
+        public static final String PARAM_UPSERT = "upsert";
+
+        // Query parameter that makes a delete on CONTENT_URI move the rows it matches into the
+        // history table before deleting them.
+        public static final String PARAM_ARCHIVE = "archive";
+
+        // ContentProvider.call method doing the same upsert, for callers that want to know
+        // what happened.  Takes the rows in KEY_VALUES and returns the counts of inserted,
+        // updated and unchanged rows.
+        public static final String METHOD_UPSERT = "upsertWeather";
+        public static final String KEY_VALUES = "values";
+        public static final String KEY_INSERTED = "inserted";
+        public static final String KEY_UPDATED = "updated";
+        public static final String KEY_UNCHANGED = "unchanged";
+
+        // ContentProvider.call method doing the same upsert for one location's forecast handed
+        // over column by column, as built by ForecastBatch.toBundle(), and written through
+        // compiled statements.  Dates must already be normalized.  Returns the same counts.
+        public static final String METHOD_WRITE_FORECAST = "writeForecast";
+
+        // ContentProvider.call method replacing one location's forecast in a single
+        // transaction.  Takes the columns of METHOD_WRITE_FORECAST, except for the location
+        // key, along with the location's LocationEntry columns, which add it if it is new, and
+        // optionally KEY_PRUNE_BEFORE, the last day of the location's weather to move into the
+        // history table.
+        // Returns the counts of METHOD_WRITE_FORECAST, KEY_DELETED and the location's id
+        // under COLUMN_LOC_KEY.
+        public static final String METHOD_REPLACE_FORECAST = "replaceForecast";
+        public static final String KEY_PRUNE_BEFORE = "pruneBefore";
+        public static final String KEY_DELETED = "deleted";
+
         public static Uri buildWeatherUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
 
+        public static Uri buildWeatherUpsertUri() {
+            return CONTENT_URI.buildUpon().appendQueryParameter(PARAM_UPSERT, "true").build();
+        }
+
+        public static boolean isUpsertUri(Uri uri) {
+            return Boolean.parseBoolean(uri.getQueryParameter(PARAM_UPSERT));
+        }
+
+        public static Uri buildWeatherArchiveUri() {
+            return CONTENT_URI.buildUpon().appendQueryParameter(PARAM_ARCHIVE, "true").build();
+        }
+
+        public static boolean isArchiveUri(Uri uri) {
+            return Boolean.parseBoolean(uri.getQueryParameter(PARAM_ARCHIVE));
+        }
+
         /*
             Student: This is the buildWeatherLocation function you filled in.
          */
@@ -15,25 +15,110 @@
  */
 package com.example.android.sunshine.app.data;
 
+import android.annotation.TargetApi;
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
+import android.util.Log;
 
+import com.example.android.sunshine.app.data.WeatherContract.CurrentEntry;
+import com.example.android.sunshine.app.data.WeatherContract.HistoryEntry;
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.ValidatorEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 
 /**
  * Manages a local database for weather data.
+ * <p/>
+ * The database runs in write-ahead logging mode where the platform supports it (API 11 and
+ * up), so the loaders, widgets and Muzei source reading forecasts aren't blocked behind the
+ * sync's write transactions.  Readers each get a connection from the platform's pool while the
+ * sync holds the primary one.
  */
 public class WeatherDbHelper extends SQLiteOpenHelper {
 
-    // If you change the database schema, you must increment the database version.
-    private static final int DATABASE_VERSION = 2;
+    private static final String LOG_TAG = WeatherDbHelper.class.getSimpleName();
+
+    // If you change the database schema, you must increment the database version, and add
+    // the step that gets there to WeatherDbMigrations.
+    static final int DATABASE_VERSION = 6;
 
     static final String DATABASE_NAME = "weather.db";
 
+    // Serves every forecast query, which picks a location and then a date or a range of dates
+    // in it.  The index behind the UNIQUE (date, location_id) constraint leads with the date,
+    // so it can only help the cleanup of old days, which isn't per location.
+    static final String INDEX_WEATHER_LOCATION_DATE = "weather_location_date";
+
+    // Whether onOpen turned write-ahead logging on, before Jelly Bean, which can't be asked
+    private static volatile boolean sWriteAheadLoggingBeforeJellyBean;
+
     public WeatherDbHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            enableWriteAheadLogging();
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private void enableWriteAheadLogging() {
+        // Also sizes the pool of reader connections, as configured for the device
+        setWriteAheadLoggingEnabled(true);
+    }
+
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
+                && Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            // Before Jelly Bean the helper can't do this itself
+            enableWriteAheadLogging(db);
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static void enableWriteAheadLogging(SQLiteDatabase db) {
+        if (!db.isReadOnly() && db.enableWriteAheadLogging()) {
+            sWriteAheadLoggingBeforeJellyBean = true;
+        }
+    }
+
+    private static boolean isWriteAheadLoggingEnabled(SQLiteDatabase db) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            return isWriteAheadLoggingEnabledJellyBean(db);
+        }
+        return sWriteAheadLoggingBeforeJellyBean;
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private static boolean isWriteAheadLoggingEnabledJellyBean(SQLiteDatabase db) {
+        return db.isWriteAheadLoggingEnabled();
+    }
+
+    /**
+     * Copies what the write-ahead log holds back into the database, without waiting for
+     * readers, so readers don't have to look through a long log and the log file stays small.
+     * SQLite also checkpoints on its own once the log passes its auto-checkpoint size; this
+     * is run after each batch of forecast writes so that usually happens on the sync thread
+     * rather than on whichever later commit trips the limit.  It does nothing outside
+     * write-ahead logging mode, or inside a transaction, whose writes aren't in the log yet.
+     */
+    static void checkpoint(SQLiteDatabase db) {
+        if (db.inTransaction() || !isWriteAheadLoggingEnabled(db)) {
+            return;
+        }
+        Cursor cursor = db.rawQuery("PRAGMA wal_checkpoint(PASSIVE)", null);
+        try {
+            // busy, pages in the log, pages checkpointed
+            if (cursor.moveToFirst() && Log.isLoggable(LOG_TAG, Log.DEBUG)) {
+                Log.d(LOG_TAG, "Checkpointed " + cursor.getInt(2) + " of " +
+                        cursor.getInt(1) + " log pages");
+            }
+        } finally {
+            cursor.close();
+        }
     }
 
     @Override
@@ -79,20 +164,144 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
                 " UNIQUE (" + WeatherEntry.COLUMN_DATE + ", " +
                 WeatherEntry.COLUMN_LOC_KEY + ") ON CONFLICT REPLACE);";
 
+        // Cache validators for the last forecast stored for each location setting.  Keyed by
+        // the setting rather than the location row, since the row only exists once the first
+        // forecast for it has been parsed.
+        final String SQL_CREATE_VALIDATOR_TABLE = "CREATE TABLE " + ValidatorEntry.TABLE_NAME + " (" +
+                ValidatorEntry._ID + " INTEGER PRIMARY KEY," +
+                ValidatorEntry.COLUMN_LOCATION_SETTING + " TEXT UNIQUE NOT NULL ON CONFLICT REPLACE, " +
+                ValidatorEntry.COLUMN_ETAG + " TEXT, " +
+                ValidatorEntry.COLUMN_LAST_MODIFIED + " TEXT " +
+                " );";
+
         sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_TABLE);
         sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_VALIDATOR_TABLE);
+        createWeatherLocationDateIndex(sqLiteDatabase);
+        createCurrentTable(sqLiteDatabase);
+        createHistoryTable(sqLiteDatabase);
+    }
+
+    /**
+     * Creates the history table, which the provider fills as past days are pruned from the
+     * weather table, and the trigger that deletes a location's history along with it.
+     */
+    private static void createHistoryTable(SQLiteDatabase sqLiteDatabase) {
+        sqLiteDatabase.execSQL("CREATE TABLE " + HistoryEntry.TABLE_NAME + " (" +
+                HistoryEntry._ID + " INTEGER PRIMARY KEY, " +
+                HistoryEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+                HistoryEntry.COLUMN_MONTH + " INTEGER NOT NULL, " +
+                HistoryEntry.COLUMN_FIRST_DATE + " INTEGER NOT NULL, " +
+                HistoryEntry.COLUMN_LAST_DATE + " INTEGER NOT NULL, " +
+                HistoryEntry.COLUMN_DAYS + " INTEGER NOT NULL, " +
+                HistoryEntry.COLUMN_DATA + " BLOB NOT NULL, " +
+                // Also the index the range queries look a location up in
+                " UNIQUE (" + HistoryEntry.COLUMN_LOC_KEY + ", " + HistoryEntry.COLUMN_MONTH +
+                ") ON CONFLICT REPLACE);");
+
+        // Location ids are reused once the highest is deleted
+        sqLiteDatabase.execSQL("CREATE TRIGGER location_history_delete AFTER DELETE ON " +
+                LocationEntry.TABLE_NAME + " BEGIN DELETE FROM " + HistoryEntry.TABLE_NAME +
+                " WHERE " + HistoryEntry.COLUMN_LOC_KEY + " = OLD." + LocationEntry._ID +
+                "; END;");
+    }
+
+    /**
+     * Creates the current conditions table and the triggers that keep it holding the first
+     * stored day of each location.  Inserts of later days, the common case as a forecast is
+     * written in date order, don't touch it.
+     */
+    private static void createCurrentTable(SQLiteDatabase sqLiteDatabase) {
+        sqLiteDatabase.execSQL("CREATE TABLE " + CurrentEntry.TABLE_NAME + " (" +
+                CurrentEntry.COLUMN_LOCATION_SETTING + " TEXT PRIMARY KEY, " +
+                CurrentEntry.COLUMN_LOC_KEY + " INTEGER UNIQUE NOT NULL, " +
+                CurrentEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
+                CurrentEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL, " +
+                CurrentEntry.COLUMN_SHORT_DESC + " TEXT NOT NULL, " +
+                CurrentEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, " +
+                CurrentEntry.COLUMN_MAX_TEMP + " REAL NOT NULL);");
+
+        sqLiteDatabase.execSQL("CREATE TRIGGER weather_current_insert AFTER INSERT ON " +
+                WeatherEntry.TABLE_NAME + " WHEN " + isFirstDay("NEW") + " BEGIN " +
+                refreshCurrent("NEW." + WeatherEntry.COLUMN_LOC_KEY) + " END;");
+        sqLiteDatabase.execSQL("CREATE TRIGGER weather_current_update AFTER UPDATE ON " +
+                WeatherEntry.TABLE_NAME + " BEGIN " +
+                deleteCurrent("OLD." + WeatherEntry.COLUMN_LOC_KEY) +
+                refreshCurrent("OLD." + WeatherEntry.COLUMN_LOC_KEY) +
+                refreshCurrent("NEW." + WeatherEntry.COLUMN_LOC_KEY) + " END;");
+        sqLiteDatabase.execSQL("CREATE TRIGGER weather_current_delete AFTER DELETE ON " +
+                WeatherEntry.TABLE_NAME + " WHEN " + isFirstDay("OLD") + " BEGIN " +
+                deleteCurrent("OLD." + WeatherEntry.COLUMN_LOC_KEY) +
+                refreshCurrent("OLD." + WeatherEntry.COLUMN_LOC_KEY) + " END;");
+
+        // Weather can be stored before its location, and the setting is copied
+        sqLiteDatabase.execSQL("CREATE TRIGGER location_current_insert AFTER INSERT ON " +
+                LocationEntry.TABLE_NAME + " BEGIN " +
+                refreshCurrent("NEW." + LocationEntry._ID) + " END;");
+        sqLiteDatabase.execSQL("CREATE TRIGGER location_current_update AFTER UPDATE ON " +
+                LocationEntry.TABLE_NAME + " BEGIN " +
+                deleteCurrent("OLD." + LocationEntry._ID) +
+                refreshCurrent("NEW." + LocationEntry._ID) + " END;");
+        sqLiteDatabase.execSQL("CREATE TRIGGER location_current_delete AFTER DELETE ON " +
+                LocationEntry.TABLE_NAME + " BEGIN " +
+                deleteCurrent("OLD." + LocationEntry._ID) + " END;");
+    }
+
+    // True if no day of the row's location comes before it
+    private static String isFirstDay(String row) {
+        return "NOT EXISTS (SELECT 1 FROM " + WeatherEntry.TABLE_NAME + " WHERE " +
+                WeatherEntry.COLUMN_LOC_KEY + " = " + row + "." + WeatherEntry.COLUMN_LOC_KEY +
+                " AND " + WeatherEntry.COLUMN_DATE + " < " + row + "." + WeatherEntry.COLUMN_DATE +
+                ")";
+    }
+
+    private static String deleteCurrent(String locationId) {
+        return "DELETE FROM " + CurrentEntry.TABLE_NAME + " WHERE " +
+                CurrentEntry.COLUMN_LOC_KEY + " = " + locationId + "; ";
+    }
+
+    // Copies the location's first stored day, if it has one, over its current row
+    private static String refreshCurrent(String locationId) {
+        return "INSERT OR REPLACE INTO " + CurrentEntry.TABLE_NAME + " (" +
+                CurrentEntry.COLUMN_LOCATION_SETTING + ", " + CurrentEntry.COLUMN_LOC_KEY + ", " +
+                CurrentEntry.COLUMN_DATE + ", " + CurrentEntry.COLUMN_WEATHER_ID + ", " +
+                CurrentEntry.COLUMN_SHORT_DESC + ", " + CurrentEntry.COLUMN_MIN_TEMP + ", " +
+                CurrentEntry.COLUMN_MAX_TEMP + ") SELECT " +
+                LocationEntry.TABLE_NAME + "." + LocationEntry.COLUMN_LOCATION_SETTING + ", " +
+                WeatherEntry.COLUMN_LOC_KEY + ", " + WeatherEntry.COLUMN_DATE + ", " +
+                WeatherEntry.COLUMN_WEATHER_ID + ", " + WeatherEntry.COLUMN_SHORT_DESC + ", " +
+                WeatherEntry.COLUMN_MIN_TEMP + ", " + WeatherEntry.COLUMN_MAX_TEMP +
+                " FROM " + WeatherEntry.TABLE_NAME + " INNER JOIN " + LocationEntry.TABLE_NAME +
+                " ON " + WeatherEntry.TABLE_NAME + "." + WeatherEntry.COLUMN_LOC_KEY + " = " +
+                LocationEntry.TABLE_NAME + "." + LocationEntry._ID +
+                " WHERE " + WeatherEntry.TABLE_NAME + "." + WeatherEntry.COLUMN_LOC_KEY + " = " +
+                locationId + " ORDER BY " + WeatherEntry.COLUMN_DATE + " ASC LIMIT 1; ";
+    }
+
+    private static void createWeatherLocationDateIndex(SQLiteDatabase sqLiteDatabase) {
+        sqLiteDatabase.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_WEATHER_LOCATION_DATE +
+                " ON " + WeatherEntry.TABLE_NAME + " (" +
+                WeatherEntry.COLUMN_LOC_KEY + ", " + WeatherEntry.COLUMN_DATE + ");");
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
-        // This database is only a cache for online data, so its upgrade policy is
-        // to simply to discard the data and start over
         // Note that this only fires if you change the version number for your database.
         // It does NOT depend on the version number for your application.
-        // If you want to update the schema without wiping data, commenting out the next 2 lines
-        // should be your top priority before modifying this method.
+        // Migrating keeps the forecasts, so the UI has something to show before the first
+        // sync on the new schema
+        if (WeatherDbMigrations.migrate(sqLiteDatabase, oldVersion, newVersion)) {
+            return;
+        }
+
+        // This database is only a cache for online data, so schemas too old to migrate are
+        // simply discarded and started over
+        Log.w(LOG_TAG, "No migration from version " + oldVersion + ", wiping the database");
         sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
         sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + ValidatorEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + CurrentEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + HistoryEntry.TABLE_NAME);
         onCreate(sqLiteDatabase);
     }
 }
@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * The history of the weather database's schema, as the steps that bring a database from one
+ * version to the next without losing the forecasts it holds.
+ * <p/>
+ * Each step is written against the schema as it stood at the time, with its SQL spelt out
+ * rather than built from {@link WeatherContract}, so a later change to the contract can't
+ * change what an old step does.  Released steps never change; a schema change is a new
+ * step at the end together with a bump of {@link WeatherDbHelper}'s version, and a
+ * historical schema for TestMigrations.
+ */
+final class WeatherDbMigrations {
+
+    // The oldest version that is migrated in place.  Anything older is wiped.
+    static final int FIRST_MIGRATED_VERSION = 2;
+
+    /**
+     * Brings a database from the version before {@link #version} to it.
+     */
+    abstract static class Migration {
+        final int version;
+
+        Migration(int version) {
+            this.version = version;
+        }
+
+        abstract void migrate(SQLiteDatabase db);
+    }
+
+    // Every step after FIRST_MIGRATED_VERSION, in order
+    static final Migration[] MIGRATIONS = {
+            // 3: validators of the last forecast stored for each location setting
+            new Migration(3) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE TABLE validator (" +
+                            "_id INTEGER PRIMARY KEY," +
+                            "location_setting TEXT UNIQUE NOT NULL ON CONFLICT REPLACE, " +
+                            "etag TEXT, " +
+                            "last_modified TEXT " +
+                            " );");
+                }
+            },
+            // 4: index for the forecast queries
+            new Migration(4) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE INDEX IF NOT EXISTS weather_location_date " +
+                            "ON weather (location_id, date);");
+                }
+            },
+            // 5: current conditions, the first stored day of each location
+            new Migration(5) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE TABLE current (" +
+                            "location_setting TEXT PRIMARY KEY, " +
+                            "location_id INTEGER UNIQUE NOT NULL, " +
+                            "date INTEGER NOT NULL, " +
+                            "weather_id INTEGER NOT NULL, " +
+                            "short_desc TEXT NOT NULL, " +
+                            "min REAL NOT NULL, " +
+                            "max REAL NOT NULL);");
+                    db.execSQL("CREATE TRIGGER weather_current_insert AFTER INSERT ON weather " +
+                            "WHEN " + firstDay5("NEW") + " BEGIN " +
+                            refreshCurrent5("NEW.location_id") + " END;");
+                    db.execSQL("CREATE TRIGGER weather_current_update AFTER UPDATE ON weather " +
+                            "BEGIN " +
+                            deleteCurrent5("OLD.location_id") +
+                            refreshCurrent5("OLD.location_id") +
+                            refreshCurrent5("NEW.location_id") + " END;");
+                    db.execSQL("CREATE TRIGGER weather_current_delete AFTER DELETE ON weather " +
+                            "WHEN " + firstDay5("OLD") + " BEGIN " +
+                            deleteCurrent5("OLD.location_id") +
+                            refreshCurrent5("OLD.location_id") + " END;");
+                    db.execSQL("CREATE TRIGGER location_current_insert AFTER INSERT ON location " +
+                            "BEGIN " + refreshCurrent5("NEW._id") + " END;");
+                    db.execSQL("CREATE TRIGGER location_current_update AFTER UPDATE ON location " +
+                            "BEGIN " + deleteCurrent5("OLD._id") +
+                            refreshCurrent5("NEW._id") + " END;");
+                    db.execSQL("CREATE TRIGGER location_current_delete AFTER DELETE ON location " +
+                            "BEGIN " + deleteCurrent5("OLD._id") + " END;");
+
+                    db.execSQL("INSERT INTO current (location_setting, location_id, date, " +
+                            "weather_id, short_desc, min, max) " +
+                            "SELECT location.location_setting, location_id, date, weather_id, " +
+                            "short_desc, min, max " +
+                            "FROM weather INNER JOIN location ON weather.location_id = location._id " +
+                            "WHERE NOT EXISTS (SELECT 1 FROM weather AS earlier " +
+                            "WHERE earlier.location_id = weather.location_id " +
+                            "AND earlier.date < weather.date);");
+                }
+            },
+            // 6: the archive of past days, packed a month of a location to a row
+            new Migration(6) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE TABLE history (" +
+                            "_id INTEGER PRIMARY KEY, " +
+                            "location_id INTEGER NOT NULL, " +
+                            "month INTEGER NOT NULL, " +
+                            "first_date INTEGER NOT NULL, " +
+                            "last_date INTEGER NOT NULL, " +
+                            "days INTEGER NOT NULL, " +
+                            "data BLOB NOT NULL, " +
+                            " UNIQUE (location_id, month) ON CONFLICT REPLACE);");
+                    db.execSQL("CREATE TRIGGER location_history_delete AFTER DELETE ON location " +
+                            "BEGIN DELETE FROM history WHERE location_id = OLD._id; END;");
+                }
+            },
+    };
+
+    // The pieces of step 5's triggers
+
+    private static String firstDay5(String row) {
+        return "NOT EXISTS (SELECT 1 FROM weather WHERE location_id = " + row + ".location_id " +
+                "AND date < " + row + ".date)";
+    }
+
+    private static String deleteCurrent5(String locationId) {
+        return "DELETE FROM current WHERE location_id = " + locationId + "; ";
+    }
+
+    private static String refreshCurrent5(String locationId) {
+        return "INSERT OR REPLACE INTO current " +
+                "(location_setting, location_id, date, weather_id, short_desc, min, max) " +
+                "SELECT location.location_setting, location_id, date, weather_id, short_desc, " +
+                "min, max FROM weather INNER JOIN location ON weather.location_id = location._id " +
+                "WHERE weather.location_id = " + locationId + " ORDER BY date ASC LIMIT 1; ";
+    }
+
+    private WeatherDbMigrations() {
+    }
+
+    /**
+     * Runs the steps from oldVersion up to newVersion, in order.  SQLiteOpenHelper runs this
+     * in a transaction, so a step that fails leaves the database as it was.
+     *
+     * @return false if oldVersion is too old to migrate, or newVersion has no step.
+     */
+    static boolean migrate(SQLiteDatabase db, int oldVersion, int newVersion) {
+        if (oldVersion < FIRST_MIGRATED_VERSION
+                || newVersion > MIGRATIONS[MIGRATIONS.length - 1].version) {
+            return false;
+        }
+        for (Migration migration : MIGRATIONS) {
+            if (migration.version > oldVersion && migration.version <= newVersion) {
+                migration.migrate(db);
+            }
+        }
+        return true;
+    }
+}
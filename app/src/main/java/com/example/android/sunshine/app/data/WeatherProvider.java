@@ -16,13 +16,42 @@
 package com.example.android.sunshine.app.data;
 
 import android.annotation.TargetApi;
+import android.content.BroadcastReceiver;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.MatrixCursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Binder;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Parcelable;
+import android.text.format.Time;
+import android.support.annotation.VisibleForTesting;
+
+import com.example.android.sunshine.app.BuildConfig;
+
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 public class WeatherProvider extends ContentProvider {
 
@@ -30,10 +59,27 @@ public class WeatherProvider extends ContentProvider {
     private static final UriMatcher sUriMatcher = buildUriMatcher();
     private WeatherDbHelper mOpenHelper;
 
+    // Room for a couple of weeks of forecasts for a handful of locations and projections
+    private static final int QUERY_CACHE_BYTES = 64 * 1024;
+    private final QueryCache mQueryCache = new QueryCache(QUERY_CACHE_BYTES);
+
+    private final ProviderStats mStats = new ProviderStats();
+
+    // The uris to notify once the applyBatch running on this thread commits, or null outside
+    // of one
+    private final ThreadLocal<Set<Uri>> mPendingNotifications = new ThreadLocal<Set<Uri>>();
+
     static final int WEATHER = 100;
     static final int WEATHER_WITH_LOCATION = 101;
     static final int WEATHER_WITH_LOCATION_AND_DATE = 102;
     static final int LOCATION = 300;
+    static final int VALIDATOR = 400;
+    static final int CURRENT = 500;
+    static final int CURRENT_WITH_LOCATION = 501;
+    static final int DEBUG_STATS = 600;
+    static final int DEBUG_SLOW = 601;
+    static final int HISTORY = 700;
+    static final int HISTORY_WITH_LOCATION = 701;
 
     private static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
 
@@ -68,24 +114,116 @@ public class WeatherProvider extends ContentProvider {
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ";
 
+    //current.location_setting = ? AND date >= ?
+    private static final String sCurrentSelection =
+            WeatherContract.CurrentEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
+                    WeatherContract.CurrentEntry.COLUMN_DATE + " >= ? ";
+
+    //location_id = ? AND date <= ?
+    private static final String sLocationIdBeforeDaySelection =
+            WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " <= ? ";
+
+    //location_id = ? AND date = ?
+    private static final String sLocationIdAndDaySelection =
+            WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ";
+
+    // Statements for writeForecast.  Both take the same arguments, in this order, so a day is
+    // bound the same way into either.  The update skips a row that already holds the day
+    // as it is.
+    private static final String sForecastColumns =
+            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_WEATHER_ID + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_MIN_TEMP + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_MAX_TEMP + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_HUMIDITY + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_PRESSURE + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_WIND_SPEED + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_DEGREES + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_LOC_KEY + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_DATE;
+
+    private static final String sUpdateChangedDaySql =
+            "UPDATE " + WeatherContract.WeatherEntry.TABLE_NAME + " SET " +
+                    WeatherContract.WeatherEntry.COLUMN_SHORT_DESC + " = ?1, " +
+                    WeatherContract.WeatherEntry.COLUMN_WEATHER_ID + " = ?2, " +
+                    WeatherContract.WeatherEntry.COLUMN_MIN_TEMP + " = ?3, " +
+                    WeatherContract.WeatherEntry.COLUMN_MAX_TEMP + " = ?4, " +
+                    WeatherContract.WeatherEntry.COLUMN_HUMIDITY + " = ?5, " +
+                    WeatherContract.WeatherEntry.COLUMN_PRESSURE + " = ?6, " +
+                    WeatherContract.WeatherEntry.COLUMN_WIND_SPEED + " = ?7, " +
+                    WeatherContract.WeatherEntry.COLUMN_DEGREES + " = ?8" +
+                    " WHERE " + WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ?9 AND " +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " = ?10 AND NOT (" +
+                    WeatherContract.WeatherEntry.COLUMN_SHORT_DESC + " = ?1 AND " +
+                    WeatherContract.WeatherEntry.COLUMN_WEATHER_ID + " = ?2 AND " +
+                    WeatherContract.WeatherEntry.COLUMN_MIN_TEMP + " = ?3 AND " +
+                    WeatherContract.WeatherEntry.COLUMN_MAX_TEMP + " = ?4 AND " +
+                    WeatherContract.WeatherEntry.COLUMN_HUMIDITY + " = ?5 AND " +
+                    WeatherContract.WeatherEntry.COLUMN_PRESSURE + " = ?6 AND " +
+                    WeatherContract.WeatherEntry.COLUMN_WIND_SPEED + " = ?7 AND " +
+                    WeatherContract.WeatherEntry.COLUMN_DEGREES + " = ?8)";
+
+    // Ignores, rather than replaces, a day that is already stored
+    private static final String sInsertNewDaySql =
+            "INSERT OR IGNORE INTO " + WeatherContract.WeatherEntry.TABLE_NAME +
+                    " (" + sForecastColumns + ") VALUES (?1, ?2, ?3, ?4, ?5, ?6, ?7, ?8, ?9, ?10)";
+
+    // The columns archiveWeather reads, in the order it reads them
+    private static final String[] sArchiveColumns = {
+            WeatherContract.WeatherEntry.COLUMN_LOC_KEY,
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+            WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+            WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherContract.WeatherEntry.COLUMN_DEGREES
+    };
+
+    //location_id = ? AND month = ?
+    private static final String sHistoryBlockSelection =
+            WeatherContract.HistoryEntry.COLUMN_LOC_KEY + " = ? AND " +
+                    WeatherContract.HistoryEntry.COLUMN_MONTH + " = ? ";
+
+    // The packed months of a location overlapping a range of dates, oldest first
+    private static final String sHistoryRangeSql =
+            "SELECT " + WeatherContract.HistoryEntry.COLUMN_DATA +
+                    " FROM " + WeatherContract.HistoryEntry.TABLE_NAME +
+                    " WHERE " + WeatherContract.HistoryEntry.COLUMN_LOC_KEY + " = (SELECT " +
+                    WeatherContract.LocationEntry._ID + " FROM " +
+                    WeatherContract.LocationEntry.TABLE_NAME + " WHERE " +
+                    WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?) AND " +
+                    WeatherContract.HistoryEntry.COLUMN_LAST_DATE + " >= ? AND " +
+                    WeatherContract.HistoryEntry.COLUMN_FIRST_DATE + " <= ?" +
+                    " ORDER BY " + WeatherContract.HistoryEntry.COLUMN_MONTH;
+
+    // Past this many locations changed at once, one notification of the whole weather URI is
+    // cheaper than one per location
+    private static final int MAX_SCOPED_NOTIFICATIONS = 50;
+
+    // Indices into the counts filled in by upsertWeather
+    private static final int UPSERT_INSERTED = 0;
+    private static final int UPSERT_UPDATED = 1;
+    private static final int UPSERT_UNCHANGED = 2;
+
     private Cursor getWeatherByLocationSetting(Uri uri, String[] projection, String sortOrder) {
         String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
         long startDate = WeatherContract.WeatherEntry.getStartDateFromUri(uri);
 
         String[] selectionArgs;
-        String selection;
-
         if (startDate == 0) {
-            selection = sLocationSettingSelection;
             selectionArgs = new String[]{locationSetting};
         } else {
             selectionArgs = new String[]{locationSetting, Long.toString(startDate)};
-            selection = sLocationSettingWithStartDateSelection;
         }
 
         return sWeatherByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
                 projection,
-                selection,
+                getLocationSettingSelection(startDate),
                 selectionArgs,
                 null,
                 null,
@@ -93,6 +231,110 @@ public class WeatherProvider extends ContentProvider {
         );
     }
 
+    /**
+     * Looks up the location's current conditions by primary key.  The row is the location's
+     * first stored day, which the sync keeps at today by pruning past days; between midnight
+     * and the next sync it is yesterday's, so then the first day from today on is read from
+     * the weather table instead.
+     */
+    private Cursor getCurrentByLocationSetting(Uri uri, String[] projection) {
+        String locationSetting = WeatherContract.CurrentEntry.getLocationSettingFromUri(uri);
+        String today = Long.toString(WeatherContract.normalizeDate(System.currentTimeMillis()));
+        SQLiteDatabase db = mOpenHelper.getReadableDatabase();
+
+        Cursor cursor = db.query(WeatherContract.CurrentEntry.TABLE_NAME, projection,
+                sCurrentSelection, new String[]{locationSetting, today}, null, null, null);
+        if (cursor.getCount() > 0) {
+            return cursor;
+        }
+        cursor.close();
+        return sWeatherByLocationSettingQueryBuilder.query(db,
+                projection,
+                sLocationSettingWithStartDateSelection,
+                new String[]{locationSetting, today},
+                null,
+                null,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC",
+                "1"
+        );
+    }
+
+    /**
+     * Answers a per-location weather query from the query cache, running it and caching the
+     * results on a miss.  These queries take no selection, so the uri, projection and sort
+     * order are all there is to the key.
+     */
+    private Cursor getWeatherThroughCache(Uri uri, String[] projection, String sortOrder) {
+        boolean withDate = sUriMatcher.match(uri) == WEATHER_WITH_LOCATION_AND_DATE;
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            // Copying the rows needs Cursor.getType
+            return withDate ? getWeatherByLocationSettingAndDate(uri, projection, sortOrder)
+                    : getWeatherByLocationSetting(uri, projection, sortOrder);
+        }
+
+        String key = QueryCache.buildKey(uri, projection, sortOrder);
+        Cursor cursor = mQueryCache.get(key);
+        if (cursor != null) {
+            return cursor;
+        }
+        long generation = mQueryCache.getGeneration();
+        cursor = withDate ? getWeatherByLocationSettingAndDate(uri, projection, sortOrder)
+                : getWeatherByLocationSetting(uri, projection, sortOrder);
+        return mQueryCache.put(key, WeatherContract.WeatherEntry.getLocationSettingFromUri(uri),
+                generation, cursor);
+    }
+
+    /**
+     * Drops the cached queries a change to the uri may have made stale.
+     */
+    private void invalidateQueryCache(Uri uri) {
+        switch (sUriMatcher.match(uri)) {
+            case WEATHER_WITH_LOCATION:
+                mQueryCache.invalidate(WeatherContract.WeatherEntry.getLocationSettingFromUri(uri));
+                break;
+            case VALIDATOR:
+            case CURRENT:
+            case CURRENT_WITH_LOCATION:
+            case HISTORY:
+            case HISTORY_WITH_LOCATION:
+                // Not joined into any cached query
+                break;
+            default:
+                mQueryCache.invalidateAll();
+                break;
+        }
+    }
+
+    @VisibleForTesting
+    QueryCache getQueryCache() {
+        return mQueryCache;
+    }
+
+    @VisibleForTesting
+    ProviderStats getStats() {
+        return mStats;
+    }
+
+    /**
+     * Records a call of an entry point that has just finished, against the uri it matched
+     * and the uid that called it.
+     */
+    private void recordOperation(String entryPoint, Uri uri, long startNanos, int rows) {
+        mStats.record(ProviderStats.getOperation(entryPoint, sUriMatcher.match(uri)), uri,
+                Binder.getCallingUid(), System.nanoTime() - startNanos, rows);
+    }
+
+    /**
+     * Prints the query cache's hit rate and size, and the latencies, callers and slow
+     * operations of every entry point.  Run
+     * {@code adb shell dumpsys activity provider WeatherProvider} to see them.
+     */
+    @Override
+    public void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        mQueryCache.dump(writer);
+        mStats.dump(writer, getContext().getPackageManager());
+    }
+
     private Cursor getWeatherByLocationSettingAndDate(
             Uri uri, String[] projection, String sortOrder) {
         String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
@@ -108,6 +350,59 @@ public class WeatherProvider extends ContentProvider {
         );
     }
 
+    private static String getLocationSettingSelection(long startDate) {
+        return startDate == 0 ? sLocationSettingSelection : sLocationSettingWithStartDateSelection;
+    }
+
+    /**
+     * Builds the SQL that {@link #query} runs for a URI, with its selection arguments left as
+     * parameters, so tests can check the query plan of every URI.
+     */
+    @VisibleForTesting
+    @TargetApi(11)
+    static String buildQueryStatement(Uri uri, String[] projection, String selection,
+                                      String sortOrder) {
+        switch (sUriMatcher.match(uri)) {
+            case WEATHER_WITH_LOCATION_AND_DATE:
+                return sWeatherByLocationSettingQueryBuilder.buildQuery(projection,
+                        sLocationSettingAndDaySelection, null, null, sortOrder, null);
+            case WEATHER_WITH_LOCATION:
+                return sWeatherByLocationSettingQueryBuilder.buildQuery(projection,
+                        getLocationSettingSelection(
+                                WeatherContract.WeatherEntry.getStartDateFromUri(uri)),
+                        null, null, sortOrder, null);
+            case WEATHER:
+                return SQLiteQueryBuilder.buildQueryString(false,
+                        WeatherContract.WeatherEntry.TABLE_NAME, projection, selection,
+                        null, null, sortOrder, null);
+            case LOCATION:
+                return SQLiteQueryBuilder.buildQueryString(false,
+                        WeatherContract.LocationEntry.TABLE_NAME, projection, selection,
+                        null, null, sortOrder, null);
+            case VALIDATOR:
+                return SQLiteQueryBuilder.buildQueryString(false,
+                        WeatherContract.ValidatorEntry.TABLE_NAME, projection, selection,
+                        null, null, sortOrder, null);
+            case CURRENT:
+                return SQLiteQueryBuilder.buildQueryString(false,
+                        WeatherContract.CurrentEntry.TABLE_NAME, projection, selection,
+                        null, null, sortOrder, null);
+            case CURRENT_WITH_LOCATION:
+                return SQLiteQueryBuilder.buildQueryString(false,
+                        WeatherContract.CurrentEntry.TABLE_NAME, projection, sCurrentSelection,
+                        null, null, null, null);
+            case HISTORY:
+                return SQLiteQueryBuilder.buildQueryString(false,
+                        WeatherContract.HistoryEntry.TABLE_NAME, projection, selection,
+                        null, null, sortOrder, null);
+            case HISTORY_WITH_LOCATION:
+                // The days are unpacked from the rows this reads
+                return sHistoryRangeSql;
+            default:
+                throw new UnsupportedOperationException("Unknown uri: " + uri);
+        }
+    }
+
     /*
         Students: Here is where you need to create the UriMatcher. This UriMatcher will
         match each URI to the WEATHER, WEATHER_WITH_LOCATION, WEATHER_WITH_LOCATION_AND_DATE,
@@ -130,6 +425,17 @@ public class WeatherProvider extends ContentProvider {
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*/#", WEATHER_WITH_LOCATION_AND_DATE);
 
         matcher.addURI(authority, WeatherContract.PATH_LOCATION, LOCATION);
+        matcher.addURI(authority, WeatherContract.PATH_VALIDATOR, VALIDATOR);
+        matcher.addURI(authority, WeatherContract.PATH_CURRENT, CURRENT);
+        matcher.addURI(authority, WeatherContract.PATH_CURRENT + "/*", CURRENT_WITH_LOCATION);
+        matcher.addURI(authority, WeatherContract.PATH_HISTORY, HISTORY);
+        matcher.addURI(authority, WeatherContract.PATH_HISTORY + "/*", HISTORY_WITH_LOCATION);
+
+        // The provider's statistics, which name the apps calling it, stay out of release builds
+        if (BuildConfig.DEBUG) {
+            matcher.addURI(authority, WeatherContract.PATH_DEBUG + "/stats", DEBUG_STATS);
+            matcher.addURI(authority, WeatherContract.PATH_DEBUG + "/slow", DEBUG_SLOW);
+        }
         return matcher;
     }
 
@@ -140,6 +446,14 @@ public class WeatherProvider extends ContentProvider {
     @Override
     public boolean onCreate() {
         mOpenHelper = new WeatherDbHelper(getContext());
+        // The provider starts with the process, so this catches every zone change normalizeDate
+        // needs to hear about, whoever calls it
+        getContext().registerReceiver(new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                DayBoundaries.invalidate();
+            }
+        }, new IntentFilter(Intent.ACTION_TIMEZONE_CHANGED));
         return true;
     }
 
@@ -164,6 +478,18 @@ public class WeatherProvider extends ContentProvider {
                 return WeatherContract.WeatherEntry.CONTENT_TYPE;
             case LOCATION:
                 return WeatherContract.LocationEntry.CONTENT_TYPE;
+            case VALIDATOR:
+                return WeatherContract.ValidatorEntry.CONTENT_TYPE;
+            case CURRENT:
+                return WeatherContract.CurrentEntry.CONTENT_TYPE;
+            case CURRENT_WITH_LOCATION:
+                return WeatherContract.CurrentEntry.CONTENT_ITEM_TYPE;
+            case HISTORY:
+            case HISTORY_WITH_LOCATION:
+                return WeatherContract.HistoryEntry.CONTENT_TYPE;
+            case DEBUG_STATS:
+            case DEBUG_SLOW:
+                return WeatherContract.DebugEntry.CONTENT_TYPE;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
@@ -172,19 +498,29 @@ public class WeatherProvider extends ContentProvider {
     @Override
     public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
                         String sortOrder) {
+        long start = System.nanoTime();
+        Cursor cursor = null;
+        try {
+            cursor = queryUri(uri, projection, selection, selectionArgs, sortOrder);
+            return cursor;
+        } finally {
+            // getCount runs the query, which the caller's first move would have done anyway,
+            // so its time is counted too
+            recordOperation("query", uri, start, cursor != null ? cursor.getCount() : -1);
+        }
+    }
+
+    private Cursor queryUri(Uri uri, String[] projection, String selection,
+                            String[] selectionArgs, String sortOrder) {
         // Here's the switch statement that, given a URI, will determine what kind of request it is,
         // and query the database accordingly.
         Cursor retCursor;
         switch (sUriMatcher.match(uri)) {
             // "weather/*/*"
             case WEATHER_WITH_LOCATION_AND_DATE:
-            {
-                retCursor = getWeatherByLocationSettingAndDate(uri, projection, sortOrder);
-                break;
-            }
             // "weather/*"
             case WEATHER_WITH_LOCATION: {
-                retCursor = getWeatherByLocationSetting(uri, projection, sortOrder);
+                retCursor = getWeatherThroughCache(uri, projection, sortOrder);
                 break;
             }
             // "weather"
@@ -213,6 +549,65 @@ public class WeatherProvider extends ContentProvider {
                 );
                 break;
             }
+            // "current/*"
+            case CURRENT_WITH_LOCATION: {
+                retCursor = getCurrentByLocationSetting(uri, projection);
+                break;
+            }
+            // "current"
+            case CURRENT: {
+                retCursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.CurrentEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder
+                );
+                break;
+            }
+            // "validator"
+            case VALIDATOR: {
+                retCursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.ValidatorEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder
+                );
+                break;
+            }
+            // "history/*"
+            case HISTORY_WITH_LOCATION: {
+                retCursor = getHistoryByLocationSetting(uri, projection);
+                break;
+            }
+            // "history"
+            case HISTORY: {
+                retCursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.HistoryEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder
+                );
+                break;
+            }
+            // "debug/stats"
+            case DEBUG_STATS: {
+                retCursor = mStats.getStatsCursor();
+                break;
+            }
+            // "debug/slow"
+            case DEBUG_SLOW: {
+                retCursor = mStats.getSlowCursor();
+                break;
+            }
 
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
@@ -226,6 +621,17 @@ public class WeatherProvider extends ContentProvider {
      */
     @Override
     public Uri insert(Uri uri, ContentValues values) {
+        long start = System.nanoTime();
+        Uri returnUri = null;
+        try {
+            returnUri = insertUri(uri, values);
+            return returnUri;
+        } finally {
+            recordOperation("insert", uri, start, returnUri != null ? 1 : -1);
+        }
+    }
+
+    private Uri insertUri(Uri uri, ContentValues values) {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         Uri returnUri;
@@ -238,7 +644,10 @@ public class WeatherProvider extends ContentProvider {
                     returnUri = WeatherContract.WeatherEntry.buildWeatherUri(_id);
                 else
                     throw new android.database.SQLException("Failed to insert row into " + uri);
-                break;
+                Set<Long> locationIds = new HashSet<Long>(1);
+                addLocationId(locationIds, values);
+                notifyWeatherChanged(db, locationIds);
+                return returnUri;
             }
             case LOCATION: {
                 long _id = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null, values);
@@ -248,35 +657,77 @@ public class WeatherProvider extends ContentProvider {
                     throw new android.database.SQLException("Failed to insert row into " + uri);
                 break;
             }
+            case VALIDATOR: {
+                long _id = db.insert(WeatherContract.ValidatorEntry.TABLE_NAME, null, values);
+                if ( _id > 0 )
+                    returnUri = ContentUris.withAppendedId(uri, _id);
+                else
+                    throw new android.database.SQLException("Failed to insert row into " + uri);
+                break;
+            }
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        getContext().getContentResolver().notifyChange(uri, null);
+        notifyChange(uri);
         return returnUri;
     }
 
     @Override
     public int delete(Uri uri, String selection, String[] selectionArgs) {
+        long start = System.nanoTime();
+        int rowsDeleted = -1;
+        try {
+            rowsDeleted = deleteUri(uri, selection, selectionArgs);
+            return rowsDeleted;
+        } finally {
+            recordOperation("delete", uri, start, rowsDeleted);
+        }
+    }
+
+    private int deleteUri(Uri uri, String selection, String[] selectionArgs) {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         int rowsDeleted;
         // this makes delete all rows return the number of rows deleted
         if ( null == selection ) selection = "1";
         switch (match) {
-            case WEATHER:
-                rowsDeleted = db.delete(
-                        WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
-                break;
+            case WEATHER: {
+                Set<Long> locationIds;
+                int archived = 0;
+                db.beginTransaction();
+                try {
+                    locationIds = getWeatherLocationIds(db, selection, selectionArgs);
+                    if (WeatherContract.WeatherEntry.isArchiveUri(uri)) {
+                        archived = archiveWeather(db, selection, selectionArgs);
+                    }
+                    rowsDeleted = db.delete(
+                            WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                if (rowsDeleted != 0) {
+                    notifyWeatherChanged(db, locationIds);
+                }
+                if (archived != 0) {
+                    notifyChange(WeatherContract.HistoryEntry.CONTENT_URI);
+                }
+                return rowsDeleted;
+            }
             case LOCATION:
                 rowsDeleted = db.delete(
                         WeatherContract.LocationEntry.TABLE_NAME, selection, selectionArgs);
                 break;
+            case VALIDATOR:
+                rowsDeleted = db.delete(
+                        WeatherContract.ValidatorEntry.TABLE_NAME, selection, selectionArgs);
+                break;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
         // Because a null deletes all rows
         if (rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
         return rowsDeleted;
     }
@@ -292,56 +743,684 @@ public class WeatherProvider extends ContentProvider {
     @Override
     public int update(
             Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        long start = System.nanoTime();
+        int rowsUpdated = -1;
+        try {
+            rowsUpdated = updateUri(uri, values, selection, selectionArgs);
+            return rowsUpdated;
+        } finally {
+            recordOperation("update", uri, start, rowsUpdated);
+        }
+    }
+
+    private int updateUri(
+            Uri uri, ContentValues values, String selection, String[] selectionArgs) {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         int rowsUpdated;
 
         switch (match) {
-            case WEATHER:
+            case WEATHER: {
                 normalizeDate(values);
-                rowsUpdated = db.update(WeatherContract.WeatherEntry.TABLE_NAME, values, selection,
-                        selectionArgs);
-                break;
+                Set<Long> locationIds;
+                db.beginTransaction();
+                try {
+                    locationIds = getWeatherLocationIds(db, selection, selectionArgs);
+                    rowsUpdated = db.update(WeatherContract.WeatherEntry.TABLE_NAME, values,
+                            selection, selectionArgs);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                if (rowsUpdated != 0) {
+                    // rows moved to another location change that one too
+                    addLocationId(locationIds, values);
+                    notifyWeatherChanged(db, locationIds);
+                }
+                return rowsUpdated;
+            }
             case LOCATION:
                 rowsUpdated = db.update(WeatherContract.LocationEntry.TABLE_NAME, values, selection,
                         selectionArgs);
                 break;
+            case VALIDATOR:
+                rowsUpdated = db.update(WeatherContract.ValidatorEntry.TABLE_NAME, values, selection,
+                        selectionArgs);
+                break;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
         if (rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
         return rowsUpdated;
     }
 
+    /**
+     * Applies the operations in one transaction, so readers never see part of a batch, and
+     * an operation that fails rolls back every one before it.  Observers are notified once
+     * per uri after the batch commits.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        // Each operation is recorded on its own as well, by the entry point it goes through
+        long start = System.nanoTime();
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        Set<Uri> notifications = new LinkedHashSet<Uri>();
+        mPendingNotifications.set(notifications);
+        ContentProviderResult[] results;
+        db.beginTransaction();
+        try {
+            results = super.applyBatch(operations);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            mPendingNotifications.remove();
+        }
+        WeatherDbHelper.checkpoint(db);
+        ContentResolver resolver = getContext().getContentResolver();
+        for (Uri uri : notifications) {
+            // Again, in case a query cached what it read before the batch committed
+            invalidateQueryCache(uri);
+            resolver.notifyChange(uri, null);
+        }
+        mStats.record("applyBatch", null, Binder.getCallingUid(), System.nanoTime() - start,
+                operations.size());
+        return results;
+    }
+
     @Override
     public int bulkInsert(Uri uri, ContentValues[] values) {
+        long start = System.nanoTime();
+        int returnCount = -1;
+        try {
+            returnCount = bulkInsertUri(uri, values);
+            return returnCount;
+        } finally {
+            recordOperation("bulkInsert", uri, start, returnCount);
+        }
+    }
+
+    private int bulkInsertUri(Uri uri, ContentValues[] values) {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case WEATHER:
+                if (WeatherContract.WeatherEntry.isUpsertUri(uri)) {
+                    int[] counts = upsertWeather(values);
+                    return counts[UPSERT_INSERTED] + counts[UPSERT_UPDATED];
+                }
                 db.beginTransaction();
                 int returnCount = 0;
+                Set<Long> locationIds = new HashSet<Long>();
                 try {
                     for (ContentValues value : values) {
                         normalizeDate(value);
                         long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
                         if (_id != -1) {
                             returnCount++;
+                            addLocationId(locationIds, value);
                         }
                     }
                     db.setTransactionSuccessful();
                 } finally {
                     db.endTransaction();
                 }
-                getContext().getContentResolver().notifyChange(uri, null);
+                WeatherDbHelper.checkpoint(db);
+                notifyWeatherChanged(db, locationIds);
                 return returnCount;
             default:
                 return super.bulkInsert(uri, values);
         }
     }
 
+    @Override
+    @TargetApi(11)
+    public Bundle call(String method, String arg, Bundle extras) {
+        long start = System.nanoTime();
+        Bundle result = null;
+        try {
+            result = callMethod(method, arg, extras);
+            return result;
+        } finally {
+            int rows = -1;
+            if (result != null) {
+                rows = result.getInt(WeatherContract.WeatherEntry.KEY_INSERTED)
+                        + result.getInt(WeatherContract.WeatherEntry.KEY_UPDATED)
+                        + result.getInt(WeatherContract.WeatherEntry.KEY_DELETED);
+            }
+            mStats.record("call " + method, null, Binder.getCallingUid(),
+                    System.nanoTime() - start, rows);
+        }
+    }
+
+    @TargetApi(11)
+    private Bundle callMethod(String method, String arg, Bundle extras) {
+        int[] counts = null;
+        if (WeatherContract.WeatherEntry.METHOD_UPSERT.equals(method)) {
+            Parcelable[] parcelables = extras.getParcelableArray(WeatherContract.WeatherEntry.KEY_VALUES);
+            ContentValues[] values = new ContentValues[parcelables.length];
+            for (int i = 0; i < parcelables.length; i++) {
+                values[i] = (ContentValues) parcelables[i];
+            }
+            counts = upsertWeather(values);
+        } else if (WeatherContract.WeatherEntry.METHOD_WRITE_FORECAST.equals(method)) {
+            counts = writeForecast(ForecastBatch.fromBundle(extras));
+        } else if (WeatherContract.WeatherEntry.METHOD_REPLACE_FORECAST.equals(method)) {
+            return replaceForecast(extras);
+        }
+        if (counts != null) {
+            Bundle result = new Bundle();
+            result.putInt(WeatherContract.WeatherEntry.KEY_INSERTED, counts[UPSERT_INSERTED]);
+            result.putInt(WeatherContract.WeatherEntry.KEY_UPDATED, counts[UPSERT_UPDATED]);
+            result.putInt(WeatherContract.WeatherEntry.KEY_UNCHANGED, counts[UPSERT_UNCHANGED]);
+            return result;
+        }
+        return super.call(method, arg, extras);
+    }
+
+    /**
+     * Writes weather rows in one transaction, comparing each with the stored row for the same
+     * (date, location_id).  New rows are inserted, rows with a differing value are updated in
+     * place so they keep their _id, and identical rows aren't touched at all.  Observers are
+     * only notified if something was written.
+     *
+     * @return the number of inserted, updated and unchanged rows.
+     */
+    private int[] upsertWeather(ContentValues[] values) {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        int[] counts = new int[3];
+        Set<Long> locationIds = new HashSet<Long>();
+        db.beginTransaction();
+        try {
+            for (ContentValues value : values) {
+                normalizeDate(value);
+                Long locationId = value.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY);
+                Long date = value.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+                Cursor stored = null;
+                if (locationId != null && date != null) {
+                    stored = db.query(WeatherContract.WeatherEntry.TABLE_NAME, null,
+                            sLocationIdAndDaySelection,
+                            new String[]{locationId.toString(), date.toString()},
+                            null, null, null);
+                }
+                try {
+                    if (stored == null || !stored.moveToFirst()) {
+                        if (db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value) != -1) {
+                            counts[UPSERT_INSERTED]++;
+                            addLocationId(locationIds, value);
+                        }
+                        continue;
+                    }
+                    if (!hasChanges(stored, value)) {
+                        counts[UPSERT_UNCHANGED]++;
+                    } else {
+                        long _id = stored.getLong(
+                                stored.getColumnIndex(WeatherContract.WeatherEntry._ID));
+                        db.update(WeatherContract.WeatherEntry.TABLE_NAME, value,
+                                WeatherContract.WeatherEntry._ID + " = ?",
+                                new String[]{Long.toString(_id)});
+                        counts[UPSERT_UPDATED]++;
+                        locationIds.add(locationId);
+                    }
+                } finally {
+                    if (stored != null) {
+                        stored.close();
+                    }
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        if (counts[UPSERT_INSERTED] + counts[UPSERT_UPDATED] > 0) {
+            WeatherDbHelper.checkpoint(db);
+            notifyWeatherChanged(db, locationIds);
+        }
+        return counts;
+    }
+
+    /**
+     * Does what {@link #upsertWeather} does for one location's forecast, binding each day
+     * straight into two statements compiled once for the whole batch: an update of the
+     * stored day that only matches if a value differs, and, when that matches nothing, an
+     * insert that is ignored if the day is already stored unchanged.
+     *
+     * @return the number of inserted, updated and unchanged rows.
+     */
+    @TargetApi(11)
+    private int[] writeForecast(ForecastBatch batch) {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        int[] counts;
+        db.beginTransaction();
+        try {
+            counts = writeForecastDays(db, batch);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        if (counts[UPSERT_INSERTED] + counts[UPSERT_UPDATED] > 0) {
+            Set<Long> locationIds = new HashSet<Long>(1);
+            locationIds.add(batch.getLocationId());
+            WeatherDbHelper.checkpoint(db);
+            notifyWeatherChanged(db, locationIds);
+        }
+        return counts;
+    }
+
+    /**
+     * Writes the batch's days inside the caller's transaction.
+     *
+     * @return the number of inserted, updated and unchanged rows.
+     */
+    @TargetApi(11)
+    private static int[] writeForecastDays(SQLiteDatabase db, ForecastBatch batch) {
+        int[] counts = new int[3];
+        SQLiteStatement update = db.compileStatement(sUpdateChangedDaySql);
+        SQLiteStatement insert = db.compileStatement(sInsertNewDaySql);
+        try {
+            long locationId = batch.getLocationId();
+            for (int i = 0, size = batch.size(); i < size; i++) {
+                bindDay(update, batch, locationId, i);
+                if (update.executeUpdateDelete() > 0) {
+                    counts[UPSERT_UPDATED]++;
+                    continue;
+                }
+                bindDay(insert, batch, locationId, i);
+                if (insert.executeInsert() != -1) {
+                    counts[UPSERT_INSERTED]++;
+                } else {
+                    counts[UPSERT_UNCHANGED]++;
+                }
+            }
+        } finally {
+            update.close();
+            insert.close();
+        }
+        return counts;
+    }
+
+    /**
+     * Replaces what is stored for one location in a single transaction: adds the location if
+     * it is new, writes the forecast the way {@link #writeForecast} does and moves the
+     * location's days up to the prune date into the history.  Readers see either the old
+     * forecast or the new one, and the location's observers are notified once, if anything
+     * changed.
+     *
+     * @return the counts of {@link #writeForecast}, the number of days pruned and the
+     * location's id.
+     */
+    @TargetApi(11)
+    private Bundle replaceForecast(Bundle extras) {
+        ForecastBatch batch = ForecastBatch.fromBundle(extras);
+        String locationSetting =
+                extras.getString(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING);
+        if (locationSetting == null) {
+            throw new IllegalArgumentException("Missing location setting");
+        }
+
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        int[] counts;
+        int deleted = 0;
+        db.beginTransaction();
+        try {
+            batch.setLocationId(findOrInsertLocation(db, locationSetting, extras));
+            counts = writeForecastDays(db, batch);
+            if (extras.containsKey(WeatherContract.WeatherEntry.KEY_PRUNE_BEFORE)) {
+                String[] pruneArgs = {Long.toString(batch.getLocationId()), Long.toString(
+                        extras.getLong(WeatherContract.WeatherEntry.KEY_PRUNE_BEFORE))};
+                archiveWeather(db, sLocationIdBeforeDaySelection, pruneArgs);
+                deleted = db.delete(WeatherContract.WeatherEntry.TABLE_NAME,
+                        sLocationIdBeforeDaySelection, pruneArgs);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        if (counts[UPSERT_INSERTED] + counts[UPSERT_UPDATED] + deleted > 0) {
+            WeatherDbHelper.checkpoint(db);
+            notifyWeatherChanged(locationSetting);
+        }
+        if (deleted > 0) {
+            notifyChange(WeatherContract.HistoryEntry.CONTENT_URI);
+        }
+
+        Bundle result = new Bundle();
+        result.putInt(WeatherContract.WeatherEntry.KEY_INSERTED, counts[UPSERT_INSERTED]);
+        result.putInt(WeatherContract.WeatherEntry.KEY_UPDATED, counts[UPSERT_UPDATED]);
+        result.putInt(WeatherContract.WeatherEntry.KEY_UNCHANGED, counts[UPSERT_UNCHANGED]);
+        result.putInt(WeatherContract.WeatherEntry.KEY_DELETED, deleted);
+        result.putLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, batch.getLocationId());
+        return result;
+    }
+
+    /**
+     * @return the id of the location with the given setting, inserted from the city name and
+     * coordinates in the extras if there isn't one yet.
+     */
+    private static long findOrInsertLocation(SQLiteDatabase db, String locationSetting,
+                                             Bundle extras) {
+        Cursor cursor = db.query(WeatherContract.LocationEntry.TABLE_NAME,
+                new String[]{WeatherContract.LocationEntry._ID},
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{locationSetting}, null, null, null);
+        try {
+            if (cursor.moveToFirst()) {
+                return cursor.getLong(0);
+            }
+        } finally {
+            cursor.close();
+        }
+
+        ContentValues values = new ContentValues();
+        values.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        values.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME,
+                extras.getString(WeatherContract.LocationEntry.COLUMN_CITY_NAME));
+        values.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT,
+                extras.getDouble(WeatherContract.LocationEntry.COLUMN_COORD_LAT));
+        values.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG,
+                extras.getDouble(WeatherContract.LocationEntry.COLUMN_COORD_LONG));
+        long locationId = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null, values);
+        if (locationId == -1) {
+            throw new android.database.SQLException("Failed to insert location " + locationSetting);
+        }
+        return locationId;
+    }
+
+    /**
+     * Packs the weather rows a selection matches into the history table, inside the caller's
+     * transaction, merging them into the months already archived for the same location.  A
+     * day archived twice keeps the values it was archived with last.  Leaves deleting the
+     * rows to the caller.
+     *
+     * @return the number of days archived.
+     */
+    private static int archiveWeather(SQLiteDatabase db, String selection,
+                                      String[] selectionArgs) {
+        // Ordered by date alone, which either index on the weather table gives without a
+        // sort, so each location's month is collected as its days come past
+        Cursor cursor = db.query(WeatherContract.WeatherEntry.TABLE_NAME, sArchiveColumns,
+                selection, selectionArgs, null, null, WeatherContract.WeatherEntry.COLUMN_DATE);
+        int archived = 0;
+        Map<Long, ForecastBatch> months = new HashMap<Long, ForecastBatch>();
+        Map<Long, Integer> monthKeys = new HashMap<Long, Integer>();
+        try {
+            // Dates are normalized to midnight in the default time zone, so that's where
+            // their month is taken
+            Time time = new Time();
+            while (cursor.moveToNext()) {
+                long locationId = cursor.getLong(0);
+                long date = cursor.getLong(1);
+                time.set(date);
+                int monthKey = time.year * 100 + time.month + 1;
+                ForecastBatch month = months.get(locationId);
+                if (month == null || monthKeys.get(locationId) != monthKey) {
+                    if (month != null) {
+                        storeHistoryMonth(db, monthKeys.get(locationId), month);
+                    }
+                    month = new ForecastBatch(31);
+                    month.setLocationId(locationId);
+                    months.put(locationId, month);
+                    monthKeys.put(locationId, monthKey);
+                }
+                month.add(date, cursor.getInt(2), cursor.getString(3), cursor.getDouble(4),
+                        cursor.getDouble(5), cursor.getDouble(6), cursor.getDouble(7),
+                        cursor.getDouble(8), cursor.getDouble(9));
+                archived++;
+            }
+        } finally {
+            cursor.close();
+        }
+        for (Map.Entry<Long, ForecastBatch> month : months.entrySet()) {
+            storeHistoryMonth(db, monthKeys.get(month.getKey()), month.getValue());
+        }
+        return archived;
+    }
+
+    private static void storeHistoryMonth(SQLiteDatabase db, int monthKey, ForecastBatch days) {
+        String[] selectionArgs = {Long.toString(days.getLocationId()), Integer.toString(monthKey)};
+        Cursor stored = db.query(WeatherContract.HistoryEntry.TABLE_NAME,
+                new String[]{WeatherContract.HistoryEntry.COLUMN_DATA},
+                sHistoryBlockSelection, selectionArgs, null, null, null);
+        try {
+            if (stored.moveToFirst()) {
+                ForecastBatch merged =
+                        ForecastArchive.merge(ForecastArchive.decode(stored.getBlob(0)), days);
+                merged.setLocationId(days.getLocationId());
+                days = merged;
+            }
+        } finally {
+            stored.close();
+        }
+
+        ContentValues values = new ContentValues();
+        values.put(WeatherContract.HistoryEntry.COLUMN_LOC_KEY, days.getLocationId());
+        values.put(WeatherContract.HistoryEntry.COLUMN_MONTH, monthKey);
+        values.put(WeatherContract.HistoryEntry.COLUMN_FIRST_DATE, days.getDate(0));
+        values.put(WeatherContract.HistoryEntry.COLUMN_LAST_DATE, days.getDate(days.size() - 1));
+        values.put(WeatherContract.HistoryEntry.COLUMN_DAYS, days.size());
+        values.put(WeatherContract.HistoryEntry.COLUMN_DATA, ForecastArchive.encode(days));
+        // Replaces the month's row through the UNIQUE (location_id, month) constraint
+        if (db.insert(WeatherContract.HistoryEntry.TABLE_NAME, null, values) == -1) {
+            throw new android.database.SQLException("Failed to archive month " + monthKey);
+        }
+    }
+
+    /**
+     * Unpacks the location's archived days in the uri's range into a cursor, a month at a
+     * time, holding the values of the projection's columns.
+     */
+    private Cursor getHistoryByLocationSetting(Uri uri, String[] projection) {
+        String[] columns = projection != null ? projection
+                : WeatherContract.HistoryEntry.DAY_COLUMNS;
+        int[] fields = new int[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            fields[i] = indexOf(WeatherContract.HistoryEntry.DAY_COLUMNS, columns[i]);
+            if (fields[i] == -1) {
+                throw new IllegalArgumentException("Unknown history column " + columns[i]);
+            }
+        }
+        long startDate = WeatherContract.HistoryEntry.getStartDateFromUri(uri);
+        long endDate = WeatherContract.HistoryEntry.getEndDateFromUri(uri);
+
+        MatrixCursor history = new MatrixCursor(columns);
+        Cursor months = mOpenHelper.getReadableDatabase().rawQuery(sHistoryRangeSql,
+                new String[]{WeatherContract.HistoryEntry.getLocationSettingFromUri(uri),
+                        Long.toString(startDate), Long.toString(endDate)});
+        try {
+            while (months.moveToNext()) {
+                ForecastBatch days = ForecastArchive.decode(months.getBlob(0));
+                for (int day = 0, size = days.size(); day < size; day++) {
+                    long date = days.getDate(day);
+                    if (date < startDate || date > endDate) {
+                        continue;
+                    }
+                    Object[] row = new Object[columns.length];
+                    for (int i = 0; i < columns.length; i++) {
+                        row[i] = getHistoryValue(days, day, fields[i]);
+                    }
+                    history.addRow(row);
+                }
+            }
+        } finally {
+            months.close();
+        }
+        return history;
+    }
+
+    // The value of a day for the column at an index into HistoryEntry.DAY_COLUMNS
+    private static Object getHistoryValue(ForecastBatch days, int day, int field) {
+        switch (field) {
+            case 0:
+                return days.getDate(day);
+            case 1:
+                return days.getWeatherId(day);
+            case 2:
+                return days.getShortDesc(day);
+            case 3:
+                return days.getMinTemp(day);
+            case 4:
+                return days.getMaxTemp(day);
+            case 5:
+                return days.getHumidity(day);
+            case 6:
+                return days.getPressure(day);
+            case 7:
+                return days.getWindSpeed(day);
+            default:
+                return days.getDegrees(day);
+        }
+    }
+
+    private static int indexOf(String[] values, String value) {
+        for (int i = 0; i < values.length; i++) {
+            if (values[i].equals(value)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static void bindDay(SQLiteStatement statement, ForecastBatch batch, long locationId,
+                                int i) {
+        statement.bindString(1, batch.getShortDesc(i));
+        statement.bindLong(2, batch.getWeatherId(i));
+        statement.bindDouble(3, batch.getMinTemp(i));
+        statement.bindDouble(4, batch.getMaxTemp(i));
+        statement.bindDouble(5, batch.getHumidity(i));
+        statement.bindDouble(6, batch.getPressure(i));
+        statement.bindDouble(7, batch.getWindSpeed(i));
+        statement.bindDouble(8, batch.getDegrees(i));
+        statement.bindLong(9, locationId);
+        statement.bindLong(10, batch.getDate(i));
+    }
+
+    private static void addLocationId(Set<Long> locationIds, ContentValues values) {
+        Long locationId = values.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY);
+        if (locationId != null) {
+            locationIds.add(locationId);
+        }
+    }
+
+    /**
+     * @return the locations of the weather rows a selection matches.
+     */
+    private static Set<Long> getWeatherLocationIds(SQLiteDatabase db, String selection,
+                                                   String[] selectionArgs) {
+        Set<Long> locationIds = new HashSet<Long>();
+        Cursor cursor = db.query(true, WeatherContract.WeatherEntry.TABLE_NAME,
+                new String[]{WeatherContract.WeatherEntry.COLUMN_LOC_KEY},
+                selection, selectionArgs, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                locationIds.add(cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return locationIds;
+    }
+
+    /**
+     * Notifies the observers of the given locations' weather, under weather/<setting>, once
+     * per location, so a write to one location doesn't wake the observers of every other.
+     * Observers of the whole weather URI with notifyForDescendants still hear of it.  If a
+     * location's setting can't be found, every weather observer is notified instead.
+     */
+    private void notifyWeatherChanged(SQLiteDatabase db, Set<Long> locationIds) {
+        if (locationIds.isEmpty()) {
+            return;
+        }
+        if (locationIds.size() > MAX_SCOPED_NOTIFICATIONS) {
+            notifyAllWeatherChanged();
+            return;
+        }
+
+        StringBuilder selection = new StringBuilder(WeatherContract.LocationEntry._ID + " IN (");
+        String[] selectionArgs = new String[locationIds.size()];
+        int i = 0;
+        for (Long locationId : locationIds) {
+            selection.append(i == 0 ? "?" : ", ?");
+            selectionArgs[i++] = locationId.toString();
+        }
+        selection.append(')');
+
+        List<String> locationSettings = new ArrayList<String>(locationIds.size());
+        Cursor cursor = db.query(WeatherContract.LocationEntry.TABLE_NAME,
+                new String[]{WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING},
+                selection.toString(), selectionArgs, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                locationSettings.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        if (locationSettings.size() < locationIds.size()) {
+            notifyAllWeatherChanged();
+            return;
+        }
+        for (String locationSetting : locationSettings) {
+            notifyWeatherChanged(locationSetting);
+        }
+    }
+
+    /**
+     * Notifies the observers of the location's weather, and of its current conditions, which
+     * the triggers may have changed along with it.
+     */
+    private void notifyWeatherChanged(String locationSetting) {
+        notifyChange(WeatherContract.WeatherEntry.buildWeatherLocation(locationSetting));
+        notifyChange(WeatherContract.CurrentEntry.buildCurrentUri(locationSetting));
+    }
+
+    private void notifyAllWeatherChanged() {
+        notifyChange(WeatherContract.WeatherEntry.CONTENT_URI);
+        notifyChange(WeatherContract.CurrentEntry.CONTENT_URI);
+    }
+
+    /**
+     * Notifies the uri's observers now, or, inside {@link #applyBatch}, once the whole batch
+     * has committed.  Cached queries are dropped straight away.
+     */
+    private void notifyChange(Uri uri) {
+        invalidateQueryCache(uri);
+        Set<Uri> pending = mPendingNotifications.get();
+        if (pending != null) {
+            pending.add(uri);
+        } else {
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+    }
+
+    /**
+     * @return true if any of the values differs from the row the cursor is on.
+     */
+    private static boolean hasChanges(Cursor stored, ContentValues values) {
+        for (Map.Entry<String, Object> entry : values.valueSet()) {
+            String column = entry.getKey();
+            Object value = entry.getValue();
+            int index = stored.getColumnIndex(column);
+            boolean same;
+            if (index == -1) {
+                same = false;
+            } else if (value == null || stored.isNull(index)) {
+                same = value == null && stored.isNull(index);
+            } else if (value instanceof Number) {
+                // dates and ids are well within the range doubles hold exactly
+                same = ((Number) value).doubleValue() == stored.getDouble(index);
+            } else {
+                same = value.toString().equals(stored.getString(index));
+            }
+            if (!same) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     // You do not need to call this method. This is a method specifically to assist the testing
     // framework in running smoothly. You can read more at:
     // http://developer.android.com/reference/android/content/ContentProvider.html#shutdown()
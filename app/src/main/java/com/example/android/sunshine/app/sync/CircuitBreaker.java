@@ -0,0 +1,160 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.SharedPreferences;
+
+import java.util.Random;
+
+/**
+ * Stops syncs from hammering a forecast endpoint that keeps failing.  After
+ * {@link #FAILURE_THRESHOLD} failures in a row the circuit opens and requests fail fast until
+ * an exponentially growing, jittered backoff has passed.  Then a single probe request is let
+ * through: if it succeeds the circuit closes, otherwise it opens again for twice as long.
+ * <p/>
+ * The state is kept per endpoint in its own preferences file, so it survives the sync
+ * process being killed between syncs.
+ */
+class CircuitBreaker {
+
+    static final String PREFS_NAME = "circuit_breaker";
+
+    static final int STATE_CLOSED = 0;
+    static final int STATE_OPEN = 1;
+    static final int STATE_HALF_OPEN = 2;
+
+    // Failures in a row that open the circuit
+    static final int FAILURE_THRESHOLD = 3;
+    // Backoff after the circuit first opens; it doubles every time a probe fails
+    static final long BASE_BACKOFF_MILLIS = 60 * 1000;
+    static final long MAX_BACKOFF_MILLIS = 2 * 60 * 60 * 1000;
+    // A probe that hasn't reported back by then is assumed lost, and another one is allowed
+    static final long PROBE_TIMEOUT_MILLIS = 2 * 60 * 1000;
+
+    private static final String KEY_FAILURES = ":failures";
+    private static final String KEY_OPENINGS = ":openings";
+    private static final String KEY_RETRY_AT = ":retry_at";
+
+    private final SharedPreferences mPrefs;
+    private final String mEndpoint;
+    private final Clock mClock;
+    private final Random mRandom;
+
+    // failures in a row while closed
+    private int mFailures;
+    // times the circuit has opened since it was last closed
+    private int mOpenings;
+    // when an open circuit lets a probe through
+    private long mRetryAtMillis;
+    // when the probe in flight was let through, or 0 if there is none
+    private long mProbeStartMillis;
+
+    /**
+     * @param prefs    where the state is kept
+     * @param endpoint the endpoint the breaker protects, which keys its state
+     * @param clock    the time source
+     * @param random   the source of backoff jitter
+     */
+    CircuitBreaker(SharedPreferences prefs, String endpoint, Clock clock, Random random) {
+        mPrefs = prefs;
+        mEndpoint = endpoint;
+        mClock = clock;
+        mRandom = random;
+        mFailures = prefs.getInt(endpoint + KEY_FAILURES, 0);
+        mOpenings = prefs.getInt(endpoint + KEY_OPENINGS, 0);
+        mRetryAtMillis = prefs.getLong(endpoint + KEY_RETRY_AT, 0);
+    }
+
+    String getEndpoint() {
+        return mEndpoint;
+    }
+
+    synchronized int getState() {
+        if (mOpenings == 0) {
+            return STATE_CLOSED;
+        }
+        return mClock.currentTimeMillis() < mRetryAtMillis ? STATE_OPEN : STATE_HALF_OPEN;
+    }
+
+    /**
+     * @return when an open circuit will let a probe through, or 0 if it is closed.
+     */
+    synchronized long getRetryAtMillis() {
+        return mOpenings == 0 ? 0 : mRetryAtMillis;
+    }
+
+    /**
+     * Asks whether a request may go out.  Every request allowed must be followed by a call to
+     * {@link #onSuccess()} or {@link #onFailure()}, unless its outcome says nothing about the
+     * endpoint's health.
+     *
+     * @return false if the request should fail fast.
+     */
+    synchronized boolean allowRequest() {
+        switch (getState()) {
+            case STATE_CLOSED:
+                return true;
+            case STATE_OPEN:
+                return false;
+            default:
+                long now = mClock.currentTimeMillis();
+                if (mProbeStartMillis != 0 && now - mProbeStartMillis < PROBE_TIMEOUT_MILLIS) {
+                    // one probe at a time
+                    return false;
+                }
+                mProbeStartMillis = now;
+                return true;
+        }
+    }
+
+    synchronized void onSuccess() {
+        mProbeStartMillis = 0;
+        if (mFailures == 0 && mOpenings == 0) {
+            return;
+        }
+        mFailures = 0;
+        mOpenings = 0;
+        mRetryAtMillis = 0;
+        save();
+    }
+
+    synchronized void onFailure() {
+        if (mOpenings > 0) {
+            // A failed probe, or a request that was already in flight when the circuit opened
+            if (mProbeStartMillis != 0) {
+                mProbeStartMillis = 0;
+                open();
+            }
+            return;
+        }
+        mFailures++;
+        if (mFailures >= FAILURE_THRESHOLD) {
+            open();
+        } else {
+            save();
+        }
+    }
+
+    /**
+     * Opens the circuit for the next backoff: BASE_BACKOFF_MILLIS doubled for every earlier
+     * opening, capped at MAX_BACKOFF_MILLIS, of which a random half is taken off so that
+     * devices which failed together don't all retry together.
+     */
+    private void open() {
+        mOpenings++;
+        long backoff = BASE_BACKOFF_MILLIS << Math.min(mOpenings - 1, 30);
+        if (backoff <= 0 || backoff > MAX_BACKOFF_MILLIS) {
+            backoff = MAX_BACKOFF_MILLIS;
+        }
+        long jitter = (long) (mRandom.nextDouble() * (backoff / 2));
+        mRetryAtMillis = mClock.currentTimeMillis() + backoff - jitter;
+        mFailures = 0;
+        save();
+    }
+
+    private void save() {
+        mPrefs.edit()
+                .putInt(mEndpoint + KEY_FAILURES, mFailures)
+                .putInt(mEndpoint + KEY_OPENINGS, mOpenings)
+                .putLong(mEndpoint + KEY_RETRY_AT, mRetryAtMillis)
+                .commit();
+    }
+}
@@ -0,0 +1,16 @@
+package com.example.android.sunshine.app.sync;
+
+/**
+ * Supplies the wall-clock time, so tests can drive time-based sync decisions with a fake one.
+ */
+interface Clock {
+
+    Clock SYSTEM = new Clock() {
+        @Override
+        public long currentTimeMillis() {
+            return System.currentTimeMillis();
+        }
+    };
+
+    long currentTimeMillis();
+}
@@ -0,0 +1,140 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.os.PowerManager;
+import android.support.annotation.VisibleForTesting;
+import android.util.Log;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the consumers of a finished sync (widgets, Muzei, the notification, the watch face)
+ * concurrently and off the sync thread, so a slow consumer such as the notification's icon
+ * download neither holds up the sync nor the other consumers.  A consumer still running when
+ * its timeout expires is interrupted and recorded as timed out in the {@link SyncRun}.
+ * <p/>
+ * Consumers outlive the sync that dispatched them, and with it the wakelock the sync manager
+ * holds, so a partial wakelock of our own is held from the first consumer dispatched until
+ * none are left running.
+ */
+class FanOutDispatcher {
+
+    private static final String LOG_TAG = FanOutDispatcher.class.getSimpleName();
+
+    private static final long IDLE_THREAD_KEEP_ALIVE_SECONDS = 30;
+
+    private final ExecutorService mWorkers;
+    private final ScheduledThreadPoolExecutor mWatchdog;
+
+    // consumers dispatched but not yet finished or abandoned
+    private final Object mPendingLock = new Object();
+    private int mPending;
+
+    // Held while mPending > 0
+    private final PowerManager.WakeLock mWakeLock;
+
+    FanOutDispatcher(Context context) {
+        PowerManager powerManager = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+        mWakeLock = powerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, LOG_TAG);
+        mWakeLock.setReferenceCounted(false);
+
+        ThreadFactory threadFactory = new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "SyncFanOut #" + mCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+        // Threads only live while there's fan-out to do
+        mWorkers = Executors.newCachedThreadPool(threadFactory);
+        mWatchdog = new ScheduledThreadPoolExecutor(1, threadFactory);
+        mWatchdog.setKeepAliveTime(IDLE_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS);
+        mWatchdog.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Starts a consumer and returns straight away.
+     *
+     * @param run           the sync the consumer is reacting to, where its timing is recorded
+     * @param consumer      the consumer, run with a null location
+     * @param timeoutMillis how long the consumer may take before it is interrupted
+     */
+    void dispatch(SyncRun run, final SyncStage consumer, long timeoutMillis) {
+        final SyncRun.StageRecord record = run.beginStage(null, consumer.getName());
+        synchronized (mPendingLock) {
+            if (mPending++ == 0) {
+                mWakeLock.acquire();
+            }
+        }
+
+        final Future<?> future = mWorkers.submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    consumer.run(null, record);
+                } catch (Exception e) {
+                    Log.e(LOG_TAG, "Error in " + consumer.getName(), e);
+                } finally {
+                    if (record.end()) {
+                        finishOne();
+                    }
+                }
+            }
+        });
+
+        mWatchdog.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (record.timeOut()) {
+                    Log.w(LOG_TAG, consumer.getName() + " timed out");
+                    future.cancel(true);
+                    finishOne();
+                }
+            }
+        }, timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void finishOne() {
+        synchronized (mPendingLock) {
+            if (--mPending == 0) {
+                mWakeLock.release();
+            }
+            mPendingLock.notifyAll();
+        }
+    }
+
+    @VisibleForTesting
+    boolean isHoldingWakeLock() {
+        synchronized (mPendingLock) {
+            return mWakeLock.isHeld();
+        }
+    }
+
+    /**
+     * Waits until every dispatched consumer has finished or timed out.
+     *
+     * @return false if some were still running when the wait expired.
+     */
+    boolean awaitIdle(long timeoutMillis) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        synchronized (mPendingLock) {
+            while (mPending > 0) {
+                long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remaining <= 0) {
+                    return false;
+                }
+                mPendingLock.wait(remaining);
+            }
+        }
+        return true;
+    }
+}
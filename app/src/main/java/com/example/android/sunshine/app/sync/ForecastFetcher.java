@@ -0,0 +1,340 @@
+package com.example.android.sunshine.app.sync;
+
+import android.net.Uri;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Issues the OpenWeatherMap daily forecast request.  Requests are conditional when the caller
+ * has validators from a previous response, so an unchanged forecast comes back as a bodiless
+ * 304 instead of being downloaded and parsed again.
+ * <p/>
+ * Every request has connect and read timeouts, so a stalled socket can't hold a sync for
+ * minutes.  Hedging is off unless turned on with {@link #setHedging}: then a request that
+ * hasn't produced its response headers by the {@link #HEDGE_PERCENTILE}th percentile of recent
+ * header latencies is sent a second time, and whichever copy answers first is used.
+ */
+class ForecastFetcher {
+
+    private static final String LOG_TAG = ForecastFetcher.class.getSimpleName();
+
+    // Construct the URL for the OpenWeatherMap query
+    // Possible parameters are avaiable at OWM's forecast API page, at
+    // http://openweathermap.org/API#forecast
+    static final String FORECAST_BASE_URL =
+            "http://api.openweathermap.org/data/2.5/forecast/daily?";
+    private static final String QUERY_PARAM = "q";
+    private static final String FORMAT_PARAM = "mode";
+    private static final String UNITS_PARAM = "units";
+    private static final String DAYS_PARAM = "cnt";
+    private static final String APPID_PARAM = "APPID";
+
+    private static final String FORMAT = "json";
+    private static final String UNITS = "metric";
+    private static final int NUM_DAYS = 14;
+
+    private static final String HEADER_ETAG = "ETag";
+    private static final String HEADER_LAST_MODIFIED = "Last-Modified";
+    private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+    private static final String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+
+    // Requests slower than this share of recent ones get hedged
+    static final int HEDGE_PERCENTILE = 95;
+    // Hedge delay used until enough requests have been timed
+    static final long DEFAULT_HEDGE_DELAY_MILLIS = 2 * 1000;
+    private static final long MIN_HEDGE_DELAY_MILLIS = 50;
+    private static final int LATENCY_SAMPLES = 32;
+    private static final int MIN_LATENCY_SAMPLES = 8;
+
+    // Runs hedged requests; threads only live while there are requests in flight
+    private static final ExecutorService sHedgeExecutor =
+            Executors.newCachedThreadPool(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "ForecastFetcher");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    private final String mBaseUrl;
+    private final SunshineHttpClient mHttpClient;
+    private volatile int mConnectTimeoutMillis = SunshineHttpClient.DEFAULT_CONNECT_TIMEOUT_MILLIS;
+    private volatile int mReadTimeoutMillis = SunshineHttpClient.DEFAULT_READ_TIMEOUT_MILLIS;
+    private volatile boolean mHedging;
+
+    // Recent times to response headers, in a ring
+    private final long[] mLatencies = new long[LATENCY_SAMPLES];
+    private int mLatencyCount;
+    private int mNextLatency;
+
+    ForecastFetcher() {
+        this(FORECAST_BASE_URL);
+    }
+
+    /**
+     * @param baseUrl the forecast endpoint, overridable so tests can point at a local server.
+     */
+    ForecastFetcher(String baseUrl) {
+        this(baseUrl, SunshineHttpClient.getInstance());
+    }
+
+    ForecastFetcher(String baseUrl, SunshineHttpClient httpClient) {
+        mBaseUrl = baseUrl;
+        mHttpClient = httpClient;
+    }
+
+    /**
+     * @return the endpoint requests go to, without any query.
+     */
+    String getEndpoint() {
+        return mBaseUrl;
+    }
+
+    URL buildUrl(String locationQuery) throws IOException {
+        Uri builtUri = Uri.parse(mBaseUrl).buildUpon()
+                .appendQueryParameter(QUERY_PARAM, locationQuery)
+                .appendQueryParameter(FORMAT_PARAM, FORMAT)
+                .appendQueryParameter(UNITS_PARAM, UNITS)
+                .appendQueryParameter(DAYS_PARAM, Integer.toString(NUM_DAYS))
+                .appendQueryParameter(APPID_PARAM, "7bbb48bd7c9d35c91098bbbedeae6d43"/*BuildConfig.OPEN_WEATHER_MAP_API_KEY*/)
+                .build();
+        return new URL(builtUri.toString());
+    }
+
+    void setTimeouts(int connectTimeoutMillis, int readTimeoutMillis) {
+        mConnectTimeoutMillis = connectTimeoutMillis;
+        mReadTimeoutMillis = readTimeoutMillis;
+    }
+
+    void setHedging(boolean hedging) {
+        mHedging = hedging;
+    }
+
+    /**
+     * @return how long a request may go without response headers before it is hedged: the
+     * {@link #HEDGE_PERCENTILE}th percentile of recent requests, once there are enough of them.
+     */
+    long getHedgeDelayMillis() {
+        long[] latencies;
+        synchronized (mLatencies) {
+            if (mLatencyCount < MIN_LATENCY_SAMPLES) {
+                return DEFAULT_HEDGE_DELAY_MILLIS;
+            }
+            latencies = Arrays.copyOf(mLatencies, mLatencyCount);
+        }
+        Arrays.sort(latencies);
+        int index = (int) Math.ceil(latencies.length * HEDGE_PERCENTILE / 100.0) - 1;
+        return Math.max(MIN_HEDGE_DELAY_MILLIS, latencies[index]);
+    }
+
+    private void recordLatency(long latencyMillis) {
+        synchronized (mLatencies) {
+            mLatencies[mNextLatency] = latencyMillis;
+            mNextLatency = (mNextLatency + 1) % LATENCY_SAMPLES;
+            if (mLatencyCount < LATENCY_SAMPLES) {
+                mLatencyCount++;
+            }
+        }
+    }
+
+    /**
+     * Requests the forecast for a location.
+     *
+     * @param locationQuery the location setting to request
+     * @param etag          the ETag of the forecast we hold, or null
+     * @param lastModified  the Last-Modified of the forecast we hold, or null
+     * @return the response, which the caller must close.
+     */
+    Response fetch(String locationQuery, String etag, String lastModified) throws IOException {
+        return fetch(locationQuery, etag, lastModified, true);
+    }
+
+    /**
+     * Requests the forecast for a location, hedging it only if hedging is on and the caller
+     * allows it, as it mustn't when the request probes a server that has been failing.
+     *
+     * @param mayHedge whether the request may be sent a second time
+     * @see #fetch(String, String, String)
+     */
+    Response fetch(String locationQuery, String etag, String lastModified, boolean mayHedge)
+            throws IOException {
+        URL url = buildUrl(locationQuery);
+        if (!mHedging || !mayHedge) {
+            return new Attempt(url, etag, lastModified).call();
+        }
+        return fetchHedged(url, etag, lastModified);
+    }
+
+    private Response fetchHedged(URL url, String etag, String lastModified) throws IOException {
+        CompletionService<Response> completionService =
+                new ExecutorCompletionService<Response>(sHedgeExecutor);
+        List<Attempt> attempts = new ArrayList<Attempt>(2);
+        Attempt first = new Attempt(url, etag, lastModified);
+        attempts.add(first);
+        completionService.submit(first);
+        int pending = 1;
+
+        try {
+            Future<Response> done = completionService.poll(getHedgeDelayMillis(),
+                    TimeUnit.MILLISECONDS);
+            if (done == null) {
+                Log.d(LOG_TAG, "No response from " + url.getHost() + " yet, hedging");
+                Attempt hedge = new Attempt(url, etag, lastModified);
+                attempts.add(hedge);
+                completionService.submit(hedge);
+                pending++;
+            }
+            while (true) {
+                if (done == null) {
+                    done = completionService.take();
+                }
+                pending--;
+                try {
+                    Response response = done.get();
+                    // Whichever copy is still going is no longer needed
+                    for (Attempt attempt : attempts) {
+                        attempt.abandonUnless(response);
+                    }
+                    return response;
+                } catch (ExecutionException e) {
+                    if (pending == 0) {
+                        Throwable cause = e.getCause();
+                        if (cause instanceof IOException) {
+                            throw (IOException) cause;
+                        }
+                        throw new IOException(cause);
+                    }
+                    // the other copy may still make it
+                }
+                done = null;
+            }
+        } catch (InterruptedException e) {
+            for (Attempt attempt : attempts) {
+                attempt.abandonUnless(null);
+            }
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for " + url.getHost());
+        }
+    }
+
+    /**
+     * One copy of a request, which can be abandoned from another thread whether it is still in
+     * flight or has already answered.
+     */
+    private class Attempt implements Callable<Response> {
+        private final SunshineHttpClient.Call mCall;
+        private Response mResponse;
+        private boolean mAbandoned;
+
+        Attempt(URL url, String etag, String lastModified) {
+            mCall = mHttpClient.newCall(url)
+                    .timeouts(mConnectTimeoutMillis, mReadTimeoutMillis);
+            if (etag != null) {
+                mCall.header(HEADER_IF_NONE_MATCH, etag);
+            }
+            if (lastModified != null) {
+                mCall.header(HEADER_IF_MODIFIED_SINCE, lastModified);
+            }
+        }
+
+        @Override
+        public Response call() throws IOException {
+            long start = SystemClock.elapsedRealtime();
+            Response response = new Response(mCall.execute());
+            recordLatency(SystemClock.elapsedRealtime() - start);
+
+            synchronized (this) {
+                if (!mAbandoned) {
+                    mResponse = response;
+                    return response;
+                }
+            }
+            response.close();
+            throw new InterruptedIOException("Abandoned");
+        }
+
+        /**
+         * Abandons this copy, dropping its connection, unless it produced the given response.
+         */
+        void abandonUnless(Response winner) {
+            synchronized (this) {
+                if (mResponse != null && mResponse == winner) {
+                    return;
+                }
+                mAbandoned = true;
+            }
+            mCall.cancel();
+        }
+    }
+
+    static class Response implements Closeable {
+        private final SunshineHttpClient.Response mResponse;
+
+        Response(SunshineHttpClient.Response response) {
+            mResponse = response;
+        }
+
+        int getCode() {
+            return mResponse.getCode();
+        }
+
+        boolean isNotModified() {
+            return mResponse.getCode() == HttpURLConnection.HTTP_NOT_MODIFIED;
+        }
+
+        String getETag() {
+            return mResponse.getHeaderField(HEADER_ETAG);
+        }
+
+        String getLastModified() {
+            return mResponse.getHeaderField(HEADER_LAST_MODIFIED);
+        }
+
+        /**
+         * @return the response body.  OpenWeatherMap reports errors such as an unknown city
+         * in the body too, so error responses are returned rather than thrown.
+         */
+        InputStream getBody() throws IOException {
+            return mResponse.getBody();
+        }
+
+        /**
+         * @return how many body bytes have come over the wire so far.
+         */
+        long getBytesRead() {
+            return mResponse.getWireBytes();
+        }
+
+        SunshineHttpClient.Timing getTiming() {
+            return mResponse.getTiming();
+        }
+
+        /**
+         * Finishes with the response, leaving its connection to be reused.
+         */
+        @Override
+        public void close() throws IOException {
+            mResponse.close();
+        }
+    }
+}
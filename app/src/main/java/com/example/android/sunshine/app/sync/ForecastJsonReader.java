@@ -0,0 +1,497 @@
+package com.example.android.sunshine.app.sync;
+
+import org.json.JSONException;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * A minimal pull-based JSON token reader.  Unlike {@link org.json.JSONObject} it never holds the
+ * whole document in memory: tokens are read from the underlying {@link Reader} through a small
+ * fixed buffer, and numbers are decoded in place without building intermediate Strings.
+ * <p>
+ * The API mirrors android.util.JsonReader (which isn't available before Honeycomb): call
+ * {@link #peek()} to find out what comes next, then the matching {@code begin}/{@code end}/
+ * {@code next} method to consume it.
+ */
+class ForecastJsonReader implements Closeable {
+
+    static final int TOKEN_BEGIN_ARRAY = 1;
+    static final int TOKEN_END_ARRAY = 2;
+    static final int TOKEN_BEGIN_OBJECT = 3;
+    static final int TOKEN_END_OBJECT = 4;
+    static final int TOKEN_NAME = 5;
+    static final int TOKEN_STRING = 6;
+    static final int TOKEN_NUMBER = 7;
+    static final int TOKEN_BOOLEAN = 8;
+    static final int TOKEN_NULL = 9;
+    static final int TOKEN_END_DOCUMENT = 10;
+
+    // Lexical scopes kept on the stack
+    private static final int SCOPE_EMPTY_ARRAY = 1;
+    private static final int SCOPE_NONEMPTY_ARRAY = 2;
+    private static final int SCOPE_EMPTY_OBJECT = 3;
+    private static final int SCOPE_DANGLING_NAME = 4;
+    private static final int SCOPE_NONEMPTY_OBJECT = 5;
+    private static final int SCOPE_EMPTY_DOCUMENT = 6;
+    private static final int SCOPE_NONEMPTY_DOCUMENT = 7;
+
+    private static final int PEEKED_NONE = 0;
+
+    // Doubles with at most this many significant digits, scaled by an exactly representable
+    // power of ten, are decoded with a single correctly rounded multiplication or division.
+    private static final int MAX_FAST_DIGITS = 15;
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private final Reader mIn;
+    private final char[] mBuffer = new char[1024];
+    private int mPos = 0;
+    private int mLimit = 0;
+
+    private int[] mStack = new int[32];
+    private int mStackSize = 0;
+
+    private int mPeeked = PEEKED_NONE;
+
+    // Scratch space reused for strings and for numbers that miss the fast path
+    private final StringBuilder mScratch = new StringBuilder(64);
+
+    ForecastJsonReader(Reader in) {
+        if (in == null) {
+            throw new NullPointerException("in == null");
+        }
+        mIn = in;
+        push(SCOPE_EMPTY_DOCUMENT);
+    }
+
+    void beginArray() throws IOException, JSONException {
+        expect(TOKEN_BEGIN_ARRAY, "BEGIN_ARRAY");
+        push(SCOPE_EMPTY_ARRAY);
+    }
+
+    void endArray() throws IOException, JSONException {
+        expect(TOKEN_END_ARRAY, "END_ARRAY");
+        mStackSize--;
+    }
+
+    void beginObject() throws IOException, JSONException {
+        expect(TOKEN_BEGIN_OBJECT, "BEGIN_OBJECT");
+        push(SCOPE_EMPTY_OBJECT);
+    }
+
+    void endObject() throws IOException, JSONException {
+        expect(TOKEN_END_OBJECT, "END_OBJECT");
+        mStackSize--;
+    }
+
+    /**
+     * @return true if the current array or object has another element.
+     */
+    boolean hasNext() throws IOException, JSONException {
+        int token = peek();
+        return token != TOKEN_END_OBJECT && token != TOKEN_END_ARRAY
+                && token != TOKEN_END_DOCUMENT;
+    }
+
+    String nextName() throws IOException, JSONException {
+        expect(TOKEN_NAME, "NAME");
+        return readQuoted();
+    }
+
+    /**
+     * Returns the next string value, coercing numbers and booleans the way JSONObject.getString
+     * does.
+     */
+    String nextString() throws IOException, JSONException {
+        int token = peek();
+        mPeeked = PEEKED_NONE;
+        switch (token) {
+            case TOKEN_STRING:
+                return readQuoted();
+            case TOKEN_NUMBER:
+            case TOKEN_BOOLEAN:
+                readLiteral();
+                return mScratch.toString();
+            default:
+                throw syntaxError("Expected a string but was " + token);
+        }
+    }
+
+    /**
+     * Returns the next numeric value, coercing quoted numbers the way JSONObject.getDouble does.
+     */
+    double nextDouble() throws IOException, JSONException {
+        int token = peek();
+        mPeeked = PEEKED_NONE;
+        if (token == TOKEN_STRING) {
+            String value = readQuoted();
+            try {
+                return Double.parseDouble(value);
+            } catch (NumberFormatException e) {
+                throw syntaxError("Expected a double but was \"" + value + "\"");
+            }
+        } else if (token != TOKEN_NUMBER) {
+            throw syntaxError("Expected a double but was " + token);
+        }
+        return readNumber();
+    }
+
+    /**
+     * Returns the next numeric value truncated to an int, matching JSONObject.getInt.
+     */
+    int nextInt() throws IOException, JSONException {
+        return (int) nextDouble();
+    }
+
+    /**
+     * Skips the next value, recursively skipping nested arrays and objects.
+     */
+    void skipValue() throws IOException, JSONException {
+        int depth = 0;
+        do {
+            int token = peek();
+            mPeeked = PEEKED_NONE;
+            switch (token) {
+                case TOKEN_BEGIN_ARRAY:
+                    push(SCOPE_EMPTY_ARRAY);
+                    depth++;
+                    break;
+                case TOKEN_BEGIN_OBJECT:
+                    push(SCOPE_EMPTY_OBJECT);
+                    depth++;
+                    break;
+                case TOKEN_END_ARRAY:
+                case TOKEN_END_OBJECT:
+                    mStackSize--;
+                    depth--;
+                    break;
+                case TOKEN_NAME:
+                case TOKEN_STRING:
+                    skipQuoted();
+                    break;
+                case TOKEN_NUMBER:
+                case TOKEN_BOOLEAN:
+                case TOKEN_NULL:
+                    skipLiteral();
+                    break;
+                default:
+                    throw syntaxError("Unexpected end of document");
+            }
+        } while (depth > 0);
+    }
+
+    /**
+     * @return the type of the next token without consuming it.
+     */
+    int peek() throws IOException, JSONException {
+        if (mPeeked == PEEKED_NONE) {
+            mPeeked = doPeek();
+        }
+        return mPeeked;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mPeeked = PEEKED_NONE;
+        mStackSize = 0;
+        mIn.close();
+    }
+
+    private void expect(int token, String name) throws IOException, JSONException {
+        if (peek() != token) {
+            throw syntaxError("Expected " + name + " but was " + mPeeked);
+        }
+        mPeeked = PEEKED_NONE;
+    }
+
+    private void push(int scope) {
+        if (mStackSize == mStack.length) {
+            int[] newStack = new int[mStackSize * 2];
+            System.arraycopy(mStack, 0, newStack, 0, mStackSize);
+            mStack = newStack;
+        }
+        mStack[mStackSize++] = scope;
+    }
+
+    private int doPeek() throws IOException, JSONException {
+        int scope = mStack[mStackSize - 1];
+        int c;
+        switch (scope) {
+            case SCOPE_EMPTY_ARRAY:
+                mStack[mStackSize - 1] = SCOPE_NONEMPTY_ARRAY;
+                break;
+            case SCOPE_NONEMPTY_ARRAY:
+                c = nextNonWhitespace(true);
+                if (c == ']') {
+                    return TOKEN_END_ARRAY;
+                } else if (c != ',') {
+                    throw syntaxError("Unterminated array");
+                }
+                break;
+            case SCOPE_EMPTY_OBJECT:
+            case SCOPE_NONEMPTY_OBJECT:
+                mStack[mStackSize - 1] = SCOPE_DANGLING_NAME;
+                if (scope == SCOPE_NONEMPTY_OBJECT) {
+                    c = nextNonWhitespace(true);
+                    if (c == '}') {
+                        return TOKEN_END_OBJECT;
+                    } else if (c != ',') {
+                        throw syntaxError("Unterminated object");
+                    }
+                }
+                c = nextNonWhitespace(true);
+                if (c == '"') {
+                    return TOKEN_NAME;
+                } else if (c == '}' && scope == SCOPE_EMPTY_OBJECT) {
+                    return TOKEN_END_OBJECT;
+                }
+                throw syntaxError("Expected name");
+            case SCOPE_DANGLING_NAME:
+                mStack[mStackSize - 1] = SCOPE_NONEMPTY_OBJECT;
+                if (nextNonWhitespace(true) != ':') {
+                    throw syntaxError("Expected ':'");
+                }
+                break;
+            case SCOPE_EMPTY_DOCUMENT:
+                mStack[mStackSize - 1] = SCOPE_NONEMPTY_DOCUMENT;
+                break;
+            case SCOPE_NONEMPTY_DOCUMENT:
+                if (nextNonWhitespace(false) == -1) {
+                    return TOKEN_END_DOCUMENT;
+                }
+                throw syntaxError("Expected end of document");
+            default:
+                throw new IllegalStateException("JsonReader is closed");
+        }
+
+        c = nextNonWhitespace(true);
+        switch (c) {
+            case ']':
+                if (scope == SCOPE_EMPTY_ARRAY) {
+                    return TOKEN_END_ARRAY;
+                }
+                throw syntaxError("Unexpected value");
+            case '"':
+                return TOKEN_STRING;
+            case '[':
+                return TOKEN_BEGIN_ARRAY;
+            case '{':
+                return TOKEN_BEGIN_OBJECT;
+            case 't':
+            case 'f':
+                mPos--;
+                return TOKEN_BOOLEAN;
+            case 'n':
+                mPos--;
+                return TOKEN_NULL;
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) {
+                    mPos--;
+                    return TOKEN_NUMBER;
+                }
+                throw syntaxError("Unexpected character '" + (char) c + "'");
+        }
+    }
+
+    private boolean fillBuffer() throws IOException {
+        mPos = 0;
+        mLimit = mIn.read(mBuffer, 0, mBuffer.length);
+        if (mLimit <= 0) {
+            mLimit = 0;
+            return false;
+        }
+        return true;
+    }
+
+    private int nextNonWhitespace(boolean throwOnEof) throws IOException, JSONException {
+        while (mPos < mLimit || fillBuffer()) {
+            char c = mBuffer[mPos++];
+            if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+                return c;
+            }
+        }
+        if (throwOnEof) {
+            throw syntaxError("End of input");
+        }
+        return -1;
+    }
+
+    private String readQuoted() throws IOException, JSONException {
+        mScratch.setLength(0);
+        while (true) {
+            if (mPos == mLimit && !fillBuffer()) {
+                throw syntaxError("Unterminated string");
+            }
+            // Copy runs of plain characters in one go
+            int start = mPos;
+            while (mPos < mLimit) {
+                char c = mBuffer[mPos];
+                if (c == '"' || c == '\\') {
+                    break;
+                }
+                mPos++;
+            }
+            mScratch.append(mBuffer, start, mPos - start);
+            if (mPos == mLimit) {
+                continue;
+            }
+            char c = mBuffer[mPos++];
+            if (c == '"') {
+                return mScratch.toString();
+            }
+            mScratch.append(readEscapeCharacter());
+        }
+    }
+
+    private void skipQuoted() throws IOException, JSONException {
+        while (true) {
+            if (mPos == mLimit && !fillBuffer()) {
+                throw syntaxError("Unterminated string");
+            }
+            char c = mBuffer[mPos++];
+            if (c == '"') {
+                return;
+            } else if (c == '\\') {
+                readEscapeCharacter();
+            }
+        }
+    }
+
+    private char readEscapeCharacter() throws IOException, JSONException {
+        char escaped = nextChar();
+        switch (escaped) {
+            case 'u':
+                int result = 0;
+                for (int i = 0; i < 4; i++) {
+                    char c = nextChar();
+                    result <<= 4;
+                    if (c >= '0' && c <= '9') {
+                        result += (c - '0');
+                    } else if (c >= 'a' && c <= 'f') {
+                        result += (c - 'a' + 10);
+                    } else if (c >= 'A' && c <= 'F') {
+                        result += (c - 'A' + 10);
+                    } else {
+                        throw syntaxError("Malformed unicode escape");
+                    }
+                }
+                return (char) result;
+            case 't':
+                return '\t';
+            case 'b':
+                return '\b';
+            case 'n':
+                return '\n';
+            case 'r':
+                return '\r';
+            case 'f':
+                return '\f';
+            default:
+                // '"', '\\', '/' and anything else stand for themselves
+                return escaped;
+        }
+    }
+
+    private char nextChar() throws IOException, JSONException {
+        if (mPos == mLimit && !fillBuffer()) {
+            throw syntaxError("Unterminated escape sequence");
+        }
+        return mBuffer[mPos++];
+    }
+
+    /**
+     * Reads an unquoted literal (number, true, false or null) into the scratch buffer.
+     */
+    private void readLiteral() throws IOException {
+        mScratch.setLength(0);
+        while (mPos < mLimit || fillBuffer()) {
+            char c = mBuffer[mPos];
+            if (isLiteralTerminator(c)) {
+                return;
+            }
+            mScratch.append(c);
+            mPos++;
+        }
+    }
+
+    private void skipLiteral() throws IOException {
+        while (mPos < mLimit || fillBuffer()) {
+            if (isLiteralTerminator(mBuffer[mPos])) {
+                return;
+            }
+            mPos++;
+        }
+    }
+
+    private static boolean isLiteralTerminator(char c) {
+        return c == ',' || c == '}' || c == ']' || c == ':'
+                || c == ' ' || c == '\n' || c == '\r' || c == '\t';
+    }
+
+    /**
+     * Decodes a number directly from the buffer.  Plain decimals with few enough digits (which
+     * covers everything OpenWeatherMap sends) never allocate; anything else falls back to
+     * {@link Double#parseDouble}.
+     */
+    private double readNumber() throws IOException, JSONException {
+        mScratch.setLength(0);
+        boolean negative = false;
+        boolean fast = true;
+        long mantissa = 0;
+        int digits = 0;
+        int fractionDigits = 0;
+        boolean inFraction = false;
+        boolean sawDigit = false;
+
+        while (mPos < mLimit || fillBuffer()) {
+            char c = mBuffer[mPos];
+            if (isLiteralTerminator(c)) {
+                break;
+            }
+            mScratch.append(c);
+            mPos++;
+            if (c >= '0' && c <= '9') {
+                sawDigit = true;
+                if (mantissa == 0 && c == '0' && !inFraction) {
+                    // leading zeros don't count towards precision
+                    continue;
+                }
+                mantissa = mantissa * 10 + (c - '0');
+                if (mantissa != 0) {
+                    digits++;
+                }
+                if (inFraction) {
+                    fractionDigits++;
+                }
+                if (digits > MAX_FAST_DIGITS) {
+                    fast = false;
+                }
+            } else if (c == '-' && mScratch.length() == 1) {
+                negative = true;
+            } else if (c == '.' && !inFraction) {
+                inFraction = true;
+            } else {
+                // exponents and anything unusual take the slow path
+                fast = false;
+            }
+        }
+
+        if (fast && sawDigit && fractionDigits < POWERS_OF_TEN.length) {
+            double value = mantissa / POWERS_OF_TEN[fractionDigits];
+            return negative ? -value : value;
+        }
+        try {
+            return Double.parseDouble(mScratch.toString());
+        } catch (NumberFormatException e) {
+            throw syntaxError("Malformed number " + mScratch);
+        }
+    }
+
+    private JSONException syntaxError(String message) {
+        return new JSONException(message + " at character " + mPos);
+    }
+}
@@ -0,0 +1,274 @@
+package com.example.android.sunshine.app.sync;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+
+/**
+ * Streams an OpenWeatherMap daily forecast response and hands each day to a {@link Listener}
+ * as soon as it has been read, so the response never has to be buffered as a String or
+ * turned into a JSONObject tree.
+ */
+class ForecastParser {
+
+    // These are the names of the JSON objects that need to be extracted.
+
+    // Location information
+    private static final String OWM_CITY = "city";
+    private static final String OWM_CITY_NAME = "name";
+    private static final String OWM_COORD = "coord";
+
+    // Location coordinate
+    private static final String OWM_LATITUDE = "lat";
+    private static final String OWM_LONGITUDE = "lon";
+
+    // Weather information.  Each day's forecast info is an element of the "list" array.
+    private static final String OWM_LIST = "list";
+
+    private static final String OWM_PRESSURE = "pressure";
+    private static final String OWM_HUMIDITY = "humidity";
+    private static final String OWM_WINDSPEED = "speed";
+    private static final String OWM_WIND_DIRECTION = "deg";
+
+    // All temperatures are children of the "temp" object.
+    private static final String OWM_TEMPERATURE = "temp";
+    private static final String OWM_MAX = "max";
+    private static final String OWM_MIN = "min";
+
+    private static final String OWM_WEATHER = "weather";
+    private static final String OWM_DESCRIPTION = "main";
+    private static final String OWM_WEATHER_ID = "id";
+
+    private static final String OWM_MESSAGE_CODE = "cod";
+
+    /**
+     * One day of forecast.  A single instance is reused for every day of a response, so
+     * listeners must copy out whatever they want to keep.
+     */
+    static final class Day {
+        int index;
+        double pressure;
+        int humidity;
+        double windSpeed;
+        double windDirection;
+        double high;
+        double low;
+        String description;
+        int weatherId;
+
+        private int mSeen;
+
+        private void reset(int index) {
+            this.index = index;
+            description = null;
+            mSeen = 0;
+        }
+    }
+
+    // Bits recording which required fields a day carried
+    private static final int SEEN_PRESSURE = 1;
+    private static final int SEEN_HUMIDITY = 1 << 1;
+    private static final int SEEN_WIND_SPEED = 1 << 2;
+    private static final int SEEN_WIND_DIRECTION = 1 << 3;
+    private static final int SEEN_TEMPERATURE = 1 << 4;
+    private static final int SEEN_WEATHER = 1 << 5;
+    private static final int SEEN_ALL = (1 << 6) - 1;
+
+    interface Listener {
+        /**
+         * Called once with the city block of the response.  OpenWeatherMap sends it before the
+         * list of days, but callers shouldn't rely on that.
+         */
+        void onCity(String cityName, double latitude, double longitude);
+
+        /**
+         * Called once per forecast day, in order.
+         */
+        void onDay(Day day);
+    }
+
+    private final Day mDay = new Day();
+
+    /**
+     * Parses a forecast from the given stream.  The stream is not closed.
+     *
+     * @return the "cod" of the response, or {@link HttpURLConnection#HTTP_OK} if it had none.
+     * Parsing stops as soon as an error code is seen.
+     */
+    int parse(InputStream in, Listener listener) throws IOException, JSONException {
+        return parse(new InputStreamReader(in, "UTF-8"), listener);
+    }
+
+    int parse(Reader in, Listener listener) throws IOException, JSONException {
+        ForecastJsonReader reader = new ForecastJsonReader(in);
+        boolean sawCity = false;
+        boolean sawList = false;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_MESSAGE_CODE.equals(name)) {
+                int code = reader.nextInt();
+                if (code != HttpURLConnection.HTTP_OK) {
+                    return code;
+                }
+            } else if (OWM_CITY.equals(name)) {
+                readCity(reader, listener);
+                sawCity = true;
+            } else if (OWM_LIST.equals(name)) {
+                readDays(reader, listener);
+                sawList = true;
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (!sawList) {
+            throw new JSONException("No value for " + OWM_LIST);
+        }
+        if (!sawCity) {
+            throw new JSONException("No value for " + OWM_CITY);
+        }
+        return HttpURLConnection.HTTP_OK;
+    }
+
+    private void readCity(ForecastJsonReader reader, Listener listener)
+            throws IOException, JSONException {
+        String cityName = null;
+        double latitude = Double.NaN;
+        double longitude = Double.NaN;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_CITY_NAME.equals(name)) {
+                cityName = reader.nextString();
+            } else if (OWM_COORD.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String coordName = reader.nextName();
+                    if (OWM_LATITUDE.equals(coordName)) {
+                        latitude = reader.nextDouble();
+                    } else if (OWM_LONGITUDE.equals(coordName)) {
+                        longitude = reader.nextDouble();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (cityName == null || Double.isNaN(latitude) || Double.isNaN(longitude)) {
+            throw new JSONException("Incomplete " + OWM_CITY);
+        }
+        listener.onCity(cityName, latitude, longitude);
+    }
+
+    private void readDays(ForecastJsonReader reader, Listener listener)
+            throws IOException, JSONException {
+        final Day day = mDay;
+        int index = 0;
+
+        reader.beginArray();
+        while (reader.hasNext()) {
+            day.reset(index++);
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (OWM_PRESSURE.equals(name)) {
+                    day.pressure = reader.nextDouble();
+                    day.mSeen |= SEEN_PRESSURE;
+                } else if (OWM_HUMIDITY.equals(name)) {
+                    day.humidity = reader.nextInt();
+                    day.mSeen |= SEEN_HUMIDITY;
+                } else if (OWM_WINDSPEED.equals(name)) {
+                    day.windSpeed = reader.nextDouble();
+                    day.mSeen |= SEEN_WIND_SPEED;
+                } else if (OWM_WIND_DIRECTION.equals(name)) {
+                    day.windDirection = reader.nextDouble();
+                    day.mSeen |= SEEN_WIND_DIRECTION;
+                } else if (OWM_TEMPERATURE.equals(name)) {
+                    readTemperature(reader, day);
+                } else if (OWM_WEATHER.equals(name)) {
+                    readWeather(reader, day);
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+
+            if (day.mSeen != SEEN_ALL) {
+                throw new JSONException("Incomplete forecast for day " + day.index);
+            }
+            listener.onDay(day);
+        }
+        reader.endArray();
+    }
+
+    // Temperatures are in a child object called "temp".  Try not to name variables
+    // "temp" when working with temperature.  It confuses everybody.
+    private void readTemperature(ForecastJsonReader reader, Day day)
+            throws IOException, JSONException {
+        boolean sawMax = false;
+        boolean sawMin = false;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_MAX.equals(name)) {
+                day.high = reader.nextDouble();
+                sawMax = true;
+            } else if (OWM_MIN.equals(name)) {
+                day.low = reader.nextDouble();
+                sawMin = true;
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if (sawMax && sawMin) {
+            day.mSeen |= SEEN_TEMPERATURE;
+        }
+    }
+
+    // Description is in a child array called "weather", which is 1 element long.
+    // That element also contains a weather code.
+    private void readWeather(ForecastJsonReader reader, Day day)
+            throws IOException, JSONException {
+        boolean first = true;
+        boolean sawId = false;
+        reader.beginArray();
+        while (reader.hasNext()) {
+            if (!first) {
+                reader.skipValue();
+                continue;
+            }
+            first = false;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (OWM_DESCRIPTION.equals(name)) {
+                    day.description = reader.nextString();
+                } else if (OWM_WEATHER_ID.equals(name)) {
+                    day.weatherId = reader.nextInt();
+                    sawId = true;
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        }
+        reader.endArray();
+        if (sawId && day.description != null) {
+            day.mSeen |= SEEN_WEATHER;
+        }
+    }
+}
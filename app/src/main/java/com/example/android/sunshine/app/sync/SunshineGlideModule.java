@@ -0,0 +1,108 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.GlideBuilder;
+import com.bumptech.glide.Priority;
+import com.bumptech.glide.load.data.DataFetcher;
+import com.bumptech.glide.load.model.GenericLoaderFactory;
+import com.bumptech.glide.load.model.GlideUrl;
+import com.bumptech.glide.load.model.ModelLoader;
+import com.bumptech.glide.load.model.ModelLoaderFactory;
+import com.bumptech.glide.load.model.stream.StreamModelLoader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+
+/**
+ * Sends Glide's URL loads, the weather art in the notification, widgets and lists, through
+ * {@link SunshineHttpClient} so they share its connections and show up in its totals.
+ * Registered in the manifest.
+ */
+public class SunshineGlideModule implements com.bumptech.glide.module.GlideModule {
+
+    @Override
+    public void applyOptions(Context context, GlideBuilder builder) {
+    }
+
+    @Override
+    public void registerComponents(Context context, Glide glide) {
+        glide.register(GlideUrl.class, InputStream.class,
+                new ModelLoaderFactory<GlideUrl, InputStream>() {
+                    @Override
+                    public ModelLoader<GlideUrl, InputStream> build(Context context,
+                            GenericLoaderFactory factories) {
+                        return new UrlLoader(SunshineHttpClient.getInstance());
+                    }
+
+                    @Override
+                    public void teardown() {
+                    }
+                });
+    }
+
+    private static class UrlLoader implements StreamModelLoader<GlideUrl> {
+        private final SunshineHttpClient mClient;
+
+        UrlLoader(SunshineHttpClient client) {
+            mClient = client;
+        }
+
+        @Override
+        public DataFetcher<InputStream> getResourceFetcher(GlideUrl model, int width, int height) {
+            return new UrlFetcher(mClient, model);
+        }
+    }
+
+    private static class UrlFetcher implements DataFetcher<InputStream> {
+        private final SunshineHttpClient mClient;
+        private final GlideUrl mUrl;
+        private SunshineHttpClient.Response mResponse;
+        private volatile boolean mCancelled;
+
+        UrlFetcher(SunshineHttpClient client, GlideUrl url) {
+            mClient = client;
+            mUrl = url;
+        }
+
+        @Override
+        public InputStream loadData(Priority priority) throws Exception {
+            if (mCancelled) {
+                return null;
+            }
+            mResponse = mClient.newCall(new URL(mUrl.toString())).execute();
+            int code = mResponse.getCode();
+            if (code / 100 != 2) {
+                throw new IOException("Request for " + mUrl + " failed with " + code);
+            }
+            return mResponse.getBody();
+        }
+
+        @Override
+        public void cleanup() {
+            if (mResponse != null) {
+                try {
+                    mResponse.close();
+                } catch (IOException e) {
+                    // the connection has been dropped, which is all closing could do anyway
+                }
+            }
+        }
+
+        @Override
+        public String getId() {
+            return mUrl.toString();
+        }
+
+        /**
+         * Glide calls this on the main thread, so it mustn't touch the connection; a load that
+         * has already started just runs to the end.
+         */
+        @Override
+        public void cancel() {
+            mCancelled = true;
+        }
+    }
+}
@@ -0,0 +1,340 @@
+package com.example.android.sunshine.app.sync;
+
+import android.os.SystemClock;
+import android.support.annotation.VisibleForTesting;
+
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.PrintWriter;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * The app's HTTP transport, shared by the forecast sync and the weather art downloads.
+ * <p/>
+ * Connections are never torn down after a clean exchange: a closed response drains what is
+ * left of its body and hands the connection back to the platform's keep-alive pool, so
+ * consecutive requests to the same host skip the TCP handshake.  Responses are requested
+ * gzipped and inflated here, and each request is timed from connecting to the end of its body.
+ */
+public final class SunshineHttpClient {
+
+    static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 15 * 1000;
+    static final int DEFAULT_READ_TIMEOUT_MILLIS = 20 * 1000;
+
+    private static final String HEADER_ACCEPT_ENCODING = "Accept-Encoding";
+    private static final String HEADER_CONTENT_ENCODING = "Content-Encoding";
+    private static final String GZIP = "gzip";
+
+    // Unread body left when a response is closed is drained, up to this much, so the
+    // connection can be reused; past that it's cheaper to drop the connection.
+    private static final int MAX_DRAIN_BYTES = 64 * 1024;
+
+    private static SunshineHttpClient sInstance;
+
+    // Totals for dump()
+    private final AtomicLong mRequests = new AtomicLong();
+    private final AtomicLong mFailures = new AtomicLong();
+    private final AtomicLong mGzipResponses = new AtomicLong();
+    private final AtomicLong mWireBytes = new AtomicLong();
+    private final AtomicLong mConnectMillis = new AtomicLong();
+    private final AtomicLong mFirstByteMillis = new AtomicLong();
+
+    public static synchronized SunshineHttpClient getInstance() {
+        if (sInstance == null) {
+            sInstance = new SunshineHttpClient();
+        }
+        return sInstance;
+    }
+
+    /**
+     * Use {@link #getInstance()}; separate instances are only for tests that count requests.
+     */
+    @VisibleForTesting
+    SunshineHttpClient() {
+    }
+
+    public Call newCall(URL url) {
+        return new Call(url);
+    }
+
+    /**
+     * Prints the totals of every request made through this client.
+     */
+    void dump(PrintWriter writer) {
+        long requests = mRequests.get();
+        long answered = Math.max(1, requests - mFailures.get());
+        writer.println(String.format(Locale.US,
+                "HTTP: %d requests, %d failed, %d gzipped, %d bytes on the wire, " +
+                        "mean connect %dms, mean time to first byte %dms",
+                requests, mFailures.get(), mGzipResponses.get(), mWireBytes.get(),
+                mConnectMillis.get() / answered, mFirstByteMillis.get() / answered));
+    }
+
+    /**
+     * How long each phase of a request took.  Phases that haven't happened yet are -1.
+     */
+    public static final class Timing {
+        // Always -1: HttpURLConnection resolves the host itself, only for a new connection,
+        // and doesn't say how long that took
+        public volatile long dnsMillis = -1;
+        // Includes any DNS lookup; ~0 when a pooled connection was reused
+        public volatile long connectMillis = -1;
+        public volatile long firstByteMillis = -1;
+        public volatile long bodyMillis = -1;
+        public volatile long wireBytes;
+        public volatile boolean gzipped;
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US,
+                    "dns %dms, connect %dms, first byte %dms, body %dms, %d bytes%s",
+                    dnsMillis, connectMillis, firstByteMillis, bodyMillis, wireBytes,
+                    gzipped ? " gzipped" : "");
+        }
+    }
+
+    /**
+     * One request.  It can be cancelled from another thread while it is in flight.
+     */
+    public final class Call {
+        private final URL mUrl;
+        private final Map<String, String> mHeaders = new LinkedHashMap<String, String>();
+        private int mConnectTimeoutMillis = DEFAULT_CONNECT_TIMEOUT_MILLIS;
+        private int mReadTimeoutMillis = DEFAULT_READ_TIMEOUT_MILLIS;
+        private HttpURLConnection mConnection;
+        private boolean mCancelled;
+
+        private Call(URL url) {
+            mUrl = url;
+        }
+
+        public Call header(String name, String value) {
+            mHeaders.put(name, value);
+            return this;
+        }
+
+        public Call timeouts(int connectTimeoutMillis, int readTimeoutMillis) {
+            mConnectTimeoutMillis = connectTimeoutMillis;
+            mReadTimeoutMillis = readTimeoutMillis;
+            return this;
+        }
+
+        /**
+         * Sends the request and waits for the response headers.
+         *
+         * @return the response, which the caller must close.
+         */
+        public Response execute() throws IOException {
+            mRequests.incrementAndGet();
+            Timing timing = new Timing();
+            try {
+                HttpURLConnection connection = (HttpURLConnection) mUrl.openConnection();
+                synchronized (this) {
+                    if (mCancelled) {
+                        throw new InterruptedIOException("Cancelled");
+                    }
+                    mConnection = connection;
+                }
+                try {
+                    connection.setConnectTimeout(mConnectTimeoutMillis);
+                    connection.setReadTimeout(mReadTimeoutMillis);
+                    // Asking for gzip ourselves turns off the platform's transparent inflation,
+                    // which some releases don't do anyway, so it's handled the same everywhere
+                    connection.setRequestProperty(HEADER_ACCEPT_ENCODING, GZIP);
+                    for (Map.Entry<String, String> header : mHeaders.entrySet()) {
+                        connection.setRequestProperty(header.getKey(), header.getValue());
+                    }
+
+                    long start = SystemClock.elapsedRealtime();
+                    connection.connect();
+                    timing.connectMillis = SystemClock.elapsedRealtime() - start;
+
+                    start = SystemClock.elapsedRealtime();
+                    int code = connection.getResponseCode();
+                    timing.firstByteMillis = SystemClock.elapsedRealtime() - start;
+
+                    mConnectMillis.addAndGet(timing.connectMillis);
+                    mFirstByteMillis.addAndGet(timing.firstByteMillis);
+                    return new Response(connection, code, timing);
+                } catch (IOException e) {
+                    connection.disconnect();
+                    throw e;
+                }
+            } catch (IOException e) {
+                mFailures.incrementAndGet();
+                throw e;
+            }
+        }
+
+        /**
+         * Drops the request's connection, failing the request if it is still in flight or
+         * cutting its body short if it has answered.
+         */
+        public void cancel() {
+            HttpURLConnection connection;
+            synchronized (this) {
+                mCancelled = true;
+                connection = mConnection;
+            }
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    public final class Response implements Closeable {
+        private final HttpURLConnection mConnection;
+        private final int mCode;
+        private final Timing mTiming;
+        private final long mHeadersAt = SystemClock.elapsedRealtime();
+        private CountingInputStream mWireStream;
+        private InputStream mBody;
+        private boolean mClosed;
+
+        private Response(HttpURLConnection connection, int code, Timing timing) {
+            mConnection = connection;
+            mCode = code;
+            mTiming = timing;
+        }
+
+        public int getCode() {
+            return mCode;
+        }
+
+        public String getHeaderField(String name) {
+            return mConnection.getHeaderField(name);
+        }
+
+        public Timing getTiming() {
+            return mTiming;
+        }
+
+        /**
+         * @return the inflated response body, or null if there is none.  Error responses
+         * carry a body too, so they are returned rather than thrown.
+         */
+        public InputStream getBody() throws IOException {
+            if (mBody == null) {
+                InputStream wireStream = openWireStream();
+                if (wireStream == null) {
+                    return null;
+                }
+                if (GZIP.equalsIgnoreCase(mConnection.getHeaderField(HEADER_CONTENT_ENCODING))) {
+                    mTiming.gzipped = true;
+                    mGzipResponses.incrementAndGet();
+                    mBody = new GZIPInputStream(wireStream);
+                } else {
+                    mBody = wireStream;
+                }
+            }
+            return mBody;
+        }
+
+        private InputStream openWireStream() throws IOException {
+            if (mWireStream == null && !mClosed) {
+                InputStream in = mCode >= HttpURLConnection.HTTP_BAD_REQUEST
+                        ? mConnection.getErrorStream() : mConnection.getInputStream();
+                if (in != null) {
+                    mWireStream = new CountingInputStream(in);
+                }
+            }
+            return mWireStream;
+        }
+
+        /**
+         * @return how many bytes of body have come over the wire so far, before inflation.
+         */
+        public long getWireBytes() {
+            return mWireStream == null ? 0 : mWireStream.mCount;
+        }
+
+        /**
+         * Finishes the exchange.  The rest of the body is drained so the connection can go
+         * back to the pool; a body too big to be worth draining drops the connection instead.
+         */
+        @Override
+        public void close() throws IOException {
+            if (mClosed) {
+                return;
+            }
+            try {
+                // Even a bodiless response such as a 304 needs its stream read to the end
+                // before the connection is reused
+                openWireStream();
+                mClosed = true;
+                if (mWireStream != null) {
+                    if (!drain(mWireStream)) {
+                        mConnection.disconnect();
+                    }
+                    mWireStream.close();
+                }
+            } catch (IOException e) {
+                mConnection.disconnect();
+                throw e;
+            } finally {
+                mClosed = true;
+                mTiming.wireBytes = getWireBytes();
+                mTiming.bodyMillis = SystemClock.elapsedRealtime() - mHeadersAt;
+                mWireBytes.addAndGet(mTiming.wireBytes);
+            }
+        }
+    }
+
+    /**
+     * @return true if the stream was read to its end.
+     */
+    private static boolean drain(InputStream in) throws IOException {
+        byte[] buffer = new byte[4096];
+        int drained = 0;
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            drained += read;
+            if (drained > MAX_DRAIN_BYTES) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+        volatile long mCount;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                mCount++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            int read = super.read(buffer, offset, count);
+            if (read > 0) {
+                mCount += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long byteCount) throws IOException {
+            long skipped = super.skip(byteCount);
+            mCount += skipped;
+            return skipped;
+        }
+    }
+}
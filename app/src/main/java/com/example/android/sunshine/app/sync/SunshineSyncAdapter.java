@@ -3,6 +3,7 @@ package com.example.android.sunshine.app.sync;
 import android.accounts.Account;
 import android.accounts.AccountManager;
 import android.annotation.SuppressLint;
+import android.annotation.TargetApi;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.content.AbstractThreadedSyncAdapter;
@@ -22,11 +23,12 @@ import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.preference.PreferenceManager;
 import android.support.annotation.IntDef;
+import android.support.annotation.VisibleForTesting;
 import android.support.v4.app.NotificationCompat;
 import android.support.v4.app.TaskStackBuilder;
-import android.text.format.Time;
 import android.util.Log;
 import android.widget.Toast;
 
@@ -36,6 +38,8 @@ import com.example.android.sunshine.app.BuildConfig;
 import com.example.android.sunshine.app.MainActivity;
 import com.example.android.sunshine.app.R;
 import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.DayBoundaries;
+import com.example.android.sunshine.app.data.ForecastBatch;
 import com.example.android.sunshine.app.data.WeatherContract;
 import com.example.android.sunshine.app.muzei.WeatherMuzeiSource;
 import com.google.android.gms.common.ConnectionResult;
@@ -47,26 +51,33 @@ import com.google.android.gms.wearable.PutDataMapRequest;
 import com.google.android.gms.wearable.PutDataRequest;
 import com.google.android.gms.wearable.Wearable;
 
-import org.json.JSONArray;
 import org.json.JSONException;
-import org.json.JSONObject;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.net.HttpURLConnection;
-import java.net.URL;
-import java.util.Vector;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements GoogleApiClient.ConnectionCallbacks,
         GoogleApiClient.OnConnectionFailedListener {
     private static final String PATH_WEATHER = "/todayWeather";
     ;
     private GoogleApiClient mGoogleApiClient;
+    private ForecastFetcher mForecastFetcher = new ForecastFetcher();
+    private final FanOutDispatcher mFanOutDispatcher;
+    private final SyncScheduler mSyncScheduler;
+    private CircuitBreaker mCircuitBreaker;
     public final String LOG_TAG = SunshineSyncAdapter.class.getSimpleName();
     public static final String ACTION_DATA_UPDATED =
             "com.example.android.sunshine.app.ACTION_DATA_UPDATED";
@@ -77,12 +88,19 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
     private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
     private static final int WEATHER_NOTIFICATION_ID = 3004;
 
+    // Sync extra listing the location settings to refresh.  Without it every location in the
+    // database is refreshed, along with the preferred one.
+    public static final String EXTRA_LOCATIONS =
+            "com.example.android.sunshine.app.sync.extra.LOCATIONS";
+    // Upper bound on the number of locations fetched at the same time
+    private static final int MAX_PARALLEL_SYNCS = 4;
+
 
     private static final String[] NOTIFY_WEATHER_PROJECTION = new String[]{
-            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
-            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC
+            WeatherContract.CurrentEntry.COLUMN_WEATHER_ID,
+            WeatherContract.CurrentEntry.COLUMN_MAX_TEMP,
+            WeatherContract.CurrentEntry.COLUMN_MIN_TEMP,
+            WeatherContract.CurrentEntry.COLUMN_SHORT_DESC
     };
 
     // these indices must match the projection
@@ -107,7 +125,7 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
     }
 
     @Retention(RetentionPolicy.SOURCE)
-    @IntDef({LOCATION_STATUS_OK, LOCATION_STATUS_SERVER_DOWN, LOCATION_STATUS_SERVER_INVALID, LOCATION_STATUS_UNKNOWN, LOCATION_STATUS_INVALID})
+    @IntDef({LOCATION_STATUS_OK, LOCATION_STATUS_SERVER_DOWN, LOCATION_STATUS_SERVER_INVALID, LOCATION_STATUS_UNKNOWN, LOCATION_STATUS_INVALID, LOCATION_STATUS_SERVER_BACKOFF})
     public @interface LocationStatus {
     }
 
@@ -116,185 +134,496 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
     public static final int LOCATION_STATUS_SERVER_INVALID = 2;
     public static final int LOCATION_STATUS_UNKNOWN = 3;
     public static final int LOCATION_STATUS_INVALID = 4;
+    // The server kept failing, so syncs are held off for a while
+    public static final int LOCATION_STATUS_SERVER_BACKOFF = 5;
 
     public SunshineSyncAdapter(Context context, boolean autoInitialize) {
         super(context, autoInitialize);
+        mFanOutDispatcher = new FanOutDispatcher(context);
+        mSyncScheduler = new SyncScheduler(
+                context.getSharedPreferences(SyncScheduler.PREFS_NAME, Context.MODE_PRIVATE),
+                Clock.SYSTEM, SYNC_INTERVAL);
+        mCircuitBreaker = createCircuitBreaker(mForecastFetcher);
+    }
+
+    private CircuitBreaker createCircuitBreaker(ForecastFetcher forecastFetcher) {
+        return new CircuitBreaker(
+                getContext().getSharedPreferences(CircuitBreaker.PREFS_NAME, Context.MODE_PRIVATE),
+                forecastFetcher.getEndpoint(), Clock.SYSTEM, new Random());
     }
 
     @Override
     public void onPerformSync(Account account, Bundle extras, String authority, ContentProviderClient provider, SyncResult syncResult) {
         Log.d(LOG_TAG, "Starting sync");
-        String locationQuery = Utility.getPreferredLocation(getContext());
+        String preferredLocation = Utility.getPreferredLocation(getContext());
         mGoogleApiClient = new GoogleApiClient.Builder(getContext())
                 .addApi(Wearable.API)
                 .addConnectionCallbacks(this)
                 .addOnConnectionFailedListener(this)
                 .build();
-        // These two need to be declared outside the try/catch
-        // so that they can be closed in the finally block.
-        HttpURLConnection urlConnection = null;
-        BufferedReader reader = null;
 
-        // Will contain the raw JSON response as a string.
-        String forecastJsonStr = null;
-
-        String format = "json";
-        String units = "metric";
-        int numDays = 14;
-
-        try {
-            // Construct the URL for the OpenWeatherMap query
-            // Possible parameters are avaiable at OWM's forecast API page, at
-            // http://openweathermap.org/API#forecast
-            final String FORECAST_BASE_URL =
-                    "http://api.openweathermap.org/data/2.5/forecast/daily?";
-            final String QUERY_PARAM = "q";
-            final String FORMAT_PARAM = "mode";
-            final String UNITS_PARAM = "units";
-            final String DAYS_PARAM = "cnt";
-            final String APPID_PARAM = "APPID";
-
-            Uri builtUri = Uri.parse(FORECAST_BASE_URL).buildUpon()
-                    .appendQueryParameter(QUERY_PARAM, locationQuery)
-                    .appendQueryParameter(FORMAT_PARAM, format)
-                    .appendQueryParameter(UNITS_PARAM, units)
-                    .appendQueryParameter(DAYS_PARAM, Integer.toString(numDays))
-                    .appendQueryParameter(APPID_PARAM, "7bbb48bd7c9d35c91098bbbedeae6d43"/*BuildConfig.OPEN_WEATHER_MAP_API_KEY*/)
-                    .build();
-
-            URL url = new URL(builtUri.toString());
-
-            // Create the request to OpenWeatherMap, and open the connection
-            urlConnection = (HttpURLConnection) url.openConnection();
-            urlConnection.setRequestMethod("GET");
-            urlConnection.connect();
-
-            // Read the input stream into a String
-            InputStream inputStream = urlConnection.getInputStream();
-            StringBuffer buffer = new StringBuffer();
-            if (inputStream == null) {
-                // Nothing to do.
-                return;
+        SyncRun run = new SyncRun();
+        List<String> locations = getLocationsToSync(extras, preferredLocation);
+        List<LocationSyncResult> results = syncLocations(locations, preferredLocation, run);
+
+        boolean preferredStored = false;
+        for (LocationSyncResult result : results) {
+            // SyncStats only carries counters, so latencies go to the log and the sync history
+            syncResult.stats.numEntries += result.inserted + result.updated + result.unchanged;
+            syncResult.stats.numInserts += result.inserted;
+            syncResult.stats.numUpdates += result.updated;
+            syncResult.stats.numSkippedEntries += result.unchanged;
+            if (result.status == LOCATION_STATUS_SERVER_DOWN) {
+                syncResult.stats.numIoExceptions++;
+            } else if (result.status == LOCATION_STATUS_SERVER_INVALID) {
+                syncResult.stats.numParseExceptions++;
             }
-            reader = new BufferedReader(new InputStreamReader(inputStream));
-
-            String line;
-            while ((line = reader.readLine()) != null) {
-                // Since it's JSON, adding a newline isn't necessary (it won't affect parsing)
-                // But it does make debugging a *lot* easier if you print out the completed
-                // buffer for debugging.
-                buffer.append(line + "\n");
+            Log.d(LOG_TAG, "Synced " + result.locationSetting + " in " + result.elapsedMillis +
+                    "ms: status " + result.status + ", " + result.inserted + " inserted, " +
+                    result.updated + " updated, " + result.unchanged + " unchanged");
+
+            // Only the location the user is looking at drives the status shown in the UI
+            if (result.locationSetting.equals(preferredLocation)) {
+                if (result.status != LOCATION_STATUS_UNKNOWN) {
+                    setLocationStatus(getContext(), result.status);
+                }
+                preferredStored = result.stored;
+                reschedule(result);
             }
+        }
 
-            if (buffer.length() == 0) {
-                // Stream was empty.  No point in parsing.
-                setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                return;
+        if (mCircuitBreaker.getState() == CircuitBreaker.STATE_OPEN) {
+            // Tell the sync manager not to retry before the breaker would let it through anyway
+            syncResult.delayUntil = mCircuitBreaker.getRetryAtMillis() / 1000;
+        }
+
+        if (preferredStored) {
+            try {
+                runStages(mPostSyncStages, null, run);
+            } catch (IOException | JSONException e) {
+                Log.e(LOG_TAG, "Error cleaning up after sync", e);
             }
-            forecastJsonStr = buffer.toString();
-            getWeatherDataFromJson(forecastJsonStr, locationQuery);
-        } catch (IOException e) {
-            Log.e(LOG_TAG, "Error ", e);
-            // If the code didn't successfully get the weather data, there's no point in attempting
-            // to parse it.
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-        } catch (JSONException e) {
-            Log.e(LOG_TAG, e.getMessage(), e);
-            e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
-        } finally {
-            if (urlConnection != null) {
-                urlConnection.disconnect();
+
+            // Widgets, Muzei, the notification and the watch face all show the preferred
+            // location, so there's nothing to refresh unless some day of its forecast changed.
+            // They're told in the background; the sync is done once the data is committed.
+            for (Consumer consumer : mConsumers) {
+                mFanOutDispatcher.dispatch(run, consumer, consumer.mTimeoutMillis);
             }
-            if (reader != null) {
-                try {
-                    reader.close();
-                } catch (final IOException e) {
-                    Log.e(LOG_TAG, "Error closing stream", e);
-                }
+        }
+
+        run.finish(results.size());
+        SunshineSyncService.getSyncHistory().add(run);
+        Log.d(LOG_TAG, "Sync Complete. " + results.size() + " locations in " +
+                run.getElapsedNanos() / 1000000 + "ms");
+    }
+
+    /**
+     * Tells the scheduler how the preferred location's forecast moved, and moves the periodic
+     * sync if it picks a new interval.
+     */
+    private void reschedule(LocationSyncResult result) {
+        int interval = mSyncScheduler.getInterval();
+        int nextInterval;
+        if (result.status != LOCATION_STATUS_OK) {
+            nextInterval = mSyncScheduler.onFailed();
+        } else if (result.collector == null) {
+            // not modified
+            nextInterval = mSyncScheduler.onUnchanged(result.locationSetting);
+        } else {
+            ForecastBatch batch = result.collector.mForecast;
+            List<SyncScheduler.Day> forecast = new ArrayList<SyncScheduler.Day>(batch.size());
+            for (int i = 0; i < batch.size(); i++) {
+                forecast.add(new SyncScheduler.Day(batch.getDate(i), batch.getWeatherId(i),
+                        batch.getMaxTemp(i), batch.getMinTemp(i)));
             }
+            nextInterval = mSyncScheduler.onForecast(result.locationSetting, forecast);
+        }
+        if (nextInterval != interval) {
+            Log.d(LOG_TAG, "Sync interval now " + nextInterval + "s, was " + interval + "s");
+            configurePeriodicSync(getContext(), nextInterval, nextInterval / 3);
         }
-        return;
     }
 
     /**
-     * Take the String representing the complete forecast in JSON Format and
-     * pull out the data we need to construct the Strings needed for the wireframes.
-     * <p>
-     * Fortunately parsing is easy:  constructor takes the JSON string and converts it
-     * into an Object hierarchy for us.
+     * The outcome of syncing one location, along with what its stages hand to each other.
      */
-    private void getWeatherDataFromJson(String forecastJsonStr,
-                                        String locationSetting)
-            throws JSONException {
+    static final class LocationSyncResult {
+        final String locationSetting;
+        @LocationStatus
+        int status = LOCATION_STATUS_UNKNOWN;
+        // true if any day was written, false if the sync failed or nothing changed
+        boolean stored;
+        int inserted;
+        int updated;
+        int unchanged;
+        long elapsedMillis;
+
+        // Passed between stages
+        ForecastFetcher.Response response;
+        ForecastCollector collector;
+
+        LocationSyncResult(String locationSetting) {
+            this.locationSetting = locationSetting;
+        }
+    }
 
-        // Now we have a String representing the complete forecast in JSON Format.
-        // Fortunately parsing is easy:  constructor takes the JSON string and converts it
-        // into an Object hierarchy for us.
+    /**
+     * A stage that knows its own name.
+     */
+    private abstract static class NamedStage implements SyncStage {
+        private final String mName;
 
-        // These are the names of the JSON objects that need to be extracted.
+        NamedStage(String name) {
+            mName = name;
+        }
 
-        // Location information
-        final String OWM_CITY = "city";
-        final String OWM_CITY_NAME = "name";
-        final String OWM_COORD = "coord";
+        @Override
+        public String getName() {
+            return mName;
+        }
+    }
 
-        // Location coordinate
-        final String OWM_LATITUDE = "lat";
-        final String OWM_LONGITUDE = "lon";
+    // Run for each location, in order.
+    private final SyncStage[] mLocationStages = {
+            new NamedStage("fetch") {
+                @Override
+                public boolean run(LocationSyncResult result, SyncRun.StageRecord record)
+                        throws IOException {
+                    // Replay the validators of the forecast we already hold, if any, so an
+                    // unchanged forecast costs a bodiless 304 instead of a download, parse
+                    // and rewrite.
+                    String[] validators = getValidators(result.locationSetting);
+                    // A probe of a half-open breaker has to stay a single request
+                    boolean mayHedge = mCircuitBreaker.getState() == CircuitBreaker.STATE_CLOSED;
+                    result.response = mForecastFetcher.fetch(result.locationSetting,
+                            validators[0], validators[1], mayHedge);
+                    Log.v(LOG_TAG, "Forecast for " + result.locationSetting + ": "
+                            + result.response.getTiming());
+                    if (result.response.isNotModified()) {
+                        Log.d(LOG_TAG, "Forecast for " + result.locationSetting + " not modified");
+                        result.status = LOCATION_STATUS_OK;
+                        return false;
+                    }
+                    return true;
+                }
+            },
+            new NamedStage("parse") {
+                @Override
+                public boolean run(LocationSyncResult result, SyncRun.StageRecord record)
+                        throws IOException, JSONException {
+                    try {
+                        return getWeatherDataFromStream(result);
+                    } finally {
+                        record.setBytes(result.response.getBytesRead());
+                        if (result.collector != null) {
+                            record.setRows(result.collector.mForecast.size());
+                        }
+                    }
+                }
+            },
+            new NamedStage("store") {
+                @Override
+                public boolean run(LocationSyncResult result, SyncRun.StageRecord record) {
+                    storeWeather(result);
+                    setValidators(result.locationSetting, result.response.getETag(),
+                            result.response.getLastModified());
+                    result.status = LOCATION_STATUS_OK;
+                    record.setRows(result.inserted + result.updated);
+                    return true;
+                }
+            }
+    };
 
-        // Weather information.  Each day's forecast info is an element of the "list" array.
-        final String OWM_LIST = "list";
+    // Run once per sync on the sync thread, after the preferred location's forecast changed.
+    private final SyncStage[] mPostSyncStages = {
+            new NamedStage("prune") {
+                @Override
+                public boolean run(LocationSyncResult result, SyncRun.StageRecord record) {
+                    // move old data into the history so the weather table stays small
+                    record.setRows(archiveOldWeather());
+                    return true;
+                }
+            }
+    };
 
-        final String OWM_PRESSURE = "pressure";
-        final String OWM_HUMIDITY = "humidity";
-        final String OWM_WINDSPEED = "speed";
-        final String OWM_WIND_DIRECTION = "deg";
+    /**
+     * Something that shows the preferred location's weather and has to be told it changed.
+     */
+    private abstract static class Consumer extends NamedStage {
+        final long mTimeoutMillis;
 
-        // All temperatures are children of the "temp" object.
-        final String OWM_TEMPERATURE = "temp";
-        final String OWM_MAX = "max";
-        final String OWM_MIN = "min";
+        Consumer(String name, long timeoutMillis) {
+            super(name);
+            mTimeoutMillis = timeoutMillis;
+        }
+    }
 
-        final String OWM_WEATHER = "weather";
-        final String OWM_DESCRIPTION = "main";
-        final String OWM_WEATHER_ID = "id";
+    // Handed to mFanOutDispatcher once the post-sync stages are done.  The notification gets
+    // the longest timeout since it may download its large icon.
+    private final Consumer[] mConsumers = {
+            new Consumer("widgets", 5 * 1000) {
+                @Override
+                public boolean run(LocationSyncResult result, SyncRun.StageRecord record) {
+                    updateWidgets();
+                    return true;
+                }
+            },
+            new Consumer("muzei", 5 * 1000) {
+                @Override
+                public boolean run(LocationSyncResult result, SyncRun.StageRecord record) {
+                    updateMuzei();
+                    return true;
+                }
+            },
+            new Consumer("notification", 30 * 1000) {
+                @Override
+                public boolean run(LocationSyncResult result, SyncRun.StageRecord record) {
+                    notifyWeather();
+                    return true;
+                }
+            },
+            new Consumer("watchface", 15 * 1000) {
+                @Override
+                public boolean run(LocationSyncResult result, SyncRun.StageRecord record) {
+                    Utility.updateWatchFace(mGoogleApiClient, getContext());
+                    return true;
+                }
+            }
+    };
 
-        final String OWM_MESSAGE_CODE = "cod";
+    /**
+     * Runs the stages in order, timing each into the run, until one of them reports that
+     * there's nothing more to do.
+     */
+    private static void runStages(SyncStage[] stages, LocationSyncResult result, SyncRun run)
+            throws IOException, JSONException {
+        String location = result != null ? result.locationSetting : null;
+        for (SyncStage stage : stages) {
+            SyncRun.StageRecord record = run.beginStage(location, stage.getName());
+            boolean proceed;
+            try {
+                proceed = stage.run(result, record);
+            } finally {
+                record.end();
+            }
+            if (!proceed) {
+                return;
+            }
+        }
+    }
 
+    /**
+     * @return the location settings to refresh: the ones passed in {@link #EXTRA_LOCATIONS} if
+     * any, otherwise the preferred location followed by every other location we hold weather for.
+     */
+    private List<String> getLocationsToSync(Bundle extras, String preferredLocation) {
+        LinkedHashSet<String> locations = new LinkedHashSet<String>();
+        String[] requested = extras != null ? extras.getStringArray(EXTRA_LOCATIONS) : null;
+        if (requested != null && requested.length > 0) {
+            Collections.addAll(locations, requested);
+        } else {
+            locations.add(preferredLocation);
+            Cursor cursor = getContext().getContentResolver().query(
+                    WeatherContract.LocationEntry.CONTENT_URI,
+                    new String[]{WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING},
+                    null, null, null);
+            if (cursor != null) {
+                while (cursor.moveToNext()) {
+                    locations.add(cursor.getString(0));
+                }
+                cursor.close();
+            }
+        }
+        return new ArrayList<String>(locations);
+    }
+
+    /**
+     * Syncs the given locations on a bounded pool, sharing this adapter's fetcher.  Each location
+     * is stored in its own transaction, so a failure in one doesn't hold back the others.
+     * <p/>
+     * A half-open circuit breaker lets a single probe through, so the preferred location, whose
+     * status the UI shows, is then synced on its own first and the others wait to see how it went.
+     */
+    private List<LocationSyncResult> syncLocations(List<String> locations,
+            String preferredLocation, final SyncRun run) {
+        List<LocationSyncResult> results = new ArrayList<LocationSyncResult>(locations.size());
+        if (locations.size() > 1 && locations.contains(preferredLocation)
+                && mCircuitBreaker.getState() == CircuitBreaker.STATE_HALF_OPEN) {
+            syncLocationSafely(preferredLocation, run, results);
+            locations = new ArrayList<String>(locations);
+            locations.remove(preferredLocation);
+        }
+        if (locations.size() == 1) {
+            syncLocationSafely(locations.get(0), run, results);
+            return results;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.min(MAX_PARALLEL_SYNCS, locations.size()));
         try {
-            JSONObject forecastJson = new JSONObject(forecastJsonStr);
-
-            // do we have an error?
-            if (forecastJson.has(OWM_MESSAGE_CODE)) {
-                int errorCode = forecastJson.getInt(OWM_MESSAGE_CODE);
-
-                switch (errorCode) {
-                    case HttpURLConnection.HTTP_OK:
-                        break;
-                    case HttpURLConnection.HTTP_NOT_FOUND:
-                        setLocationStatus(getContext(), LOCATION_STATUS_INVALID);
-                        return;
-                    default:
-                        setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                        return;
+            List<Future<LocationSyncResult>> futures =
+                    new ArrayList<Future<LocationSyncResult>>(locations.size());
+            for (final String location : locations) {
+                futures.add(executor.submit(new Callable<LocationSyncResult>() {
+                    @Override
+                    public LocationSyncResult call() {
+                        return syncLocation(location, run);
+                    }
+                }));
+            }
+            for (Future<LocationSyncResult> future : futures) {
+                try {
+                    results.add(future.get());
+                } catch (ExecutionException e) {
+                    Log.e(LOG_TAG, "Error syncing location", e.getCause());
                 }
             }
+        } catch (InterruptedException e) {
+            // The sync was cancelled; keep whatever finished
+            Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdownNow();
+        }
+        return results;
+    }
 
-            JSONArray weatherArray = forecastJson.getJSONArray(OWM_LIST);
+    /**
+     * Syncs a location on this thread and adds its result, logging an unexpected error the way
+     * {@link #syncLocations} does for one synced on the pool.
+     */
+    private void syncLocationSafely(String location, SyncRun run,
+            List<LocationSyncResult> results) {
+        try {
+            results.add(syncLocation(location, run));
+        } catch (RuntimeException e) {
+            Log.e(LOG_TAG, "Error syncing location", e);
+        }
+    }
+
+    /**
+     * Fetches and stores the forecast for one location by running it through
+     * {@link #mLocationStages}.  Safe to call concurrently for different locations.
+     */
+    private LocationSyncResult syncLocation(String locationQuery, SyncRun run) {
+        LocationSyncResult result = new LocationSyncResult(locationQuery);
+        long start = SystemClock.elapsedRealtime();
+
+        if (!mCircuitBreaker.allowRequest()) {
+            Log.d(LOG_TAG, "Not syncing " + locationQuery + ", " +
+                    mCircuitBreaker.getEndpoint() + " is backing off");
+            result.status = LOCATION_STATUS_SERVER_BACKOFF;
+            return result;
+        }
 
-            JSONObject cityJson = forecastJson.getJSONObject(OWM_CITY);
-            String cityName = cityJson.getString(OWM_CITY_NAME);
+        try {
+            runStages(mLocationStages, result, run);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error ", e);
+            // If the code didn't successfully get the weather data, there's no point in attempting
+            // to parse it.
+            result.status = LOCATION_STATUS_SERVER_DOWN;
+        } catch (JSONException e) {
+            Log.e(LOG_TAG, e.getMessage(), e);
+            e.printStackTrace();
+            result.status = LOCATION_STATUS_SERVER_INVALID;
+        } finally {
+            if (result.response != null) {
+                try {
+                    result.response.close();
+                } catch (final IOException e) {
+                    Log.e(LOG_TAG, "Error closing stream", e);
+                }
+            }
+            result.elapsedMillis = SystemClock.elapsedRealtime() - start;
+
+            // Reported even when a stage throws something unexpected, or a probe would hold
+            // the breaker half-open until it timed out.  Anything the server answered, even
+            // with bad data or an unknown location, shows it's up; connection failures, error
+            // codes and errors before any answer count against it.
+            if (result.status == LOCATION_STATUS_SERVER_DOWN || result.response == null) {
+                mCircuitBreaker.onFailure();
+            } else {
+                mCircuitBreaker.onSuccess();
+            }
+        }
+        return result;
+    }
 
-            JSONObject cityCoord = cityJson.getJSONObject(OWM_COORD);
-            double cityLatitude = cityCoord.getDouble(OWM_LATITUDE);
-            double cityLongitude = cityCoord.getDouble(OWM_LONGITUDE);
+    /**
+     * Replaces the forecast endpoint, so tests can sync against a local server.
+     */
+    @VisibleForTesting
+    void setForecastFetcher(ForecastFetcher forecastFetcher) {
+        mForecastFetcher = forecastFetcher;
+        mCircuitBreaker = createCircuitBreaker(forecastFetcher);
+    }
 
-            long locationId = addLocation(locationSetting, cityName, cityLatitude, cityLongitude);
+    /**
+     * Waits for the consumers told about the last sync to finish or time out.
+     *
+     * @return false if some were still running when the wait expired.
+     */
+    @VisibleForTesting
+    boolean awaitFanOut(long timeoutMillis) throws InterruptedException {
+        return mFanOutDispatcher.awaitIdle(timeoutMillis);
+    }
 
-            // Insert the new weather information into the database
-            Vector<ContentValues> cVVector = new Vector<ContentValues>(weatherArray.length());
+    /**
+     * @return the ETag and Last-Modified stored with the current forecast for the location
+     * setting.  Either may be null.
+     */
+    private String[] getValidators(String locationSetting) {
+        String[] validators = new String[2];
+        Cursor cursor = getContext().getContentResolver().query(
+                WeatherContract.ValidatorEntry.CONTENT_URI,
+                new String[]{WeatherContract.ValidatorEntry.COLUMN_ETAG,
+                        WeatherContract.ValidatorEntry.COLUMN_LAST_MODIFIED},
+                WeatherContract.ValidatorEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{locationSetting},
+                null);
+        if (cursor != null) {
+            if (cursor.moveToFirst()) {
+                validators[0] = cursor.getString(0);
+                validators[1] = cursor.getString(1);
+            }
+            cursor.close();
+        }
+        return validators;
+    }
 
+    /**
+     * Records the validators of the forecast just stored for the location setting.  A response
+     * without any clears the old ones, since they no longer describe what we hold.
+     */
+    private void setValidators(String locationSetting, String etag, String lastModified) {
+        ContentResolver resolver = getContext().getContentResolver();
+        if (etag == null && lastModified == null) {
+            resolver.delete(WeatherContract.ValidatorEntry.CONTENT_URI,
+                    WeatherContract.ValidatorEntry.COLUMN_LOCATION_SETTING + " = ?",
+                    new String[]{locationSetting});
+            return;
+        }
+        ContentValues validatorValues = new ContentValues();
+        validatorValues.put(WeatherContract.ValidatorEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        validatorValues.put(WeatherContract.ValidatorEntry.COLUMN_ETAG, etag);
+        validatorValues.put(WeatherContract.ValidatorEntry.COLUMN_LAST_MODIFIED, lastModified);
+        resolver.insert(WeatherContract.ValidatorEntry.CONTENT_URI, validatorValues);
+    }
+
+    /**
+     * Collects the days streamed out of {@link ForecastParser} into the columns handed to the
+     * content provider.  The location key is filled in when the forecast is stored, once the
+     * whole response has been read.
+     */
+    static class ForecastCollector implements ForecastParser.Listener {
+        final ForecastBatch mForecast = new ForecastBatch(16);
+        String mCityName;
+        double mLatitude;
+        double mLongitude;
+        private final int mJulianStartDay;
+
+        ForecastCollector() {
             // OWM returns daily forecasts based upon the local time of the city that is being
             // asked for, which means that we need to know the GMT offset to translate this data
             // properly.
@@ -303,94 +632,131 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
             // current day, we're going to take advantage of that to get a nice
             // normalized UTC date for all of our weather.
 
-            Time dayTime = new Time();
-            dayTime.setToNow();
-
             // we start at the day returned by local time. Otherwise this is a mess.
-            int julianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
-
-            // now we work exclusively in UTC
-            dayTime = new Time();
-
-            for (int i = 0; i < weatherArray.length(); i++) {
-                // These are the values that will be collected.
-                long dateTime;
-                double pressure;
-                int humidity;
-                double windSpeed;
-                double windDirection;
-
-                double high;
-                double low;
-
-                String description;
-                int weatherId;
-
-                // Get the JSON object representing the day
-                JSONObject dayForecast = weatherArray.getJSONObject(i);
-
-                // Cheating to convert this to UTC time, which is what we want anyhow
-                dateTime = dayTime.setJulianDay(julianStartDay + i);
-
-                pressure = dayForecast.getDouble(OWM_PRESSURE);
-                humidity = dayForecast.getInt(OWM_HUMIDITY);
-                windSpeed = dayForecast.getDouble(OWM_WINDSPEED);
-                windDirection = dayForecast.getDouble(OWM_WIND_DIRECTION);
-
-                // Description is in a child array called "weather", which is 1 element long.
-                // That element also contains a weather code.
-                JSONObject weatherObject =
-                        dayForecast.getJSONArray(OWM_WEATHER).getJSONObject(0);
-                description = weatherObject.getString(OWM_DESCRIPTION);
-                weatherId = weatherObject.getInt(OWM_WEATHER_ID);
-
-                // Temperatures are in a child object called "temp".  Try not to name variables
-                // "temp" when working with temperature.  It confuses everybody.
-                JSONObject temperatureObject = dayForecast.getJSONObject(OWM_TEMPERATURE);
-                high = temperatureObject.getDouble(OWM_MAX);
-                low = temperatureObject.getDouble(OWM_MIN);
-
-                ContentValues weatherValues = new ContentValues();
-
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, dateTime);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, humidity);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, pressure);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, windSpeed);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, windDirection);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, high);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, low);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, description);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherId);
-
-                cVVector.add(weatherValues);
-            }
+            mJulianStartDay = DayBoundaries.getJulianDay(System.currentTimeMillis());
+        }
 
-            int inserted = 0;
-            // add to database
-            if (cVVector.size() > 0) {
-                ContentValues[] cvArray = new ContentValues[cVVector.size()];
-                cVVector.toArray(cvArray);
-                getContext().getContentResolver().bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, cvArray);
-
-                // delete old data so we don't build up an endless history
-                getContext().getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI,
-                        WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
-                        new String[]{Long.toString(dayTime.setJulianDay(julianStartDay - 1))});
-
-                updateWidgets();
-                updateMuzei();
-                notifyWeather();
-                Utility.updateWatchFace(mGoogleApiClient, getContext());
-            }
-            Log.d(LOG_TAG, "Sync Complete. " + cVVector.size() + " Inserted");
-            setLocationStatus(getContext(), LOCATION_STATUS_OK);
+        void setLocationId(long locationId) {
+            mForecast.setLocationId(locationId);
+        }
 
-        } catch (JSONException e) {
-            Log.e(LOG_TAG, e.getMessage(), e);
-            e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
+        @Override
+        public void onCity(String cityName, double latitude, double longitude) {
+            mCityName = cityName;
+            mLatitude = latitude;
+            mLongitude = longitude;
+        }
+
+        @Override
+        public void onDay(ForecastParser.Day day) {
+            // Cheating to convert this to UTC time, which is what we want anyhow
+            long dateTime = DayBoundaries.getDayStart(mJulianStartDay + day.index);
+
+            mForecast.add(dateTime, day.weatherId, day.description, day.low, day.high,
+                    day.humidity, day.pressure, day.windSpeed, day.windDirection);
+        }
+    }
+
+    /**
+     * Parse the forecast straight from the response stream.  Each day is turned into a
+     * database row as soon as it has been read, so neither the raw response nor a JSONObject
+     * tree of it is ever held in memory.
+     *
+     * @return true if the response held a forecast to store.
+     */
+    private boolean getWeatherDataFromStream(LocationSyncResult result)
+            throws IOException, JSONException {
+        InputStream forecastStream = result.response.getBody();
+        if (forecastStream == null) {
+            // Nothing to do.
+            return false;
         }
+
+        result.collector = new ForecastCollector();
+        int errorCode = new ForecastParser().parse(forecastStream, result.collector);
+
+        // do we have an error?
+        switch (errorCode) {
+            case HttpURLConnection.HTTP_OK:
+                return true;
+            case HttpURLConnection.HTTP_NOT_FOUND:
+                result.status = LOCATION_STATUS_INVALID;
+                return false;
+            default:
+                result.status = LOCATION_STATUS_SERVER_DOWN;
+                return false;
+        }
+    }
+
+    /**
+     * Adds the location and its collected forecast to the database, leaving days that haven't
+     * changed alone, and archives the location's past days.
+     */
+    private void storeWeather(LocationSyncResult result) {
+        ForecastCollector collector = result.collector;
+        ForecastBatch batch = collector.mForecast;
+        if (batch.size() > 0) {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+                replaceForecast(result);
+            } else {
+                // Without ContentProvider.call the location, the forecast and the pruning of
+                // old days go in separately; the prune stage catches up on the last.
+                collector.setLocationId(addLocation(result.locationSetting,
+                        collector.mCityName, collector.mLatitude, collector.mLongitude));
+                ContentValues[] cvArray = batch.toContentValues();
+                // bulkInsert can only report how many rows were written, not how many of
+                // them were new
+                int written = getContext().getContentResolver().bulkInsert(
+                        WeatherContract.WeatherEntry.buildWeatherUpsertUri(), cvArray);
+                result.updated = written;
+                result.unchanged = cvArray.length - written;
+            }
+            result.stored = result.inserted + result.updated > 0;
+        }
+    }
+
+    /**
+     * Stores the location, its forecast and the archiving of its past days as one write, so
+     * readers never see a forecast that is half old and half new.
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private void replaceForecast(LocationSyncResult result) {
+        ForecastCollector collector = result.collector;
+        Bundle extras = collector.mForecast.toBundle();
+        extras.putString(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
+                result.locationSetting);
+        extras.putString(WeatherContract.LocationEntry.COLUMN_CITY_NAME, collector.mCityName);
+        extras.putDouble(WeatherContract.LocationEntry.COLUMN_COORD_LAT, collector.mLatitude);
+        extras.putDouble(WeatherContract.LocationEntry.COLUMN_COORD_LONG, collector.mLongitude);
+        extras.putLong(WeatherContract.WeatherEntry.KEY_PRUNE_BEFORE, getYesterday());
+
+        Bundle counts = getContext().getContentResolver().call(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                WeatherContract.WeatherEntry.METHOD_REPLACE_FORECAST, null, extras);
+        collector.setLocationId(counts.getLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY));
+        result.inserted = counts.getInt(WeatherContract.WeatherEntry.KEY_INSERTED);
+        result.updated = counts.getInt(WeatherContract.WeatherEntry.KEY_UPDATED);
+        result.unchanged = counts.getInt(WeatherContract.WeatherEntry.KEY_UNCHANGED);
+    }
+
+    /**
+     * Moves weather from before today into the history, for every location.
+     *
+     * @return the number of rows moved.
+     */
+    private int archiveOldWeather() {
+        return getContext().getContentResolver().delete(
+                WeatherContract.WeatherEntry.buildWeatherArchiveUri(),
+                WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
+                new String[]{Long.toString(getYesterday())});
+    }
+
+    /**
+     * @return the normalized date of yesterday, the last day of weather to archive.
+     */
+    private static long getYesterday() {
+        int julianToday = DayBoundaries.getJulianDay(System.currentTimeMillis());
+        return DayBoundaries.getDayStart(julianToday - 1);
     }
 
 
@@ -429,7 +795,7 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
                 // Last sync was more than 1 day ago, let's send a notification with the weather.
                 String locationQuery = Utility.getPreferredLocation(context);
 
-                Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(locationQuery, System.currentTimeMillis());
+                Uri weatherUri = WeatherContract.CurrentEntry.buildCurrentUri(locationQuery);
 
                 // we'll query our contentProvider, as always
                 Cursor cursor = context.getContentResolver().query(weatherUri, NOTIFY_WEATHER_PROJECTION, null, null, null);
@@ -3,11 +3,19 @@ package com.example.android.sunshine.app.sync;
 import android.app.Service;
 import android.content.Intent;
 import android.os.IBinder;
+import android.support.annotation.VisibleForTesting;
 import android.util.Log;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+
 public class SunshineSyncService extends Service {
+    // Number of recent syncs kept for dump()
+    private static final int SYNC_HISTORY_SIZE = 20;
+
     private static final Object sSyncAdapterLock = new Object();
     private static SunshineSyncAdapter sSunshineSyncAdapter = null;
+    private static final SyncHistory sSyncHistory = new SyncHistory(SYNC_HISTORY_SIZE);
 
     @Override
     public void onCreate() {
@@ -23,4 +31,22 @@ public class SunshineSyncService extends Service {
     public IBinder onBind(Intent intent) {
         return sSunshineSyncAdapter.getSyncAdapterBinder();
     }
-}
\ No newline at end of file
+
+    /**
+     * Prints the stage timings of the recent syncs and the HTTP totals.  Run
+     * {@code adb shell dumpsys activity service SunshineSyncService} to see them.
+     */
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        sSyncHistory.dump(writer);
+        SunshineHttpClient.getInstance().dump(writer);
+    }
+
+    /**
+     * @return the history every sync is recorded into.
+     */
+    @VisibleForTesting
+    static SyncHistory getSyncHistory() {
+        return sSyncHistory;
+    }
+}
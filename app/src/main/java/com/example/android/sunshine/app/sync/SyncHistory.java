@@ -0,0 +1,106 @@
+package com.example.android.sunshine.app.sync;
+
+import android.text.format.DateFormat;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A ring buffer of the most recent {@link SyncRun}s, so the cost of each sync stage can be
+ * read back from a device with {@code adb shell dumpsys activity service SunshineSyncService}.
+ */
+final class SyncHistory {
+
+    private final SyncRun[] mRuns;
+    // index the next run is written to
+    private int mNext;
+    private int mSize;
+
+    SyncHistory(int capacity) {
+        mRuns = new SyncRun[capacity];
+    }
+
+    synchronized void add(SyncRun run) {
+        mRuns[mNext] = run;
+        mNext = (mNext + 1) % mRuns.length;
+        if (mSize < mRuns.length) {
+            mSize++;
+        }
+    }
+
+    /**
+     * @return the buffered runs, oldest first.
+     */
+    synchronized List<SyncRun> getRuns() {
+        List<SyncRun> runs = new ArrayList<SyncRun>(mSize);
+        int first = (mNext - mSize + mRuns.length) % mRuns.length;
+        for (int i = 0; i < mSize; i++) {
+            runs.add(mRuns[(first + i) % mRuns.length]);
+        }
+        return runs;
+    }
+
+    synchronized void clear() {
+        for (int i = 0; i < mRuns.length; i++) {
+            mRuns[i] = null;
+        }
+        mNext = 0;
+        mSize = 0;
+    }
+
+    /**
+     * Prints every buffered run stage by stage, followed by the mean of each stage across
+     * them, so the stage that dominates sync latency stands out.
+     */
+    void dump(PrintWriter writer) {
+        List<SyncRun> runs = getRuns();
+        writer.println("Last " + runs.size() + " syncs (oldest first):");
+
+        // stage name -> {total nanos, total bytes, total rows, count, timeouts}
+        Map<String, long[]> totals = new LinkedHashMap<String, long[]>();
+        for (SyncRun run : runs) {
+            writer.println(String.format(Locale.US, "  %s: %d locations in %.1fms",
+                    DateFormat.format("yyyy-MM-dd kk:mm:ss", run.getStartTimeMillis()),
+                    run.getLocationCount(), run.getElapsedNanos() / 1e6));
+            for (SyncRun.StageRecord record : run.getStages()) {
+                long elapsedNanos = record.getElapsedNanos();
+                writer.println(String.format(Locale.US, "    %-12s %-14s %9s %8dB %4d rows%s",
+                        record.location != null ? record.location : "-", record.stage,
+                        elapsedNanos >= 0
+                                ? String.format(Locale.US, "%.1fms", elapsedNanos / 1e6)
+                                : "running",
+                        record.getBytes(), record.getRows(),
+                        record.isTimedOut() ? "  TIMED OUT" : ""));
+                if (elapsedNanos < 0) {
+                    continue;
+                }
+
+                long[] total = totals.get(record.stage);
+                if (total == null) {
+                    total = new long[5];
+                    totals.put(record.stage, total);
+                }
+                total[0] += record.getElapsedNanos();
+                total[1] += record.getBytes();
+                total[2] += record.getRows();
+                total[3]++;
+                if (record.isTimedOut()) {
+                    total[4]++;
+                }
+            }
+        }
+
+        writer.println("Mean per stage:");
+        for (Map.Entry<String, long[]> entry : totals.entrySet()) {
+            long[] total = entry.getValue();
+            writer.println(String.format(Locale.US,
+                    "  %-14s %9.1fms %8dB %4d rows  (%d samples, %d timed out)",
+                    entry.getKey(), total[0] / 1e6 / total[3], total[1] / total[3],
+                    total[2] / total[3], total[3], total[4]));
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.example.android.sunshine.app.sync;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * What one call of onPerformSync did: the time each stage took, per location, along with the
+ * bytes and rows it handled.  Locations sync concurrently, so stages may be recorded from
+ * several threads.
+ */
+final class SyncRun {
+
+    /**
+     * The timing of one stage, for one location or for the sync as a whole.
+     */
+    static final class StageRecord {
+        // null for the stages that run once per sync
+        final String location;
+        final String stage;
+        private final long mStartNanos = System.nanoTime();
+        private volatile long mElapsedNanos = -1;
+        private volatile long mBytes;
+        private volatile int mRows;
+        private boolean mTimedOut;
+
+        private StageRecord(String location, String stage) {
+            this.location = location;
+            this.stage = stage;
+        }
+
+        void setBytes(long bytes) {
+            mBytes = bytes;
+        }
+
+        void setRows(int rows) {
+            mRows = rows;
+        }
+
+        long getBytes() {
+            return mBytes;
+        }
+
+        int getRows() {
+            return mRows;
+        }
+
+        /**
+         * @return the wall time the stage took, or -1 if it hasn't finished.
+         */
+        long getElapsedNanos() {
+            return mElapsedNanos;
+        }
+
+        /**
+         * @return true if the stage gave up on finishing because it took too long.
+         */
+        synchronized boolean isTimedOut() {
+            return mTimedOut;
+        }
+
+        /**
+         * Ends the stage.
+         *
+         * @return false if it had already been ended by a timeout.
+         */
+        synchronized boolean end() {
+            if (mElapsedNanos >= 0) {
+                return false;
+            }
+            mElapsedNanos = System.nanoTime() - mStartNanos;
+            return true;
+        }
+
+        /**
+         * Ends a stage that ran out of time, unless it has finished already.
+         *
+         * @return false if the stage had already ended.
+         */
+        synchronized boolean timeOut() {
+            if (!end()) {
+                return false;
+            }
+            mTimedOut = true;
+            return true;
+        }
+    }
+
+    private final long mStartTimeMillis = System.currentTimeMillis();
+    private final long mStartNanos = System.nanoTime();
+    private final List<StageRecord> mStages = new ArrayList<StageRecord>();
+    private long mElapsedNanos = -1;
+    private int mLocationCount;
+
+    /**
+     * Starts timing a stage.  The caller ends it with {@link StageRecord#end()}.
+     */
+    StageRecord beginStage(String location, String stage) {
+        StageRecord record = new StageRecord(location, stage);
+        synchronized (mStages) {
+            mStages.add(record);
+        }
+        return record;
+    }
+
+    void finish(int locationCount) {
+        mLocationCount = locationCount;
+        mElapsedNanos = System.nanoTime() - mStartNanos;
+    }
+
+    long getStartTimeMillis() {
+        return mStartTimeMillis;
+    }
+
+    long getElapsedNanos() {
+        return mElapsedNanos;
+    }
+
+    int getLocationCount() {
+        return mLocationCount;
+    }
+
+    /**
+     * @return the stages recorded so far, in the order they started.
+     */
+    List<StageRecord> getStages() {
+        synchronized (mStages) {
+            return new ArrayList<StageRecord>(mStages);
+        }
+    }
+
+    /**
+     * @return the first record of the named stage for the location, or null if it didn't run.
+     */
+    StageRecord getStage(String location, String stage) {
+        synchronized (mStages) {
+            for (StageRecord record : mStages) {
+                if (stage.equals(record.stage) && (location == null
+                        ? record.location == null : location.equals(record.location))) {
+                    return record;
+                }
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,293 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.SharedPreferences;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Picks the periodic sync interval from how the preferred location's forecast behaved over the
+ * last few syncs.  A run of syncs bringing identical forecasts widens the interval, a forecast
+ * whose weather or temperatures moved a lot narrows it, and it never exceeds
+ * {@link #MAX_INTERVAL}, so the data shown is never staler than that.
+ * <p/>
+ * The history of syncs and the forecast they brought are kept in their own preferences file,
+ * away from the user's settings and the listeners on them, along with the location the
+ * forecast is for.  The first sync after the preferred location changes has nothing to be
+ * compared with, so it counts as a small change and starts a new run of identical forecasts.
+ */
+class SyncScheduler {
+
+    static final String PREFS_NAME = "sync_scheduler";
+
+    // Intervals, in seconds, like SunshineSyncAdapter.SYNC_INTERVAL
+    static final int MIN_INTERVAL = 60 * 60;
+    // The staleness ceiling
+    static final int MAX_INTERVAL = 60 * 60 * 6;
+
+    // How much one sync can move the interval
+    private static final double WIDEN_FACTOR = 1.5;
+    private static final int NARROW_DIVISOR = 2;
+
+    // Identical forecasts in a row before the interval starts to widen
+    private static final int WIDEN_AFTER = 2;
+
+    // Only the next few days count toward volatility; the far end of the forecast moves
+    // every time anyway.
+    private static final int VOLATILE_DAYS = 3;
+    // A high or low moving by this much, in Celsius, is a big change
+    private static final double BIG_TEMPERATURE_CHANGE = 3.0;
+
+    // Syncs remembered
+    private static final int HISTORY_SIZE = 10;
+
+    private static final String KEY_INTERVAL = "interval";
+    private static final String KEY_HISTORY = "history";
+    private static final String KEY_FORECAST = "forecast";
+    private static final String KEY_LOCATION = "location";
+
+    static final int OUTCOME_FAILED = 0;
+    static final int OUTCOME_UNCHANGED = 1;
+    static final int OUTCOME_MINOR_CHANGE = 2;
+    static final int OUTCOME_MAJOR_CHANGE = 3;
+
+    /**
+     * One day of the preferred location's forecast, as far as volatility is concerned.
+     */
+    static final class Day {
+        final long date;
+        final int weatherId;
+        final double high;
+        final double low;
+
+        Day(long date, int weatherId, double high, double low) {
+            this.date = date;
+            this.weatherId = weatherId;
+            this.high = high;
+            this.low = low;
+        }
+    }
+
+    /**
+     * A past sync: when it happened and what it found.
+     */
+    static final class Sync {
+        final long timeMillis;
+        final int outcome;
+
+        Sync(long timeMillis, int outcome) {
+            this.timeMillis = timeMillis;
+            this.outcome = outcome;
+        }
+    }
+
+    private final SharedPreferences mPrefs;
+    private final Clock mClock;
+    private final int mDefaultInterval;
+
+    /**
+     * @param prefs           where the history is kept
+     * @param clock           the time source
+     * @param defaultInterval the interval, in seconds, to start from
+     */
+    SyncScheduler(SharedPreferences prefs, Clock clock, int defaultInterval) {
+        mPrefs = prefs;
+        mClock = clock;
+        mDefaultInterval = defaultInterval;
+    }
+
+    /**
+     * @return the sync interval currently in use, in seconds.
+     */
+    int getInterval() {
+        return mPrefs.getInt(KEY_INTERVAL, mDefaultInterval);
+    }
+
+    /**
+     * Records a sync that didn't bring anything new, such as a 304.
+     *
+     * @param locationSetting the location synced
+     * @return the interval to sync at from now on, in seconds.
+     */
+    int onUnchanged(String locationSetting) {
+        // Unchanged from a forecast of another location is no sign of calm weather
+        int outcome = isLastLocation(locationSetting) ? OUTCOME_UNCHANGED : OUTCOME_MINOR_CHANGE;
+        return record(outcome, locationSetting, null);
+    }
+
+    /**
+     * Records a sync that failed.  Failures say nothing about the weather, so they leave the
+     * interval alone; retrying is up to the sync framework.
+     *
+     * @return the interval to sync at from now on, in seconds.
+     */
+    int onFailed() {
+        return record(OUTCOME_FAILED, null, null);
+    }
+
+    /**
+     * Records a sync that brought the given forecast, comparing it to the last one if that was
+     * for the same location.
+     *
+     * @param locationSetting the location synced
+     * @return the interval to sync at from now on, in seconds.
+     */
+    int onForecast(String locationSetting, List<Day> forecast) {
+        List<Day> previous = isLastLocation(locationSetting) ? readForecast() : null;
+        return record(compare(previous, forecast), locationSetting, forecast);
+    }
+
+    private boolean isLastLocation(String locationSetting) {
+        return locationSetting.equals(mPrefs.getString(KEY_LOCATION, null));
+    }
+
+    /**
+     * @return the recorded syncs, oldest first.
+     */
+    List<Sync> getHistory() {
+        List<Sync> history = new ArrayList<Sync>(HISTORY_SIZE);
+        String encoded = mPrefs.getString(KEY_HISTORY, "");
+        if (encoded.length() == 0) {
+            return history;
+        }
+        for (String entry : encoded.split(",")) {
+            int colon = entry.indexOf(':');
+            history.add(new Sync(Long.parseLong(entry.substring(0, colon)),
+                    Integer.parseInt(entry.substring(colon + 1))));
+        }
+        return history;
+    }
+
+    /**
+     * @param locationSetting the location synced, or null if the sync didn't get that far
+     * @param forecast        the forecast it brought, or null if none
+     */
+    private int record(int outcome, String locationSetting, List<Day> forecast) {
+        List<Sync> history = getHistory();
+        history.add(new Sync(mClock.currentTimeMillis(), outcome));
+        while (history.size() > HISTORY_SIZE) {
+            history.remove(0);
+        }
+
+        int interval = nextInterval(getInterval(), history);
+
+        SharedPreferences.Editor editor = mPrefs.edit()
+                .putInt(KEY_INTERVAL, interval)
+                .putString(KEY_HISTORY, encodeHistory(history));
+        if (locationSetting != null && !isLastLocation(locationSetting)) {
+            // The forecast kept is the old location's
+            editor.remove(KEY_FORECAST).putString(KEY_LOCATION, locationSetting);
+        }
+        if (forecast != null) {
+            editor.putString(KEY_FORECAST, encodeForecast(forecast));
+        }
+        editor.commit();
+        return interval;
+    }
+
+    /**
+     * Narrows the interval right after a big change and widens it once the forecast has held
+     * still for a few syncs spanning at least a whole interval, so a burst of manual refreshes
+     * doesn't pass for a quiet spell.  Failed syncs are ignored.
+     */
+    private int nextInterval(int interval, List<Sync> history) {
+        Sync last = history.get(history.size() - 1);
+        switch (last.outcome) {
+            case OUTCOME_MAJOR_CHANGE:
+                return Math.max(MIN_INTERVAL, interval / NARROW_DIVISOR);
+            case OUTCOME_UNCHANGED:
+                int streak = 0;
+                long heldSince = last.timeMillis;
+                for (int i = history.size() - 1; i >= 0; i--) {
+                    Sync sync = history.get(i);
+                    if (sync.outcome == OUTCOME_FAILED) {
+                        continue;
+                    }
+                    heldSince = sync.timeMillis;
+                    if (sync.outcome != OUTCOME_UNCHANGED) {
+                        break;
+                    }
+                    streak++;
+                }
+                if (streak >= WIDEN_AFTER && last.timeMillis - heldSince >= interval * 1000L) {
+                    return (int) Math.min(MAX_INTERVAL, interval * WIDEN_FACTOR);
+                }
+                return Math.min(MAX_INTERVAL, interval);
+            default:
+                return Math.min(MAX_INTERVAL, interval);
+        }
+    }
+
+    /**
+     * @return how much the forecast moved between two syncs, over the days both cover.
+     */
+    static int compare(List<Day> previous, List<Day> current) {
+        if (previous == null) {
+            // Nothing to compare against yet
+            return OUTCOME_MINOR_CHANGE;
+        }
+        Map<Long, Day> previousByDate = new HashMap<Long, Day>(previous.size());
+        for (Day day : previous) {
+            previousByDate.put(day.date, day);
+        }
+
+        int outcome = OUTCOME_UNCHANGED;
+        int compared = 0;
+        for (Day day : current) {
+            Day before = previousByDate.get(day.date);
+            if (before == null) {
+                continue;
+            }
+            boolean nearTerm = compared++ < VOLATILE_DAYS;
+            if (nearTerm && (before.weatherId / 100 != day.weatherId / 100
+                    || Math.abs(before.high - day.high) >= BIG_TEMPERATURE_CHANGE
+                    || Math.abs(before.low - day.low) >= BIG_TEMPERATURE_CHANGE)) {
+                return OUTCOME_MAJOR_CHANGE;
+            }
+            if (before.weatherId != day.weatherId || before.high != day.high
+                    || before.low != day.low) {
+                outcome = OUTCOME_MINOR_CHANGE;
+            }
+        }
+        return outcome;
+    }
+
+    private List<Day> readForecast() {
+        String encoded = mPrefs.getString(KEY_FORECAST, null);
+        if (encoded == null) {
+            return null;
+        }
+        List<Day> forecast = new ArrayList<Day>();
+        if (encoded.length() == 0) {
+            return forecast;
+        }
+        for (String entry : encoded.split(",")) {
+            String[] fields = entry.split(":");
+            forecast.add(new Day(Long.parseLong(fields[0]), Integer.parseInt(fields[1]),
+                    Double.parseDouble(fields[2]), Double.parseDouble(fields[3])));
+        }
+        return forecast;
+    }
+
+    private static String encodeForecast(List<Day> forecast) {
+        StringBuilder sb = new StringBuilder();
+        for (Day day : forecast) {
+            if (sb.length() > 0) sb.append(',');
+            sb.append(String.format(Locale.US, "%d:%d:%s:%s",
+                    day.date, day.weatherId, Double.toString(day.high), Double.toString(day.low)));
+        }
+        return sb.toString();
+    }
+
+    private static String encodeHistory(List<Sync> history) {
+        StringBuilder sb = new StringBuilder();
+        for (Sync sync : history) {
+            if (sb.length() > 0) sb.append(',');
+            sb.append(sync.timeMillis).append(':').append(sync.outcome);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,25 @@
+package com.example.android.sunshine.app.sync;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+
+/**
+ * One step of a sync.  The adapter runs its stages in order, timing each one into the
+ * {@link SyncRun} it belongs to; a stage records any bytes and rows it handled itself.
+ */
+interface SyncStage {
+
+    /**
+     * @return a short name for the stage, as shown in the sync history dump.
+     */
+    String getName();
+
+    /**
+     * @param result the location being synced, or null for the stages that run once per sync
+     * @param record where the stage records the bytes and rows it handled
+     * @return true to go on to the next stage, false if the sync of this location is done.
+     */
+    boolean run(SunshineSyncAdapter.LocationSyncResult result, SyncRun.StageRecord record)
+            throws IOException, JSONException;
+}
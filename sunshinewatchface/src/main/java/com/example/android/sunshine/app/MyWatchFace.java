@@ -38,6 +38,7 @@ import android.text.format.DateFormat;
 import android.view.SurfaceHolder;
 import android.view.WindowInsets;
 
+import com.example.android.sunshine.conditions.WeatherConditions;
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.api.GoogleApiClient;
 import com.google.android.gms.common.api.PendingResult;
@@ -82,6 +83,13 @@ public class MyWatchFace extends CanvasWatchFaceService {
     public static final String PATH_WITH_WEATHER = "/weather";
     private static final String COLON_STRING = ":";
 
+    /**
+     * Icon drawn for each WeatherConditions group, 0 for none.
+     */
+    private static final int[] WEATHER_ICONS = {0, R.drawable.ic_storm, R.drawable.ic_light_rain,
+            R.drawable.ic_rain, R.drawable.ic_snow, R.drawable.ic_fog, R.drawable.ic_clear,
+            R.drawable.ic_light_clouds, R.drawable.ic_cloudy};
+
     @Override
     public Engine onCreateEngine() {
         return new Engine();
@@ -161,7 +169,8 @@ public class MyWatchFace extends CanvasWatchFaceService {
          * disable anti-aliasing in ambient mode.
          */
         boolean mLowBitAmbient;
-        Bitmap ic_clear, ic_storm, ic_light_rain, ic_rain, ic_snow, ic_fog, ic_light_clouds, ic_cloudy;
+        // Indexed by WeatherConditions group, null for GROUP_NONE
+        Bitmap[] mWeatherIcons;
 
         @Override
         public void onCreate(SurfaceHolder holder) {
@@ -192,31 +201,13 @@ public class MyWatchFace extends CanvasWatchFaceService {
             mCalendar = Calendar.getInstance();
             initFormats();
             mDate = new Date();
-            ic_clear = BitmapFactory.decodeResource(getResources(),
-                    R.drawable.ic_clear);
-            ic_storm = BitmapFactory.decodeResource(getResources(),
-                    R.drawable.ic_clear);
-
-            ic_light_rain = BitmapFactory.decodeResource(getResources(),
-                    R.drawable.ic_light_rain);
-            ic_rain = BitmapFactory.decodeResource(getResources(),
-                    R.drawable.ic_rain);
-            ic_snow = BitmapFactory.decodeResource(getResources(),
-                    R.drawable.ic_snow);
-            ic_rain = BitmapFactory.decodeResource(getResources(),
-                    R.drawable.ic_rain);
-            ic_snow = BitmapFactory.decodeResource(getResources(),
-                    R.drawable.ic_snow);
-            ic_fog = BitmapFactory.decodeResource(getResources(),
-                    R.drawable.ic_fog);
-            ic_storm = BitmapFactory.decodeResource(getResources(),
-                    R.drawable.ic_storm);
-            ic_clear = BitmapFactory.decodeResource(getResources(),
-                    R.drawable.ic_clear);
-            ic_light_clouds = BitmapFactory.decodeResource(getResources(),
-                    R.drawable.ic_light_clouds);
-            ic_cloudy = BitmapFactory.decodeResource(getResources(),
-                    R.drawable.ic_cloudy);
+            mWeatherIcons = new Bitmap[WeatherConditions.GROUP_COUNT];
+            for (int group = 0; group < WEATHER_ICONS.length; group++) {
+                if (WEATHER_ICONS[group] != 0) {
+                    mWeatherIcons[group] = BitmapFactory.decodeResource(resources,
+                            WEATHER_ICONS[group]);
+                }
+            }
 
         }
 
@@ -444,30 +435,7 @@ public class MyWatchFace extends CanvasWatchFaceService {
         }
 
         private Bitmap getIconResourceForWeatherCondition(int weatherId) {
-            if (weatherId >= 200 && weatherId <= 232) {
-                return ic_storm;
-            } else if (weatherId >= 300 && weatherId <= 321) {
-                return ic_light_rain;
-            } else if (weatherId >= 500 && weatherId <= 504) {
-                return ic_rain;
-            } else if (weatherId == 511) {
-                return ic_snow;
-            } else if (weatherId >= 520 && weatherId <= 531) {
-                return ic_rain;
-            } else if (weatherId >= 600 && weatherId <= 622) {
-                return ic_snow;
-            } else if (weatherId >= 701 && weatherId <= 761) {
-                return ic_fog;
-            } else if (weatherId == 761 || weatherId == 781) {
-                return ic_storm;
-            } else if (weatherId == 800) {
-                return ic_clear;
-            } else if (weatherId == 801) {
-                return ic_light_clouds;
-            } else if (weatherId >= 802 && weatherId <= 804) {
-                return ic_cloudy;
-            }
-            return null;
+            return mWeatherIcons[WeatherConditions.getGroup(weatherId)];
         }
 
         /**
@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.conditions;
+
+/**
+ * Maps OpenWeatherMap condition ids to the group of artwork drawn for them and to their
+ * description, for the phone app and the watch face alike.
+ * <p/>
+ * Resource ids differ between modules, so this only hands out indices: a module keeps its own
+ * arrays of icons, art and strings, ordered by {@link #GROUP_COUNT the groups} and
+ * {@link #DESCRIPTION_COUNT the descriptions}, and looks up the index it gets here.  Both come
+ * from tables over the 200-999 id range, filled in once, so a lookup is a range check and an
+ * array read.
+ * <p/>
+ * Based on weather code data found at:
+ * http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
+ */
+public final class WeatherConditions {
+
+    public static final int MIN_ID = 200;
+    public static final int MAX_ID = 999;
+
+    // Artwork groups.  Every id outside the ones below is in GROUP_NONE
+    public static final int GROUP_NONE = 0;
+    public static final int GROUP_STORM = 1;
+    public static final int GROUP_LIGHT_RAIN = 2;
+    public static final int GROUP_RAIN = 3;
+    public static final int GROUP_SNOW = 4;
+    public static final int GROUP_FOG = 5;
+    public static final int GROUP_CLEAR = 6;
+    public static final int GROUP_LIGHT_CLOUDS = 7;
+    public static final int GROUP_CLOUDS = 8;
+    public static final int GROUP_COUNT = 9;
+
+    // Index 0 is the description of ids with none of their own
+    public static final int DESCRIPTION_UNKNOWN = 0;
+
+    // The part of each description's name after "condition_", in index order: the thunderstorm
+    // and drizzle ranges share one each, every other described id has its own
+    private static final String[] DESCRIPTION_NAMES = {
+            "unknown", "2xx", "3xx",
+            "500", "501", "502", "503", "504", "511", "520", "531",
+            "600", "601", "602", "611", "612", "615", "616", "620", "621", "622",
+            "701", "711", "721", "731", "741", "751", "761", "762", "771", "781",
+            "800", "801", "802", "803", "804",
+            "900", "901", "902", "903", "904", "905", "906",
+            "951", "952", "953", "954", "955", "956", "957", "958", "959", "960", "961", "962"};
+    public static final int DESCRIPTION_COUNT = DESCRIPTION_NAMES.length;
+
+    private static final String[] ART_SLUGS = {null, "storm", "light_rain", "rain", "snow", "fog",
+            "clear", "light_clouds", "clouds"};
+
+    private static final String[] IMAGE_URLS = {
+            null,
+            "http://upload.wikimedia.org/wikipedia/commons/2/28/Thunderstorm_in_Annemasse,_France.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/a/a0/Rain_on_leaf_504605006.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/6/6c/Rain-on-Thassos.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/b/b8/Fresh_snow.JPG",
+            "http://upload.wikimedia.org/wikipedia/commons/e/e6/Westminster_fog_-_London_-_UK.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/7/7e/A_few_trees_and_the_sun_(6009964513).jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/e/e7/Cloudy_Blue_Sky_(5031259890).jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/5/54/Cloudy_hills_in_Elis,_Greece_2.jpg",
+            // Squalls are drawn as a storm, but have a photo of their own
+            "http://upload.wikimedia.org/wikipedia/commons/d/dc/Raised_dust_ahead_of_a_severe_thunderstorm_1.jpg"};
+    private static final int IMAGE_SQUALLS = GROUP_COUNT;
+
+    private static final byte[] GROUPS = new byte[MAX_ID - MIN_ID + 1];
+    // Index into IMAGE_URLS, the group but for squalls
+    private static final byte[] IMAGES = new byte[MAX_ID - MIN_ID + 1];
+    private static final byte[] DESCRIPTIONS = new byte[MAX_ID - MIN_ID + 1];
+
+    static {
+        setGroup(200, 232, GROUP_STORM);
+        setGroup(300, 321, GROUP_LIGHT_RAIN);
+        setGroup(500, 504, GROUP_RAIN);
+        setGroup(511, 511, GROUP_SNOW);
+        setGroup(520, 531, GROUP_RAIN);
+        setGroup(600, 622, GROUP_SNOW);
+        setGroup(701, 761, GROUP_FOG);
+        setGroup(781, 781, GROUP_STORM);
+        setGroup(800, 800, GROUP_CLEAR);
+        setGroup(801, 801, GROUP_LIGHT_CLOUDS);
+        setGroup(802, 804, GROUP_CLOUDS);
+        System.arraycopy(GROUPS, 0, IMAGES, 0, GROUPS.length);
+        IMAGES[781 - MIN_ID] = IMAGE_SQUALLS;
+
+        for (int id = 200; id <= 232; id++) {
+            DESCRIPTIONS[id - MIN_ID] = 1;
+        }
+        for (int id = 300; id <= 321; id++) {
+            DESCRIPTIONS[id - MIN_ID] = 2;
+        }
+        for (int i = 3; i < DESCRIPTION_COUNT; i++) {
+            DESCRIPTIONS[Integer.parseInt(DESCRIPTION_NAMES[i]) - MIN_ID] = (byte) i;
+        }
+    }
+
+    private WeatherConditions() {
+    }
+
+    private static void setGroup(int firstId, int lastId, int group) {
+        for (int id = firstId; id <= lastId; id++) {
+            GROUPS[id - MIN_ID] = (byte) group;
+        }
+    }
+
+    /**
+     * @return the artwork group of the condition, {@link #GROUP_NONE} if it has none.
+     */
+    public static int getGroup(int weatherId) {
+        int index = weatherId - MIN_ID;
+        return index >= 0 && index < GROUPS.length ? GROUPS[index] : GROUP_NONE;
+    }
+
+    /**
+     * @return the index of the condition's description, {@link #DESCRIPTION_UNKNOWN} if it has
+     * none.
+     */
+    public static int getDescription(int weatherId) {
+        int index = weatherId - MIN_ID;
+        return index >= 0 && index < DESCRIPTIONS.length ? DESCRIPTIONS[index] : DESCRIPTION_UNKNOWN;
+    }
+
+    /**
+     * @return the name of a description, "2xx" or "500" say, as used in the names of the
+     * condition_ string resources.
+     */
+    public static String getDescriptionName(int description) {
+        return DESCRIPTION_NAMES[description];
+    }
+
+    /**
+     * @return the name the art packs give the condition's artwork, "light_rain" say, or null if
+     * there is none.
+     */
+    public static String getArtSlug(int weatherId) {
+        return ART_SLUGS[getGroup(weatherId)];
+    }
+
+    /**
+     * @return a URL to a photo of the condition, or null if there is none.
+     */
+    public static String getImageUrl(int weatherId) {
+        int index = weatherId - MIN_ID;
+        return IMAGE_URLS[index >= 0 && index < IMAGES.length ? IMAGES[index] : GROUP_NONE];
+    }
+}
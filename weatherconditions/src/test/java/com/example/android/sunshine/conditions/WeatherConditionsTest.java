@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.conditions;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/*
+    Compares the tables with the if/else chains they replaced, for every id from well below to
+    well above the range they cover.
+ */
+public class WeatherConditionsTest {
+
+    private static final int FIRST_ID = -1000;
+    private static final int LAST_ID = 2000;
+
+    private static final List<Integer> DESCRIBED_IDS = Arrays.asList(
+            500, 501, 502, 503, 504, 511, 520, 531,
+            600, 601, 602, 611, 612, 615, 616, 620, 621, 622,
+            701, 711, 721, 731, 741, 751, 761, 762, 771, 781,
+            800, 801, 802, 803, 804,
+            900, 901, 902, 903, 904, 905, 906,
+            951, 952, 953, 954, 955, 956, 957, 958, 959, 960, 961, 962);
+
+    private static String getArtSlug(int weatherId) {
+        if (weatherId >= 200 && weatherId <= 232) {
+            return "storm";
+        } else if (weatherId >= 300 && weatherId <= 321) {
+            return "light_rain";
+        } else if (weatherId >= 500 && weatherId <= 504) {
+            return "rain";
+        } else if (weatherId == 511) {
+            return "snow";
+        } else if (weatherId >= 520 && weatherId <= 531) {
+            return "rain";
+        } else if (weatherId >= 600 && weatherId <= 622) {
+            return "snow";
+        } else if (weatherId >= 701 && weatherId <= 761) {
+            return "fog";
+        } else if (weatherId == 761 || weatherId == 781) {
+            return "storm";
+        } else if (weatherId == 800) {
+            return "clear";
+        } else if (weatherId == 801) {
+            return "light_clouds";
+        } else if (weatherId >= 802 && weatherId <= 804) {
+            return "clouds";
+        }
+        return null;
+    }
+
+    private static String getImageUrl(int weatherId) {
+        if (weatherId >= 200 && weatherId <= 232) {
+            return "http://upload.wikimedia.org/wikipedia/commons/2/28/Thunderstorm_in_Annemasse,_France.jpg";
+        } else if (weatherId >= 300 && weatherId <= 321) {
+            return "http://upload.wikimedia.org/wikipedia/commons/a/a0/Rain_on_leaf_504605006.jpg";
+        } else if (weatherId >= 500 && weatherId <= 504) {
+            return "http://upload.wikimedia.org/wikipedia/commons/6/6c/Rain-on-Thassos.jpg";
+        } else if (weatherId == 511) {
+            return "http://upload.wikimedia.org/wikipedia/commons/b/b8/Fresh_snow.JPG";
+        } else if (weatherId >= 520 && weatherId <= 531) {
+            return "http://upload.wikimedia.org/wikipedia/commons/6/6c/Rain-on-Thassos.jpg";
+        } else if (weatherId >= 600 && weatherId <= 622) {
+            return "http://upload.wikimedia.org/wikipedia/commons/b/b8/Fresh_snow.JPG";
+        } else if (weatherId >= 701 && weatherId <= 761) {
+            return "http://upload.wikimedia.org/wikipedia/commons/e/e6/Westminster_fog_-_London_-_UK.jpg";
+        } else if (weatherId == 761 || weatherId == 781) {
+            return "http://upload.wikimedia.org/wikipedia/commons/d/dc/Raised_dust_ahead_of_a_severe_thunderstorm_1.jpg";
+        } else if (weatherId == 800) {
+            return "http://upload.wikimedia.org/wikipedia/commons/7/7e/A_few_trees_and_the_sun_(6009964513).jpg";
+        } else if (weatherId == 801) {
+            return "http://upload.wikimedia.org/wikipedia/commons/e/e7/Cloudy_Blue_Sky_(5031259890).jpg";
+        } else if (weatherId >= 802 && weatherId <= 804) {
+            return "http://upload.wikimedia.org/wikipedia/commons/5/54/Cloudy_hills_in_Elis,_Greece_2.jpg";
+        }
+        return null;
+    }
+
+    private static String getDescriptionName(int weatherId) {
+        if (weatherId >= 200 && weatherId <= 232) {
+            return "2xx";
+        } else if (weatherId >= 300 && weatherId <= 321) {
+            return "3xx";
+        } else if (DESCRIBED_IDS.contains(weatherId)) {
+            return String.valueOf(weatherId);
+        }
+        return "unknown";
+    }
+
+    @Test
+    public void artSlugsMatch() {
+        for (int id = FIRST_ID; id <= LAST_ID; id++) {
+            assertEquals("art slug of " + id, getArtSlug(id), WeatherConditions.getArtSlug(id));
+        }
+    }
+
+    @Test
+    public void imageUrlsMatch() {
+        for (int id = FIRST_ID; id <= LAST_ID; id++) {
+            assertEquals("image url of " + id, getImageUrl(id), WeatherConditions.getImageUrl(id));
+        }
+    }
+
+    @Test
+    public void descriptionsMatch() {
+        for (int id = FIRST_ID; id <= LAST_ID; id++) {
+            assertEquals("description of " + id, getDescriptionName(id),
+                    WeatherConditions.getDescriptionName(WeatherConditions.getDescription(id)));
+        }
+        assertEquals(DESCRIBED_IDS.size() + 3, WeatherConditions.DESCRIPTION_COUNT);
+    }
+
+    @Test
+    public void groupsOutsideRangeAreNone() {
+        assertEquals(WeatherConditions.GROUP_NONE, WeatherConditions.getGroup(Integer.MIN_VALUE));
+        assertEquals(WeatherConditions.GROUP_NONE, WeatherConditions.getGroup(Integer.MAX_VALUE));
+        assertEquals(WeatherConditions.DESCRIPTION_UNKNOWN,
+                WeatherConditions.getDescription(Integer.MIN_VALUE));
+    }
+}